@@ -207,6 +207,57 @@ public class ActionHandler {
     private int directionThroughSuggestionList;
     private SpellChecker.Direction spellingDirection;
     private Suggestion spellingSuggestion;
+    // The context passed to the last call to handleCharacter or of the last
+    // cell deleted.
+    private Context typingContext;
+
+    // Receives the translation of typed characters from the IME.
+    private final KeyboardListener.OnCharacterTypedListener onCharacterTyped = new KeyboardListener.OnCharacterTypedListener() {
+
+        @Override
+        public void onCharacterTyped(String result, boolean unknown) {
+            Context context = typingContext;
+            if (result == null) {
+                // IME couldn't handle the dot pattern propergate the error to
+                // the callback.
+                callback.onText("%s",
+                        context.getString(R.string.unknown_character), false);
+            } else if (unknown) {
+                // The rest of the word was written but the last cell was left
+                // out, which is more useful to hear than the echo.
+                callback.onNotify(true, true);
+                callback.onText("%s",
+                        context.getString(R.string.unknown_character), false);
+            } else {
+                callback.onNotify(true, true);
+
+                // Decide what to deliver to the callback such as a key echo
+                // or autocompletion string.
+                String character = echoCharacter(context, result);
+                result = character == null ? "" : character;
+                if (!(result = result.trim()).equals("")) {
+                    callback.onText("%s", result.toString(),
+                            listener.isPasswordField());
+                }
+            }
+        }
+    };
+
+    // Receives the text removed when the IME removes the last cell typed.
+    private final KeyboardListener.OnCellDeletedListener onCellDeleted = new KeyboardListener.OnCellDeletedListener() {
+
+        @Override
+        public void onCellDeleted(String removed) {
+            Context context = typingContext;
+            if (removed == null) {
+                // The word had no cells of its own.
+                deleteCharacter(context);
+                return;
+            }
+            callback.onText(context.getString(R.string.deleted), removed,
+                    listener.isPasswordField());
+        }
+    };
 
     /**
      * Create a new ActionHandler for the given context.
@@ -264,24 +315,43 @@ public class ActionHandler {
      * 
      * @param context
      *            The application context.
+     * The action is performed once the cells typed before it have been
+     * translated, so it sees the text they typed.
+     * 
      * @param value
      *            The Swipe value from the View.
      * @return true if the Swipe was handled otherwise false.
      */
-    public boolean handleSwipe(Context context, Swipe value) {
+    public boolean handleSwipe(final Context context, Swipe value) {
         // Disable all swipes while voice input is in progress.
         if (voiceInput.isListening()) {
             return true;
         }
 
-        value = normaliseSwipe(value);
+        final Swipe swipe = normaliseSwipe(value);
+        if (swipe == Swipe.NONE) {
+            return false;
+        }
+        final boolean fastDoubleSwipe = fastDoubleSwipe(swipe,
+                DOUBLE_TOUCH_THRESHOLD);
+        listener.runWhenTranslated(new Runnable() {
+
+            @Override
+            public void run() {
+                performSwipe(context, swipe, fastDoubleSwipe);
+            }
+        });
+        return true;
+    }
+
+    private void performSwipe(Context context, Swipe value,
+            boolean fastDoubleSwipe) {
         String message = null;
         boolean notify = true;
         boolean setDots = false;
         boolean considerPassword = false;
         // states for dots 7 and 8
         boolean dots[] = { false, false };
-        boolean fastDoubleSwipe = fastDoubleSwipe(value, DOUBLE_TOUCH_THRESHOLD);
 
         switch (value) {
         case ONE_LEFT:
@@ -429,9 +499,13 @@ public class ActionHandler {
             break;
         case HOLD_THREE_RIGHT:
             int brailleType = listener.switchBrailleType();
-            message = brailleType == 8 ? context
-                    .getString(R.string.grade_computer) : context
-                    .getString(R.string.grade_literary);
+            if (listener.isUnicodeBraille()) {
+                message = context.getString(R.string.grade_unicode);
+            } else {
+                message = brailleType == 8 ? context
+                        .getString(R.string.grade_computer) : context
+                        .getString(R.string.grade_literary);
+            }
             callback.onSetLocale(listener.getLocale());
             break;
         case HOLD_THREE_DOWN:
@@ -453,12 +527,10 @@ public class ActionHandler {
             callback.onShrink();
             break;
         case HOLD_ONE_DOWN:
-            CharSequence text = listener.getAllText().text;
-            if (text != null) {
+            EditingUtilities.TextCounts counts = listener.getTextCounts();
+            if (counts != null) {
                 message = String.format(context.getString(R.string.word_count),
-                        EditingUtilities.lineCount(text),
-                        EditingUtilities.wordCount(text),
-                        EditingUtilities.characterCount(text));
+                        counts.lines, counts.words, counts.characters);
             }
             break;
         case HOLD_ONE_UP:
@@ -485,8 +557,6 @@ public class ActionHandler {
         case HOLD_FOUR_UP:
             previousSpellCheckSuggestion(context);
             break;
-        case NONE:
-            return false;
         default:
             notify = false;
         }
@@ -505,7 +575,6 @@ public class ActionHandler {
         }
 
         lastSwipe = value; // update the last swipe
-        return true;
     }
 
     /**
@@ -529,24 +598,8 @@ public class ActionHandler {
         }
 
         lastSwipe = Swipe.NONE;
-        String result;
-        if ((result = listener.handleTypedCharacter(value)) == null) {
-            // IME couldn't handle the dot pattern propergate the error to the
-            // callback.
-            callback.onText("%s",
-                    context.getString(R.string.unknown_character), false);
-        } else {
-            callback.onNotify(true, true);
-
-            // Decide what to deliver to the callback such as a key echo or
-            // autocompletion string.
-            String character = echoCharacter(context, result);
-            result = character == null ? "" : character;
-            if (!(result = result.trim()).equals("")) {
-                callback.onText("%s", result.toString(),
-                        listener.isPasswordField());
-            }
-        }
+        typingContext = context;
+        listener.handleTypedCharacter(value, onCharacterTyped);
 
         // dots 7 and 8 should now be unset
         callback.onSetDots(false, false);
@@ -723,9 +776,13 @@ public class ActionHandler {
         boolean canDelete = true;
         switch (granularity) {
         case CHARACTER:
-            listener.finishComposingText();
-            word = EditingUtilities.moveToPreviousCharacter(listener);
-            break;
+            // Inside a word remove the last cell rather than the last
+            // character so that the rest of the word keeps its contractions.
+            if (listener.deleteLastCell(onCellDeleted)) {
+                typingContext = context;
+                return true;
+            }
+            return deleteCharacter(context);
         case WORD:
             listener.finishComposingText();
             Word space = EditingUtilities.skipSepBackwards(listener,
@@ -769,6 +826,13 @@ public class ActionHandler {
         return performDelete(context, word, canDelete);
     }
 
+    // Delete the character before the cursor.
+    private boolean deleteCharacter(Context context) {
+        listener.finishComposingText();
+        return performDelete(context,
+                EditingUtilities.moveToPreviousCharacter(listener), true);
+    }
+
     // Given the text to delete and a canDelete flag do the actual deletion.
     private boolean performDelete(Context context, EditingUtilities.Word word,
             boolean canDelete) {
@@ -902,16 +966,16 @@ public class ActionHandler {
         VoiceInput.TextReadyListener textReadyListener = new VoiceInput.TextReadyListener() {
 
             @Override
-            public void onTextReady(String text) {
+            public void onTextReady(final String text) {
                 // Write the text and send it back to the callback.
                 if (text != null && text.length() > 0) {
-                    CharSequence before = listener.getTextBeforeCursor(1);
-                    if (before != null && before.length() > 0
-                            && !Character.isWhitespace(before.charAt(0))) {
-                        listener.onKey(' ');
-                    }
-                    listener.commitText(text, 1);
-                    callback.onText("%s", text, listener.isPasswordField());
+                    listener.runWhenTranslated(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            writeVoiceText(text);
+                        }
+                    });
                 }
             }
 
@@ -934,6 +998,17 @@ public class ActionHandler {
         return true;
     }
 
+    // Write text recognised by voice input after the text before the cursor.
+    private void writeVoiceText(String text) {
+        CharSequence before = listener.getTextBeforeCursor(1);
+        if (before != null && before.length() > 0
+                && !Character.isWhitespace(before.charAt(0))) {
+            listener.onKey(' ');
+        }
+        listener.commitText(text, 1);
+        callback.onText("%s", text, listener.isPasswordField());
+    }
+
     // Rules for echoing character. Return the character if it should be echoed
     // else null.
     private static String echoCharacter(Context context, String character) {
@@ -970,16 +1045,16 @@ public class ActionHandler {
         SpellingSuggestionsReadyListener spellingListener = new SpellingSuggestionsReadyListener() {
 
             @Override
-            public void suggestionsReady(Suggestion result) {
-                spellingSuggestion = result;
-                if (result != null
-                        || spellingDirection == SpellChecker.Direction.UNDER_CURSOR) {
-                    handleSpellingSuggestion(context);
-                } else {
-                    callback.onText("%s",
-                            context.getString(R.string.no_more_misspellings),
-                            false);
-                }
+            public void suggestionsReady(final Suggestion result) {
+                // The suggestion may replace text, so wait for cells typed
+                // since the check started.
+                listener.runWhenTranslated(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        spellingSuggestionsReady(context, result);
+                    }
+                });
             }
         };
 
@@ -998,6 +1073,17 @@ public class ActionHandler {
         }
     }
 
+    private void spellingSuggestionsReady(Context context, Suggestion result) {
+        spellingSuggestion = result;
+        if (result != null
+                || spellingDirection == SpellChecker.Direction.UNDER_CURSOR) {
+            handleSpellingSuggestion(context);
+        } else {
+            callback.onText("%s",
+                    context.getString(R.string.no_more_misspellings), false);
+        }
+    }
+
     private void handleSpellingSuggestion(Context context) {
         boolean password = false;
         String message = null;
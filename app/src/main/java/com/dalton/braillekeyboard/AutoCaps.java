@@ -0,0 +1,441 @@
+/*
+ * Copyright (C) 2016 The Soft Braille Keyboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dalton.braillekeyboard;
+
+import java.text.BreakIterator;
+import java.text.CharacterIterator;
+import java.util.Locale;
+
+import android.text.InputType;
+import android.view.inputmethod.EditorInfo;
+
+/**
+ * Works out the caps mode at the cursor from the text the IME has typed, so
+ * the editor doesn't have to be asked with getCursorCapsMode at the start of
+ * every word.
+ *
+ * The caps mode is known at some position in the field, either from
+ * EditorInfo.initialCapsMode when the field is started or from text read with
+ * setContext, and the text the IME commits after that position is remembered.
+ * Whether the cursor starts a word is decided from the characters before it
+ * the same way as TextUtils.getCapsMode, and whether it starts a sentence with
+ * a sentence BreakIterator for the locale.
+ *
+ * Changes the IME doesn't tell the tracker about, such as the user moving the
+ * cursor, make it forget and getCapsMode returns -1 until setContext is
+ * called. The editor's selection reports are checked against the positions
+ * the IME's own changes leave the cursor at to notice these.
+ *
+ * getCapsMode also returns -1 when only spaces and quotes have been typed
+ * since a position the editor didn't say starts a sentence, since the text
+ * before that position decides whether they end one.
+ *
+ * Only used on the main thread.
+ */
+public class AutoCaps {
+    /**
+     * The most text before the cursor which is used.
+     */
+    public static final int MAX_CONTEXT = 64;
+
+    private static final int CAP_CHARACTERS = InputType
+            .TYPE_TEXT_FLAG_CAP_CHARACTERS;
+    private static final int CAP_WORDS = InputType.TYPE_TEXT_FLAG_CAP_WORDS;
+    private static final int CAP_SENTENCES = InputType
+            .TYPE_TEXT_FLAG_CAP_SENTENCES;
+    private static final int CAP_MODES = CAP_CHARACTERS | CAP_WORDS
+            | CAP_SENTENCES;
+
+    // The number of cursor positions to remember from the IME's changes.
+    private static final int MAX_POSITIONS = 8;
+
+    // The text typed since the position whose caps mode is known.
+    private final StringBuilder text = new StringBuilder();
+    // The caps mode before text or -1 if it isn't known.
+    private int startCapsMode = -1;
+    // The position of the end of text in the field.
+    private int cursor;
+    private final int[] positions = new int[MAX_POSITIONS];
+    private int positionCount;
+    private int nextPosition;
+
+    private Locale locale = Locale.getDefault();
+    private BreakIterator sentences;
+    private final Probe probe = new Probe();
+
+    /**
+     * Start tracking a new field from the caps mode the editor gave for the
+     * initial cursor position.
+     *
+     * @param info
+     *            Describes the field.
+     */
+    public void reset(EditorInfo info) {
+        if (info.initialSelStart >= 0
+                && info.initialSelStart == info.initialSelEnd) {
+            start(info.initialCapsMode & CAP_MODES, info.initialSelStart);
+        } else {
+            forget();
+        }
+    }
+
+    /**
+     * Start tracking from text read from the field.
+     *
+     * @param before
+     *            The text before the cursor, only the last MAX_CONTEXT
+     *            characters are used.
+     * @param cursor
+     *            The position of the cursor in the field.
+     * @param startOfField
+     *            True if before starts at the start of the field.
+     */
+    public void setContext(CharSequence before, int cursor,
+            boolean startOfField) {
+        int start = Math.max(0, before.length() - MAX_CONTEXT);
+        // The start of the field starts a sentence, otherwise the text we
+        // have is enough to decide.
+        start(startOfField && start == 0 ? CAP_MODES : 0, cursor);
+        text.append(before, start, before.length());
+    }
+
+    /**
+     * Forget the caps mode, for example after the IME changed the text other
+     * than by committing text at the cursor.
+     */
+    public void forget() {
+        startCapsMode = -1;
+        text.setLength(0);
+    }
+
+    /**
+     * @param locale
+     *            The language of the text being typed or null for the
+     *            default.
+     */
+    public void setLocale(Locale locale) {
+        if (locale == null) {
+            locale = Locale.getDefault();
+        }
+        if (!locale.equals(this.locale)) {
+            this.locale = locale;
+            sentences = null;
+        }
+    }
+
+    /**
+     * Call with the selection reported by the editor. Forgets the caps mode
+     * unless the selection is where one of the IME's changes left the cursor.
+     */
+    public void onSelectionChanged(int start, int end) {
+        if (startCapsMode < 0) {
+            return;
+        }
+        if (start != end || !isExpected(start)) {
+            forget();
+        }
+    }
+
+    /**
+     * Call when the word being typed is written after the cursor without
+     * moving the cursor past it yet.
+     *
+     * @param length
+     *            The length of the word.
+     */
+    public void wordWritten(int length) {
+        if (startCapsMode >= 0) {
+            expect(cursor + length);
+        }
+    }
+
+    /**
+     * Call when the word being typed starts with text before the cursor
+     * rather than at it. The text is taken back off the end of the known
+     * text, it's added again when the word is committed.
+     *
+     * @param length
+     *            The length of the text before the cursor.
+     */
+    public void wordResumed(int length) {
+        if (startCapsMode < 0) {
+            return;
+        }
+        if (length > text.length()) {
+            forget();
+            return;
+        }
+        text.setLength(text.length() - length);
+        cursor -= length;
+    }
+
+    /**
+     * @return The text before the cursor since the position whose caps mode
+     *         is known, at most MAX_CONTEXT characters, or null if it isn't
+     *         known.
+     */
+    public CharSequence getTextBeforeCursor() {
+        return startCapsMode < 0 ? null : text;
+    }
+
+    /**
+     * @return The position in the field of the end of the known text, which
+     *         is the start of the word being typed, or -1 if it isn't known.
+     */
+    public int getCursor() {
+        return startCapsMode < 0 ? -1 : cursor;
+    }
+
+    /**
+     * Call when text is committed at the cursor, which leaves the cursor after
+     * it.
+     *
+     * @param committed
+     *            The text.
+     */
+    public void textCommitted(CharSequence committed) {
+        if (startCapsMode < 0) {
+            return;
+        }
+        text.append(committed);
+        cursor += committed.length();
+        expect(cursor);
+        if (text.length() > MAX_CONTEXT) {
+            text.delete(0, text.length() - MAX_CONTEXT);
+            startCapsMode = 0;
+        }
+    }
+
+    /**
+     * @param reqModes
+     *            The caps modes wanted, usually the input type of the field.
+     * @return The caps modes which apply at the cursor in the same form as
+     *         InputConnection.getCursorCapsMode or -1 if they aren't known.
+     */
+    public int getCapsMode(int reqModes) {
+        if (startCapsMode < 0) {
+            return -1;
+        }
+        reqModes &= CAP_MODES;
+        int mode = reqModes & CAP_CHARACTERS;
+        if ((reqModes & (CAP_WORDS | CAP_SENTENCES)) == 0) {
+            return mode;
+        }
+
+        // Step back over quotes and opening brackets and then the spaces
+        // before them.
+        int end = text.length();
+        while (end > 0 && isOpening(text.charAt(end - 1))) {
+            --end;
+        }
+        int start = end;
+        while (start > 0 && Character.isWhitespace(text.charAt(start - 1))) {
+            --start;
+        }
+
+        if (start == 0) {
+            // Nothing but spaces and quotes since the known position.
+            if (end > 0 && (reqModes & CAP_SENTENCES) != 0
+                    && (startCapsMode & CAP_SENTENCES) == 0) {
+                // The known position may be straight after the end of a
+                // sentence, like after "Hello." when the field started,
+                // which the text before it would show.
+                return -1;
+            }
+            mode |= startCapsMode & reqModes & (CAP_WORDS | CAP_SENTENCES);
+            return end > 0 ? mode | (reqModes & CAP_WORDS) : mode;
+        }
+        if (start == end) {
+            // In the middle of a word.
+            return mode;
+        }
+        mode |= reqModes & CAP_WORDS;
+        if ((reqModes & CAP_SENTENCES) != 0 && isSentenceStart(start, end)) {
+            mode |= CAP_SENTENCES;
+        }
+        return mode;
+    }
+
+    private void start(int capsMode, int cursor) {
+        text.setLength(0);
+        startCapsMode = capsMode;
+        this.cursor = cursor;
+        positionCount = 0;
+        nextPosition = 0;
+        expect(cursor);
+    }
+
+    // Remember a position the editor may report for one of our changes.
+    private void expect(int position) {
+        positions[nextPosition] = position;
+        nextPosition = (nextPosition + 1) % MAX_POSITIONS;
+        positionCount = Math.min(positionCount + 1, MAX_POSITIONS);
+    }
+
+    private boolean isExpected(int position) {
+        for (int i = 0; i < positionCount; i++) {
+            if (positions[i] == position) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Whether a sentence would start at end in text if a capital letter was
+    // typed there. The text from start to end is white space.
+    private boolean isSentenceStart(int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (isLineBreak(text.charAt(i))) {
+                // A new paragraph.
+                return true;
+            }
+        }
+        if (isAbbreviation(start)) {
+            return false;
+        }
+
+        if (sentences == null) {
+            sentences = BreakIterator.getSentenceInstance(locale);
+        }
+        probe.set(text, end);
+        sentences.setText(probe);
+        return sentences.isBoundary(end);
+    }
+
+    // Whether the word ending at end ends with a full stop and has another
+    // inside it, like "e.g.", which doesn't end a sentence.
+    private boolean isAbbreviation(int end) {
+        while (end > 0 && isClosing(text.charAt(end - 1))) {
+            --end;
+        }
+        if (end == 0 || text.charAt(end - 1) != '.') {
+            return false;
+        }
+        for (int i = end - 2; i >= 0; i--) {
+            char c = text.charAt(i);
+            if (c == '.') {
+                return true;
+            }
+            if (!Character.isLetter(c)) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isLineBreak(char c) {
+        return c == '\n' || c == '\r' || c == '\u2028' || c == '\u2029';
+    }
+
+    private static boolean isClosing(char c) {
+        return c == '"' || c == '\''
+                || Character.getType(c) == Character.END_PUNCTUATION
+                || Character.getType(c) == Character.FINAL_QUOTE_PUNCTUATION;
+    }
+
+    private static boolean isOpening(char c) {
+        return c == '"' || c == '\''
+                || Character.getType(c) == Character.START_PUNCTUATION
+                || Character.getType(c) == Character.INITIAL_QUOTE_PUNCTUATION;
+    }
+
+    // The text before a position followed by a capital letter, which
+    // isSentenceStart gives the BreakIterator so the text isn't copied for
+    // each word.
+    private static class Probe implements CharacterIterator {
+        private CharSequence text;
+        // The position of the capital letter, the text is one longer.
+        private int end;
+        private int index;
+
+        void set(CharSequence text, int end) {
+            this.text = text;
+            this.end = end;
+            index = 0;
+        }
+
+        @Override
+        public char first() {
+            index = 0;
+            return current();
+        }
+
+        @Override
+        public char last() {
+            index = end;
+            return current();
+        }
+
+        @Override
+        public char current() {
+            if (index < end) {
+                return text.charAt(index);
+            }
+            return index == end ? 'X' : DONE;
+        }
+
+        @Override
+        public char next() {
+            if (index <= end) {
+                ++index;
+            }
+            return current();
+        }
+
+        @Override
+        public char previous() {
+            if (index == 0) {
+                return DONE;
+            }
+            --index;
+            return current();
+        }
+
+        @Override
+        public char setIndex(int position) {
+            if (position < 0 || position > end + 1) {
+                throw new IllegalArgumentException(String.valueOf(position));
+            }
+            index = position;
+            return current();
+        }
+
+        @Override
+        public int getBeginIndex() {
+            return 0;
+        }
+
+        @Override
+        public int getEndIndex() {
+            return end + 1;
+        }
+
+        @Override
+        public int getIndex() {
+            return index;
+        }
+
+        @Override
+        public Object clone() {
+            try {
+                return super.clone();
+            } catch (CloneNotSupportedException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+}
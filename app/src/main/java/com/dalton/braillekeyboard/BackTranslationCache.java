@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2016 The Soft Braille Keyboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dalton.braillekeyboard;
+
+import java.util.Arrays;
+
+/**
+ * Remembers the back translation of recently typed words.
+ *
+ * Entries are keyed by the cells of the word and belong to a single Braille
+ * table. Changing the table with setTable empties the cache.
+ *
+ * The cache holds a fixed number of entries. They are found through an open
+ * addressing index and when the cache is full the entry to replace is chosen
+ * with the CLOCK algorithm, which approximates least recently used. Looking an
+ * entry up doesn't allocate, only adding one copies its cells.
+ *
+ * Instances are not thread safe.
+ */
+public class BackTranslationCache {
+    private final int capacity;
+    // Index into the entries by hash, 0 for an empty position otherwise the
+    // entry plus one. Kept at most half full so probes stay short.
+    private final int[] index;
+    private final int mask;
+
+    private final int[] hashes;
+    private final byte[][] keys;
+    private final String[] values;
+    // Set when an entry is used and cleared as the clock hand passes it.
+    private final boolean[] referenced;
+    private int size;
+    private int hand;
+
+    private String tableId;
+    private int hits;
+    private int misses;
+
+    /**
+     * @param capacity
+     *            The number of words to remember.
+     */
+    public BackTranslationCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        int indexSize = Integer.highestOneBit(capacity * 2 - 1) << 1;
+        index = new int[indexSize];
+        mask = indexSize - 1;
+        hashes = new int[capacity];
+        keys = new byte[capacity][];
+        values = new String[capacity];
+        referenced = new boolean[capacity];
+    }
+
+    /**
+     * Set the table that the cached translations are for. The cache is
+     * emptied if it's different to the previous one.
+     *
+     * @param id
+     *            The id of the table.
+     */
+    public void setTable(String id) {
+        if (tableId == null || !tableId.equals(id)) {
+            clear();
+            tableId = id;
+        }
+    }
+
+    /**
+     * Find the translation of some cells.
+     *
+     * @param cells
+     *            The array holding the cells.
+     * @param offset
+     *            The position of the first cell in the array.
+     * @param length
+     *            The number of cells.
+     * @return The cached translation or null if there isn't one.
+     */
+    public String get(byte[] cells, int offset, int length) {
+        int hash = hash(cells, offset, length);
+        int entry = find(hash, cells, offset, length);
+        if (entry < 0) {
+            misses++;
+            return null;
+        }
+        hits++;
+        referenced[entry] = true;
+        return values[entry];
+    }
+
+    /**
+     * Remember the translation of some cells, replacing any previous one.
+     *
+     * @param cells
+     *            The array holding the cells. They are copied.
+     * @param offset
+     *            The position of the first cell in the array.
+     * @param length
+     *            The number of cells.
+     * @param text
+     *            The translation of the cells.
+     */
+    public void put(byte[] cells, int offset, int length, String text) {
+        int hash = hash(cells, offset, length);
+        int entry = find(hash, cells, offset, length);
+        if (entry < 0) {
+            entry = size < capacity ? size++ : evict();
+            hashes[entry] = hash;
+            keys[entry] = Arrays.copyOfRange(cells, offset, offset + length);
+            int position = hash & mask;
+            while (index[position] != 0) {
+                position = (position + 1) & mask;
+            }
+            index[position] = entry + 1;
+        }
+        values[entry] = text;
+        referenced[entry] = true;
+    }
+
+    /**
+     * Forget every entry. The hit and miss counts are kept.
+     */
+    public void clear() {
+        Arrays.fill(index, 0);
+        Arrays.fill(keys, null);
+        Arrays.fill(values, null);
+        Arrays.fill(referenced, false);
+        size = 0;
+        hand = 0;
+    }
+
+    /**
+     * @return The number of lookups which found a translation.
+     */
+    public int getHitCount() {
+        return hits;
+    }
+
+    /**
+     * @return The number of lookups which didn't find a translation.
+     */
+    public int getMissCount() {
+        return misses;
+    }
+
+    // Returns the entry holding the cells or -1.
+    private int find(int hash, byte[] cells, int offset, int length) {
+        int position = hash & mask;
+        int entry;
+        while ((entry = index[position] - 1) >= 0) {
+            if (hashes[entry] == hash && matches(keys[entry], cells, offset,
+                    length)) {
+                return entry;
+            }
+            position = (position + 1) & mask;
+        }
+        return -1;
+    }
+
+    // Advance the clock hand to an entry which hasn't been used since it last
+    // passed, remove it from the index and return it for reuse.
+    private int evict() {
+        while (referenced[hand]) {
+            referenced[hand] = false;
+            hand = (hand + 1) % capacity;
+        }
+        int entry = hand;
+        hand = (hand + 1) % capacity;
+
+        int position = hashes[entry] & mask;
+        while (index[position] != entry + 1) {
+            position = (position + 1) & mask;
+        }
+        // Shift later entries of the probe run back into the gap so that
+        // lookups don't stop early.
+        int next = position;
+        while (true) {
+            index[position] = 0;
+            int home;
+            do {
+                next = (next + 1) & mask;
+                if (index[next] == 0) {
+                    return entry;
+                }
+                home = hashes[index[next] - 1] & mask;
+            } while (position <= next ? position < home && home <= next
+                    : position < home || home <= next);
+            index[position] = index[next];
+            position = next;
+        }
+    }
+
+    private static boolean matches(byte[] key, byte[] cells, int offset,
+            int length) {
+        if (key.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (key[i] != cells[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // FNV-1a followed by a final mix so the low bits used by the index depend
+    // on every cell.
+    private static int hash(byte[] cells, int offset, int length) {
+        int hash = 0x811c9dc5;
+        for (int i = offset; i < offset + length; i++) {
+            hash = (hash ^ (cells[i] & 0xff)) * 0x01000193;
+        }
+        return hash ^ (hash >>> 16);
+    }
+}
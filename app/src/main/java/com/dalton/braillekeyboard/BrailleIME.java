@@ -16,15 +16,18 @@
 
 package com.dalton.braillekeyboard;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.ArrayDeque;
 import java.util.Locale;
 
 import android.Manifest;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.inputmethodservice.InputMethodService;
 import android.inputmethodservice.Keyboard;
+import android.os.Handler;
+import android.os.Looper;
+import android.preference.PreferenceManager;
 import android.text.InputType;
 import android.view.KeyEvent;
 import android.view.View;
@@ -33,6 +36,8 @@ import android.view.inputmethod.ExtractedText;
 import android.view.inputmethod.ExtractedTextRequest;
 import android.view.inputmethod.InputConnection;
 
+import com.dalton.braillekeyboard.BrailleParser.BrailleType;
+import com.googlecode.eyesfree.braille.translate.BrailleTranslator;
 import com.googlecode.eyesfree.braille.translate.TableInfo;
 
 /**
@@ -49,16 +54,74 @@ import com.googlecode.eyesfree.braille.translate.TableInfo;
  * 
  */
 public class BrailleIME extends InputMethodService implements KeyboardListener {
-    private final List<Byte> cells = new ArrayList<Byte>();
     private final StringBuilder composingText = new StringBuilder();
+    private final EditorMirror editorMirror = new EditorMirror();
+    private final OutputScheduler composingOutput = new OutputScheduler(
+            new OutputScheduler.OnWriteListener() {
+
+                @Override
+                public boolean onWrite(CharSequence oldText,
+                        CharSequence newText) {
+                    return writeComposingText(oldText, newText);
+                }
+            });
+    private final AutoCaps autoCaps = new AutoCaps();
+    private final FieldStateCache fieldStates = new FieldStateCache();
+    // Keeps autoCapsEnabled up to date.
+    private final SharedPreferences.OnSharedPreferenceChangeListener preferenceListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+
+        @Override
+        public void onSharedPreferenceChanged(
+                SharedPreferences sharedPreferences, String key) {
+            if (getString(R.string.pref_auto_caps_key).equals(key)) {
+                updateAutoCapsEnabled();
+            } else if (getString(R.string.pref_unicode_braille_key).equals(
+                    key)) {
+                updateUnicodeBraille();
+            }
+        }
+    };
 
     private BrailleParser brailleParser;
+    private TranslationWorker translationWorker;
+    // Told about the next translation from translationWorker.
+    private OnCharacterTypedListener onCharacterTyped;
+    // Set while removing a cell, told about the next translation instead.
+    private OnCellDeletedListener pendingDelete;
+    // Actions which wait for the cells typed before them to be translated,
+    // see runWhenTranslated.
+    private final ArrayDeque<Runnable> deferred = new ArrayDeque<Runnable>();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable runDeferred = new Runnable() {
+
+        @Override
+        public void run() {
+            runDeferred();
+        }
+    };
     private BrailleView brailleView = null;
     private int caps;
+    private boolean autoCapsEnabled;
+    // Set if cells are typed as Unicode Braille characters rather than
+    // translated.
+    private boolean unicodeBraille;
     private int cursor = -1;
     private int mark = -1;
     private boolean predictionOn;
     private boolean selectAll = false;
+    // Set once the first cell of the word has been typed.
+    private boolean wordStarted;
+    // Set if the word continues text before the cursor which hasn't been
+    // written over yet.
+    private boolean resumedWord;
+    // The field the keyboard is shown for, its state is saved when the
+    // keyboard leaves it.
+    private EditorInfo fieldInfo;
+    // The state the field was left in, used if the next cell is typed
+    // before the cursor moves.
+    private FieldStateCache.FieldState restoredState;
+    // Set once the editor has reported a composing region for this field.
+    private boolean reportsComposing;
 
     @Override
     public void onCreate() {
@@ -71,8 +134,30 @@ public class BrailleIME extends InputMethodService implements KeyboardListener {
                         public void onTranslatorReady(int status) {
                             brailleParserReady(status);
                         }
+
+                        @Override
+                        public void onTranslatorChanged(
+                                BrailleTranslator translator, String tableId) {
+                            if (translationWorker != null) {
+                                translationWorker.setTranslator(translator,
+                                        tableId);
+                            }
+                        }
+                    });
+            translationWorker = new TranslationWorker(brailleParser,
+                    new TranslationWorker.OnTranslatedListener() {
+
+                        @Override
+                        public void onTranslated(String text,
+                                boolean unknown) {
+                            onCellsTranslated(text, unknown);
+                        }
                     });
         }
+        updateAutoCapsEnabled();
+        updateUnicodeBraille();
+        PreferenceManager.getDefaultSharedPreferences(this)
+                .registerOnSharedPreferenceChangeListener(preferenceListener);
     }
 
     @Override
@@ -102,9 +187,19 @@ public class BrailleIME extends InputMethodService implements KeyboardListener {
     @Override
     public void onStartInput(EditorInfo info, boolean restarting) {
         super.onStartInput(info, restarting);
+        // A restart doesn't finish the input view first, so the word being
+        // typed is still open. Keep it in case the field comes back
+        // unchanged.
+        saveFieldState();
+        discardComposingText();
+        restoredState = null;
+        reportsComposing = false;
+        deferred.clear();
         // remove any existing selection.
         selectAll = false;
         mark = -1;
+        editorMirror.reset();
+        autoCaps.reset(info);
 
         predictionOn = false;
         // We are now going to initialize our state based on the type of
@@ -141,13 +236,27 @@ public class BrailleIME extends InputMethodService implements KeyboardListener {
             brailleView.onInitialiseForInput(this, this);
         }
         brailleParser.setTranslator(this);
+        autoCaps.setLocale(getLocale());
+        restoredState = fieldStates.take(info);
+        if (restoredState != null) {
+            mark = restoredState.mark;
+        }
+        fieldInfo = info;
     }
 
     @Override
     public void onFinishInputView(boolean finishingInput) {
         super.onFinishInputView(finishingInput);
         InputConnection ic = getCurrentInputConnection();
+        restoredState = null;
+        // Cells still being translated are dropped with the word.
+        deferred.clear();
         if (ic != null) {
+            if (translationWorker != null) {
+                translationWorker.flush();
+            }
+            composingOutput.flush();
+            saveFieldState();
             finishComposingText(false);
         }
 
@@ -159,12 +268,27 @@ public class BrailleIME extends InputMethodService implements KeyboardListener {
     @Override
     public void onDestroy() {
         super.onDestroy();
+        composingOutput.clear();
+        PreferenceManager.getDefaultSharedPreferences(this)
+                .unregisterOnSharedPreferenceChangeListener(preferenceListener);
+        if (translationWorker != null) {
+            translationWorker.shutdown();
+            translationWorker = null;
+        }
         if (brailleParser != null) {
             brailleParser.destroy();
             brailleParser = null;
         }
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (brailleParser != null) {
+            brailleParser.onTrimMemory(level);
+        }
+    }
+
     @Override
     public boolean onEvaluateFullscreenMode() {
         // The view dictates whether we are using the full screen.
@@ -180,30 +304,117 @@ public class BrailleIME extends InputMethodService implements KeyboardListener {
             if (brailleView != null) {
                 brailleView.setLocale(getLocale());
             }
+            autoCaps.setLocale(getLocale());
         }
     }
 
+    @Override
+    public void onUpdateSelection(int oldSelStart, int oldSelEnd,
+            int newSelStart, int newSelEnd, int candidatesStart,
+            int candidatesEnd) {
+        super.onUpdateSelection(oldSelStart, oldSelEnd, newSelStart,
+                newSelEnd, candidatesStart, candidatesEnd);
+        // The editor has caught up with the IME's changes once it reports the
+        // selection they left, which editorMirror already has.
+        boolean caughtUp = editorMirror.isSelection(newSelStart, newSelEnd);
+        editorMirror.onUpdateSelection(oldSelStart, oldSelEnd, newSelStart,
+                newSelEnd);
+        composingOutput.editorUpdated(caughtUp);
+        autoCaps.onSelectionChanged(newSelStart, newSelEnd);
+        if (restoredState != null
+                && (newSelStart != restoredState.cursor
+                        || newSelEnd != restoredState.cursor)) {
+            restoredState = null;
+        }
+        if (candidatesStart >= 0) {
+            reportsComposing = true;
+        } else if (reportsComposing && predictionOn
+                && composingText.length() > 0 && !resumedWord
+                && composingOutput.isSettled()) {
+            // The editor has seen all our changes but the word is no longer
+            // composing, so it was committed or removed without us, for
+            // example by the app clearing the field. Editors which never
+            // report the composing region are left alone.
+            discardComposingText();
+            autoCaps.forget();
+        }
+    }
+
+    // Remember the word being typed and the mark of the field the keyboard is
+    // leaving, see FieldStateCache. The word is only kept if it has all been
+    // written to the field.
+    private void saveFieldState() {
+        if (fieldInfo == null) {
+            return;
+        }
+        EditorInfo info = fieldInfo;
+        fieldInfo = null;
+        // The cursor is at the end of the word, after the known text.
+        int start = autoCaps.getCursor();
+        boolean saveWord = composingText.length() > 0
+                && !composingOutput.isPending();
+        if (start < 0 || (!saveWord && mark < 0)) {
+            fieldStates.put(info, null);
+            return;
+        }
+        String word = null;
+        byte[] cells = null;
+        if (saveWord) {
+            word = composingText.toString();
+            cells = translationWorker != null ? translationWorker
+                    .getWordCells() : null;
+        }
+        fieldStates.put(info, new FieldStateCache.FieldState(word, cells,
+                caps, saveWord ? start + word.length() : start, mark));
+    }
+
+    @Override
+    public void onUpdateExtractedText(int token, ExtractedText text) {
+        super.onUpdateExtractedText(token, text);
+        editorMirror.onUpdateExtractedText(token, text);
+    }
+
+    // The text is read from editorMirror where possible so that it isn't
+    // copied from the editor every time.
     @Override
     public ExtractedText getAllText() {
-        InputConnection ic = getCurrentInputConnection();
-        return ic.getExtractedText(new ExtractedTextRequest(), 0);
+        InputConnection ic = getInputConnection();
+        ExtractedText text = editorMirror.getExtractedText(ic);
+        return text != null ? text : ic.getExtractedText(
+                new ExtractedTextRequest(), 0);
+    }
+
+    @Override
+    public EditingUtilities.TextCounts getTextCounts() {
+        InputConnection ic = getInputConnection();
+        EditingUtilities.TextCounts counts = editorMirror.getCounts(ic);
+        if (counts == null) {
+            ExtractedText text = ic.getExtractedText(
+                    new ExtractedTextRequest(), 0);
+            if (text != null && text.text != null) {
+                counts = EditingUtilities.count(text.text);
+            }
+        }
+        return counts;
     }
 
     @Override
     public CharSequence getTextBeforeCursor(int n) {
-        InputConnection ic = getCurrentInputConnection();
-        return ic.getTextBeforeCursor(n, 0);
+        InputConnection ic = getInputConnection();
+        CharSequence text = editorMirror.getTextBeforeCursor(n);
+        return text != null ? text : ic.getTextBeforeCursor(n, 0);
     }
 
     @Override
     public CharSequence getTextAfterCursor(int n) {
-        InputConnection ic = getCurrentInputConnection();
-        return ic.getTextAfterCursor(n, 0);
+        InputConnection ic = getInputConnection();
+        CharSequence text = editorMirror.getTextAfterCursor(n);
+        return text != null ? text : ic.getTextAfterCursor(n, 0);
     }
 
     @Override
     public CharSequence getSelectedText(int flags) {
-        InputConnection ic = getCurrentInputConnection();
+        InputConnection ic = getInputConnection();
         return ic.getSelectedText(flags);
     }
 
@@ -235,26 +446,32 @@ public class BrailleIME extends InputMethodService implements KeyboardListener {
 
     @Override
     public boolean performContextMenuAction(int id) {
-        InputConnection ic = getCurrentInputConnection();
+        InputConnection ic = getInputConnection();
+        fieldChanging(null);
+        editorMirror.invalidate();
         return ic.performContextMenuAction(id);
     }
 
     @Override
     public boolean deleteSurroundingText(int before, int after) {
-        InputConnection ic = getCurrentInputConnection();
+        InputConnection ic = getInputConnection();
         selectAll = false;
+        fieldChanging(null);
+        editorMirror.deleteSurroundingText(before, after);
         return ic.deleteSurroundingText(before, after);
     }
 
     @Override
     public boolean deleteSelection() {
-        InputConnection ic = getCurrentInputConnection();
+        InputConnection ic = getInputConnection();
         int cursor = 0;
         if (!selectAll) {
             cursor = getCursor();
         }
         int[] positions = getSelectionBoundaries(cursor);
         setSelection(positions[1], positions[1]);
+        fieldChanging(null);
+        editorMirror.deleteSurroundingText(positions[1] - positions[0], 0);
         return ic.deleteSurroundingText(positions[1] - positions[0], 0);
     }
 
@@ -329,6 +546,10 @@ public class BrailleIME extends InputMethodService implements KeyboardListener {
 
     @Override
     public int getDots() {
+        if (unicodeBraille) {
+            // Unicode Braille has all 8 dots.
+            return 8;
+        }
         if (brailleParser != null) {
             return brailleParser.getBrailleType(this).dots;
         }
@@ -336,37 +557,238 @@ public class BrailleIME extends InputMethodService implements KeyboardListener {
     }
 
     @Override
-    public String handleTypedCharacter(byte dots) {
-        if (brailleParser != null) {
-            String oldText = composingText.toString();
-            setCells(dots);
-            String text = brailleParser.backTranslate(this,
-                    cells.toArray(new Byte[cells.size()]));
-            if (text != null) {
-                text = compose(text.subSequence(0, text.length()));
-            } else { // unable to translate this byte string
-                cells.remove(cells.size() - 1);
-                return null;
+    public void handleTypedCharacter(final byte dots,
+            final OnCharacterTypedListener listener) {
+        if (!deferred.isEmpty() || pendingDelete != null
+                || (unicodeBraille && isTranslating())) {
+            // Keep the cell in order with what was done before it.
+            deferred.add(new Runnable() {
+
+                @Override
+                public void run() {
+                    handleTypedCharacter(dots, listener);
+                }
+            });
+        } else if (unicodeBraille) {
+            commitBraillePattern(dots, listener);
+        } else if (brailleParser != null) {
+            // Translated in the background, see onCellsTranslated.
+            onCharacterTyped = listener;
+            if (!wordStarted) {
+                wordStarted = true;
+                resumeWord();
             }
+            translationWorker.append(dots);
+        } else {
+            listener.onCharacterTyped(null, false);
+        }
+    }
 
-            // Return the update to the input field to be read to the user.
-            return text != null ? stringDifference(oldText, text) : null;
+    // Commit the cell as a character from the Unicode Braille Patterns block.
+    // No translator is needed so this works before a table has loaded.
+    private void commitBraillePattern(byte dots,
+            OnCharacterTypedListener listener) {
+        if (wordStarted) {
+            // Cells typed before switching are still being translated.
+            finishComposingText();
         }
-        return null;
+        if (selectAll) {
+            toggleMark();
+            selectAll = false;
+        }
+        String pattern = UnicodeBraille.getPattern(dots);
+        InputConnection ic = getInputConnection();
+        fieldChanging(pattern);
+        editorMirror.commitText(pattern);
+        ic.commitText(pattern, 1);
+        listener.onCharacterTyped(pattern, false);
+    }
+
+    // If the cursor is in the middle of a word start the new word with the
+    // part before the cursor so the cells typed next are translated in
+    // context. The word being typed then replaces that part.
+    private void resumeWord() {
+        FieldStateCache.FieldState state = restoredState;
+        restoredState = null;
+        if (selectAll) {
+            return;
+        }
+        if (state != null && state.cells != null) {
+            // Carry on with the cells the word was typed with when the
+            // keyboard left the field. The worker starts the word with its
+            // text if they no longer give the same word.
+            caps = state.caps;
+            translationWorker.restoreWord(state.cells, state.word, caps != 0);
+            resumeWith(state.word);
+            return;
+        }
+        CharSequence before = getWordBeforeCursor();
+        if (before.length() == 0) {
+            return;
+        }
+        translationWorker.startWord(before);
+        resumeWith(before);
+        // The word has already started so it isn't capitalised.
+        caps = 0;
+    }
+
+    // Make the text before the cursor the start of the word being typed. The
+    // worker starts the parser's word with it.
+    private void resumeWith(CharSequence before) {
+        autoCaps.wordResumed(before.length());
+        composingText.setLength(0);
+        composingText.append(before);
+        composingOutput.resume(before);
+        resumedWord = true;
+    }
+
+    // The part of the word before the cursor, empty if the cursor isn't in a
+    // word or the word is too long. The text the IME typed is used when it
+    // reaches back to the start of the word so the field isn't read.
+    private CharSequence getWordBeforeCursor() {
+        CharSequence before = autoCaps.getTextBeforeCursor();
+        int start = before != null ? lastWordSeparator(before) : -1;
+        if (start < 0) {
+            before = getTextBeforeCursor(EditingUtilities.MAX_WORD_LENGTH);
+            if (before == null) {
+                return "";
+            }
+            start = lastWordSeparator(before);
+            if (start < 0
+                    && before.length() >= EditingUtilities.MAX_WORD_LENGTH) {
+                return "";
+            }
+        }
+        return before.subSequence(start + 1, before.length());
+    }
+
+    private static int lastWordSeparator(CharSequence text) {
+        for (int i = text.length() - 1; i >= 0; i--) {
+            if (EditingUtilities.WORD_SEPARATORS.indexOf(text.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean deleteLastCell(OnCellDeletedListener listener) {
+        if (translationWorker == null || !wordStarted || unicodeBraille
+                || pendingDelete != null) {
+            return false;
+        }
+        // Removed in the background, see onCellsTranslated.
+        pendingDelete = listener;
+        translationWorker.removeLastCell();
+        return true;
+    }
+
+    @Override
+    public void runWhenTranslated(Runnable action) {
+        if (deferred.isEmpty() && !isTranslating()) {
+            action.run();
+        } else {
+            deferred.add(action);
+        }
+    }
+
+    private boolean isTranslating() {
+        return pendingDelete != null
+                || (translationWorker != null && translationWorker
+                        .isTranslating());
+    }
+
+    // Run the actions which were waiting for a translation, until one of them
+    // starts another.
+    private void runDeferred() {
+        while (!deferred.isEmpty() && !isTranslating()) {
+            deferred.poll().run();
+        }
+    }
+
+    // Called on the main thread with the translation of the word after the
+    // cells typed so far.
+    private void onCellsTranslated(String text, boolean unknown) {
+        OnCellDeletedListener deleted = pendingDelete;
+        pendingDelete = null;
+        if (deleted != null) {
+            onCellDeleted(text, deleted);
+            runDeferred();
+            return;
+        }
+
+        OnCharacterTypedListener listener = onCharacterTyped;
+        if (text == null) { // unable to translate this byte string
+            if (listener != null) {
+                listener.onCharacterTyped(null, false);
+            }
+            runDeferred();
+            return;
+        }
+
+        String oldText = composingText.toString();
+        text = compose(text.subSequence(0, text.length()));
+
+        // Tell the user about the update to the input field.
+        if (listener != null) {
+            listener.onCharacterTyped(text != null ? stringDifference(oldText,
+                    text) : null, unknown);
+        }
+        runDeferred();
+    }
+
+    // Write the word after its last cell was removed. text is null if the
+    // word had no cells.
+    private void onCellDeleted(String text, OnCellDeletedListener listener) {
+        if (text == null) {
+            listener.onCellDeleted(null);
+            return;
+        }
+        String oldText = composingText.toString();
+        text = compose(text);
+
+        // Tell the listener what is left of the old text after the part it
+        // still shares with the new text.
+        listener.onCellDeleted(oldText.substring(EditingUtilities
+                .commonPrefixLength(oldText, text)));
     }
 
     @Override
     public int switchBrailleType() {
-        if (brailleParser != null) {
-            return brailleParser.switchBrailleType(this).dots;
+        BrailleType type = brailleParser != null ? brailleParser
+                .getBrailleType(this) : null;
+        int switches = UnicodeBraille.getSwitches(unicodeBraille, type);
+        if ((switches & UnicodeBraille.SWITCH_UNICODE) != 0) {
+            if (!unicodeBraille) {
+                // Finish the word typed with the table before typing cells.
+                finishComposingText();
+            }
+            switchUnicodeBraille();
         }
-        return -1;
+        if ((switches & UnicodeBraille.SWITCH_TYPE) != 0) {
+            brailleParser.switchBrailleType(this);
+        }
+        autoCaps.setLocale(getLocale());
+        return getDots();
+    }
+
+    @Override
+    public boolean isUnicodeBraille() {
+        return unicodeBraille;
+    }
+
+    private void switchUnicodeBraille() {
+        unicodeBraille = Options.switchBooleanPreference(this,
+                R.string.pref_unicode_braille_key, Boolean
+                        .parseBoolean(getString(R.string.pref_unicode_braille_default)));
     }
 
     @Override
     public String switchTable() {
         if (brailleParser != null) {
-            return brailleParser.switchTable(this);
+            String table = brailleParser.switchTable(this);
+            autoCaps.setLocale(getLocale());
+            return table;
         }
         return null;
     }
@@ -382,7 +804,6 @@ public class BrailleIME extends InputMethodService implements KeyboardListener {
             updateShiftState(); // auto-caps
         }
 
-        InputConnection ic = getCurrentInputConnection();
         if (selectAll) {
             toggleMark();
             selectAll = false;
@@ -394,54 +815,80 @@ public class BrailleIME extends InputMethodService implements KeyboardListener {
         // according to auto-capitalisation rules.
         text = capitalise(text);
 
-        if (predictionOn) {
-            // we can use composing text capabilities of android to make life
-            // easy and efficient here.
-            composingText.setLength(0);
-            composingText.append(text);
-            ic.setComposingText(composingText.toString(),
-                    composingText.length());
-        } else if (text.length() > 0) {
-            // We have something to write to the field.
-            // The IME could do strange things with our input here.
-            // First clear our last text translation from n-1 Braille cells.
-            ic.deleteSurroundingText(composingText.length(), 0);
-            composingText.setLength(0);
-            composingText.append(text);
-
-            // Now write the text corresponding to n Braille cells.
-            // We must write individual characters so that the input field
-            // doesn't misbehave.
-            // This is the case for some fields that do validation like banking
-            // apps for security and auto-completing fields.
-            for (int i = 0; i < text.length(); i++) {
-                ic.commitText(text.subSequence(i, i + 1), 1);
-            }
-        }
+        // The text is written to the field on the next frame, see
+        // writeComposingText.
+        composingText.setLength(0);
+        composingText.append(text);
+        composingOutput.setText(composingText);
 
         // return the new text we wrote if any.
         return text.toString();
     }
 
-    // Capitalise the text if auto-caps is enabled and the IME told us to
-    // capitalise this first character.
+    // Replace the word in the field with a new translation. Called by
+    // composingOutput. Returns true if the write moves the cursor to where
+    // editorMirror knows it is, so the editor will report that selection.
+    private boolean writeComposingText(CharSequence oldText, CharSequence text) {
+        InputConnection ic = getCurrentInputConnection();
+        if (ic == null) {
+            return false;
+        }
+        autoCaps.wordWritten(text.length());
+        if (predictionOn && resumedWord) {
+            // The start of the word is already in the field but isn't
+            // composing text, replace it with the whole word.
+            resumedWord = false;
+            ic.beginBatchEdit();
+            ic.deleteSurroundingText(oldText.length(), 0);
+            ic.setComposingText(text.toString(), text.length());
+            ic.endBatchEdit();
+            editorMirror.replaceBeforeCursor(oldText.length(), text);
+        } else if (predictionOn) {
+            // we can use composing text capabilities of android to make life
+            // easy and efficient here. The composing text is the old text
+            // before the cursor.
+            ic.setComposingText(text.toString(), text.length());
+            editorMirror.replaceBeforeCursor(oldText.length(), text);
+        } else {
+            // The IME could do strange things with our input here.
+            // Usually the new translation only differs from the last one at
+            // the end so only the text after the part they share is replaced.
+            int common = EditingUtilities.rewriteBeforeCursor(ic, oldText,
+                    text);
+            editorMirror.replaceBeforeCursor(oldText.length() - common,
+                    text.subSequence(common, text.length()));
+        }
+        return editorMirror.isValid() && oldText.length() != text.length();
+    }
+
+    // Capitalise the text if auto-caps is enabled and the caps mode at the
+    // start of the word says this first character should be capitalised.
     private CharSequence capitalise(CharSequence text) {
-        if (Options
-                .getBooleanPreference(
-                        this,
-                        R.string.pref_auto_caps_key,
-                        Boolean.parseBoolean(getString(R.string.pref_auto_caps_default)))) {
-            if (caps != 0 && text != null) {
-                if (text.length() > 0) {
-                    text = String
-                            .valueOf(Character.toUpperCase(text.charAt(0)))
-                            + text.subSequence(1, text.length());
-                }
+        if (caps != 0 && text != null && text.length() > 0) {
+            char first = Character.toUpperCase(text.charAt(0));
+            if (first != text.charAt(0)) {
+                text = String.valueOf(first)
+                        + text.subSequence(1, text.length());
             }
         }
         return text;
     }
 
+    private void updateUnicodeBraille() {
+        unicodeBraille = Options.getBooleanPreference(this,
+                R.string.pref_unicode_braille_key,
+                Boolean.parseBoolean(getString(R.string.pref_unicode_braille_default)));
+    }
+
+    private void updateAutoCapsEnabled() {
+        autoCapsEnabled = Options.getBooleanPreference(this,
+                R.string.pref_auto_caps_key,
+                Boolean.parseBoolean(getString(R.string.pref_auto_caps_default)));
+        if (!autoCapsEnabled) {
+            caps = 0;
+        }
+    }
+
     @Override
     public void onKey(int keyCode) {
         InputConnection ic = getCurrentInputConnection();
@@ -453,16 +900,23 @@ public class BrailleIME extends InputMethodService implements KeyboardListener {
         finishComposingText();
         switch (keyCode) {
         case Keyboard.KEYCODE_DELETE:
+            fieldChanging(null);
+            editorMirror.deleteSurroundingText(1, 0);
             ic.deleteSurroundingText(1, 0);
             break;
         case Keyboard.KEYCODE_DONE:
         case '\n':
+            fieldChanging(null);
+            editorMirror.invalidate();
             keyDownUp(ic, KeyEvent.KEYCODE_ENTER);
             break;
         default:
+            fieldChanging(String.valueOf((char) keyCode));
             if (keyCode >= '0' && keyCode <= '9') {
+                editorMirror.invalidate();
                 keyDownUp(ic, keyCode - '0' + KeyEvent.KEYCODE_0);
             } else {
+                editorMirror.commitText(String.valueOf((char) keyCode));
                 ic.commitText(String.valueOf((char) keyCode), 1);
             }
             break;
@@ -480,6 +934,10 @@ public class BrailleIME extends InputMethodService implements KeyboardListener {
     private boolean setSelection(int start, int end) {
         InputConnection ic = getCurrentInputConnection();
         finishComposingText();
+        editorMirror.setSelection(start, end);
+        composingOutput.expectUpdate();
+        restoredState = null;
+        autoCaps.forget();
         return ic.setSelection(start, end);
     }
 
@@ -503,20 +961,62 @@ public class BrailleIME extends InputMethodService implements KeyboardListener {
 
     private void finishComposingText(boolean commit) {
         InputConnection ic = getCurrentInputConnection();
+        if (translationWorker != null) {
+            // Write out cells which are still being translated first so
+            // nothing typed is lost or reordered.
+            translationWorker.flush();
+        }
+        composingOutput.flush();
         if (composingText.length() > 0) {
-            if (predictionOn && commit) {
+            if (!predictionOn || resumedWord) {
+                // The word has already been committed a character at a
+                // time, or is still the text which was before the cursor.
+                autoCaps.textCommitted(composingText);
+            } else if (commit) {
+                // The composing text is already in editorMirror.
+                fieldChanging(composingText);
                 ic.commitText(composingText, 1);
+            } else {
+                autoCaps.forget();
             }
-            composingText.setLength(0);
         }
-        cells.clear();
+        discardComposingText();
+    }
+
+    // Start a new word without writing the old one.
+    private void discardComposingText() {
+        composingText.setLength(0);
+        composingOutput.clear();
+        wordStarted = false;
+        resumedWord = false;
+        pendingDelete = null;
+        if (translationWorker != null) {
+            translationWorker.clear();
+        }
+        if (!deferred.isEmpty()) {
+            // Nothing more will be delivered for the word.
+            handler.post(runDeferred);
+        }
     }
 
-    private void setCells(byte dots) {
-        if (cells.size() == 0) {
-            cells.add((byte) 0);
+    // Called before the IME changes the field other than by writing the word
+    // being typed. committed is the text being committed at the cursor or null
+    // for any other change. The caller tells editorMirror what the change is.
+    private void fieldChanging(CharSequence committed) {
+        restoredState = null;
+        composingOutput.expectUpdate();
+        if (committed != null) {
+            autoCaps.textCommitted(committed);
+        } else {
+            autoCaps.forget();
         }
-        cells.add(dots);
+    }
+
+    // The connection to the field after writing out the word if it's waiting
+    // for the next frame, so the field has every change made before this.
+    private InputConnection getInputConnection() {
+        composingOutput.flush();
+        return getCurrentInputConnection();
     }
 
     /**
@@ -540,15 +1040,39 @@ public class BrailleIME extends InputMethodService implements KeyboardListener {
         return i >= str2.length() ? str2 : str2.substring(i, str2.length());
     }
 
+    // Work out the caps mode at the cursor. Usually autoCaps knows it from
+    // the text we have typed, otherwise the text before the cursor is read.
     private void updateShiftState() {
         caps = 0;
         EditorInfo editorInfo = getCurrentInputEditorInfo();
-        if (editorInfo != null && editorInfo.inputType != InputType.TYPE_NULL) {
-            caps = getCurrentInputConnection().getCursorCapsMode(
-                    editorInfo.inputType);
+        if (autoCapsEnabled && editorInfo != null
+                && editorInfo.inputType != InputType.TYPE_NULL) {
+            caps = autoCaps.getCapsMode(editorInfo.inputType);
+            if (caps < 0) {
+                caps = readCapsMode(editorInfo.inputType);
+            }
         }
     }
 
+    private int readCapsMode(int inputType) {
+        ExtractedText text = getAllText();
+        if (text != null && text.selectionStart == text.selectionEnd
+                && text.selectionStart >= 0
+                && text.selectionStart <= text.text.length()) {
+            int end = text.selectionStart;
+            int start = Math.max(0, end - AutoCaps.MAX_CONTEXT);
+            autoCaps.setContext(text.text.subSequence(start, end),
+                    text.startOffset + end, text.startOffset == 0
+                            && start == 0);
+            int mode = autoCaps.getCapsMode(inputType);
+            if (mode >= 0) {
+                return mode;
+            }
+        }
+        // Too little text to tell, leave it to the editor.
+        return getInputConnection().getCursorCapsMode(inputType);
+    }
+
     @Override
     public void commitText(String text, int newCursorPosition) {
         finishComposingText();
@@ -559,6 +1083,12 @@ public class BrailleIME extends InputMethodService implements KeyboardListener {
         }
         updateShiftState();
         text = capitalise(text.subSequence(0, text.length())).toString();
+        fieldChanging(newCursorPosition == 1 ? text : null);
+        if (newCursorPosition == 1) {
+            editorMirror.commitText(text);
+        } else {
+            editorMirror.invalidate();
+        }
         ic.commitText(text, newCursorPosition);
     }
 }
@@ -21,14 +21,18 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
 
+import com.googlecode.eyesfree.braille.translate.BackTranslationResult;
+import com.googlecode.eyesfree.braille.translate.BackTranslationSession;
 import com.googlecode.eyesfree.braille.translate.BrailleTranslator;
 import com.googlecode.eyesfree.braille.translate.TableInfo;
 import com.googlecode.eyesfree.braille.translate.TranslatorClient.OnInitListener;
@@ -48,6 +52,12 @@ import com.googlecode.eyesfree.braille.translate.TranslatorClient.OnInitListener
  * 
  * You should always call the destroy() method when you are finished with the
  * instance to release system resources.
+ * 
+ * The word being typed is only used on the thread which translates it, see
+ * TranslationWorker, and the tables are chosen on the main thread. When the
+ * active table changes the listener is told the new translator, which must be
+ * passed on to switchTranslator on the translating thread after the cells
+ * typed before the switch.
  */
 public class BrailleParser {
 
@@ -61,6 +71,13 @@ public class BrailleParser {
     // This instance has been shutdown and can not be used.
     public static final int STATUS_TABLE_ERROR = 2;
 
+    // The number of back translated words to remember.
+    private static final int CACHE_SIZE = 256;
+    // The number of forward translated words to remember.
+    private static final int CONTEXT_CACHE_SIZE = 32;
+    // Cached for words whose cells don't back translate to the same word.
+    private static final byte[] NO_CELLS = new byte[0];
+
     /**
      * A callback which is invoked with a status flag when the BrailleTranslator
      * responds on initial setup.
@@ -76,6 +93,17 @@ public class BrailleParser {
          *            or STATUS_ERROR currently.
          */
         void onTranslatorReady(int status);
+
+        /**
+         * Invoked on the main thread when the active table changes.
+         * 
+         * @param translator
+         *            The translator for the new table or null if it couldn't
+         *            be loaded.
+         * @param tableId
+         *            The id of the new table or null.
+         */
+        void onTranslatorChanged(BrailleTranslator translator, String tableId);
     }
 
     /**
@@ -151,10 +179,64 @@ public class BrailleParser {
     private final SharedPreferences sharedPref;
     private final BrailleParserListener listener;
     private final List<String> tableIds;
+    private final BackTranslationCache cache = new BackTranslationCache(
+            CACHE_SIZE);
+    // The cells of words typed before the cursor, see startWordWith. Emptied
+    // when the table changes.
+    private final Map<String, byte[]> contextCells = new LinkedHashMap<String, byte[]>(
+            16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+            return size() > CONTEXT_CACHE_SIZE;
+        }
+    };
+
+    // The word being typed is split into segments wherever the table was
+    // switched. Only the last segment is translated as cells are added, the
+    // earlier ones keep the text they were translated to.
+    private final List<Segment> segments = new ArrayList<Segment>();
+    private final StringBuilder segmentText = new StringBuilder();
 
+    // The translator, table and session of the last segment. Like the rest
+    // of the word they are only used on the translating thread.
     private BrailleTranslator translator;
+    private String tableId;
+    private BackTranslationSession session;
+    // Set if the translator back translates each cell to a single character,
+    // as most computer Braille tables do.
+    private boolean cellCharacters;
+    // The cells of the word, kept so they can be looked up in the cache. The
+    // session and segments index them including the blank cell before the
+    // word, which is how they are laid out in the array.
+    private final CellBuffer typedCells = new CellBuffer();
+    // The index in the padded cells of the first cell of the last segment.
+    private int segmentStart;
+    // Text before the cursor which the word continues but which couldn't be
+    // typed as cells, see startWordWith. The text of the word starts with it.
+    private String prefix = "";
     private List<TableInfo> tables;
-    private int status = STATUS_PREPARING;
+    // The active table, only used on the main thread.
+    private String activeTableId;
+    private volatile int status = STATUS_PREPARING;
+
+    // Part of the word typed with a table other than the active one.
+    private static class Segment {
+        final BrailleTranslator translator;
+        final String tableId;
+        final int start;
+        final String text;
+        // Indexes of the unknown cells in the word.
+        final int[] unknownCells;
+
+        Segment(BrailleTranslator translator, String tableId, int start,
+                String text, int[] unknownCells) {
+            this.translator = translator;
+            this.tableId = tableId;
+            this.start = start;
+            this.text = text;
+            this.unknownCells = unknownCells;
+        }
+    }
 
     /**
      * Construct a BrailleParser instance.
@@ -182,6 +264,16 @@ public class BrailleParser {
         });
     }
 
+    // Translates with the translators passed to switchTranslator, without a
+    // TranslatorClient or preferences, for tests of the word being typed.
+    BrailleParser(BrailleParserListener listener) {
+        this.listener = listener;
+        sharedPref = null;
+        tableIds = Collections.<String> emptyList();
+        client = null;
+        status = STATUS_OK;
+    }
+
     /**
      * Release system resources held by this instance.
      */
@@ -192,6 +284,18 @@ public class BrailleParser {
         status = STATUS_ERROR;
     }
 
+    /**
+     * Release cached translators when the system is short of memory.
+     * 
+     * @param level
+     *            The level passed to onTrimMemory.
+     */
+    public void onTrimMemory(int level) {
+        if (client != null) {
+            client.onTrimMemory(level);
+        }
+    }
+
     /**
      * Get the currently active BrailleType according to the BrailleType
      * preference and return it.
@@ -355,41 +459,300 @@ public class BrailleParser {
     }
 
     /**
-     * Back translate an array of Braille dots to text.
+     * Add several cells to the end of the word being typed and back translate
+     * the word once they have all been added. Only the end of the word is
+     * translated again so the cost doesn't grow with the length of the word.
      * 
-     * @param context
-     *            The application context.
-     * @param cellBytes
-     *            An array of bytes representing Braille dot patterns. Each byte
-     *            represents a single Braille cell. Each cell is represented by
-     *            a byte which is a bit string which indicates whether dots are
-     *            on or off. The MSB of an 8 bit bitstring represents dot 8
-     *            while the lsb represents dot 1. 0b11111111 means all 8 dots
-     *            are pressed while 0 means no dots are active.
-     * @return The back translation String or null if no backtranslation was
-     *         possible.
+     * If the table was switched part way through the word the cells typed
+     * before the switch keep the translation they had with the old table.
+     * 
+     * @param cells
+     *            The cells to add. Each cell is represented by a byte which is
+     *            a bit string which indicates whether dots are on or off. The
+     *            MSB of an 8 bit bitstring represents dot 8 while the lsb
+     *            represents dot 1. 0b11111111 means all 8 dots are pressed
+     *            while 0 means no dots are active.
+     * @return The back translation of the word or null if no back translation
+     *         was possible in which case the cells aren't added.
+     */
+    public String appendCells(CellBuffer cells) {
+        if (status != STATUS_OK || session == null) {
+            return null;
+        }
+        startWord();
+        for (int i = 0; i < cells.size(); i++) {
+            addCell(cells.get(i));
+        }
+        return translateWord();
+    }
+
+    /**
+     * Remove the last cell of the word being typed and back translate the
+     * word again. Only the end of the word is translated again. If the cell
+     * was typed with a table the user has since switched away from it is
+     * removed from the text of that table.
+     * 
+     * @return The back translation of the word without the cell or null if no
+     *         cells have been added.
+     */
+    public String removeLastCell() {
+        if (status != STATUS_OK || session == null || typedCells.size() == 0) {
+            return null;
+        }
+        if (getCellCount() == segmentStart && !segments.isEmpty()) {
+            // Nothing has been typed with the active table.
+            typedCells.removeLast();
+            shortenLastSegment();
+        } else {
+            typedCells.removeLast();
+            session.removeLastCell();
+        }
+        if (typedCells.size() == 0) {
+            // Back to the text the word started with.
+            String text = prefix;
+            clearCells();
+            prefix = text;
+            return text;
+        }
+        return translateWord();
+    }
+
+    // Translate the last finished segment again without its last cell, which
+    // has already been removed from typedCells. It's dropped if it has no
+    // cells left.
+    private void shortenLastSegment() {
+        Segment previous = segments.remove(segments.size() - 1);
+        segmentText.setLength(segmentText.length() - previous.text.length());
+        int end = getCellCount();
+        segmentStart = end;
+        if (end > previous.start) {
+            BackTranslationResult result = previous.translator
+                    .backTranslateWithPositions(typedCells.getArray(),
+                            previous.start, end - previous.start);
+            int[] unknown = result.getUnknownCells();
+            for (int i = 0; i < unknown.length; i++) {
+                unknown[i] += previous.start;
+            }
+            String text = result.getText().trim();
+            segments.add(new Segment(previous.translator, previous.tableId,
+                    previous.start, text, unknown));
+            segmentText.append(text);
+        } else {
+            resumeSegment();
+        }
+    }
+
+    // Back translate the last segment and add it to the earlier ones.
+    private String translateWord() {
+        byte[] cells = typedCells.getArray();
+        int cellCount = getCellCount();
+        String text;
+        if (cellCharacters) {
+            // The session looks each cell up as it's added, which is cheaper
+            // than looking the word up in the cache.
+            text = session.getText().toString().trim();
+        } else {
+            // The session only translates when asked for its text so this is
+            // skipped for words which have been typed before.
+            text = cache.get(cells, segmentStart, cellCount - segmentStart);
+            if (text == null) {
+                text = session.getText().toString().trim();
+                cache.put(cells, segmentStart, cellCount - segmentStart, text);
+            }
+        }
+        if (prefix.length() == 0 && segmentText.length() == 0) {
+            return text;
+        }
+        return prefix + segmentText + text;
+    }
+
+    /**
+     * @return The back translation of the word being typed or null if there
+     *         is no table to translate with.
+     */
+    public String getText() {
+        if (status != STATUS_OK || session == null) {
+            return null;
+        }
+        return typedCells.size() == 0 ? prefix : translateWord();
+    }
+
+    /**
+     * @return The number of cells in the word being typed.
+     */
+    public int getTypedCellCount() {
+        return typedCells.size();
+    }
+
+    /**
+     * Find the cells added with appendCells which couldn't be back translated
+     * and were left out of the text.
+     * 
+     * @return The indexes of the unknown cells in the order they were added.
+     */
+    public int[] getUnknownCells() {
+        if (typedCells.size() == 0) {
+            return new int[0];
+        }
+        int[] last = session != null ? session.getResult().getUnknownCells()
+                : new int[0];
+        int count = last.length;
+        for (Segment segment : segments) {
+            count += segment.unknownCells.length;
+        }
+
+        // Skip the blank cell at the start of the word.
+        int[] unknown = new int[count];
+        int i = 0;
+        for (Segment segment : segments) {
+            for (int cell : segment.unknownCells) {
+                unknown[i++] = cell - 1;
+            }
+        }
+        for (int cell : last) {
+            unknown[i++] = cell + segmentStart - 1;
+        }
+        return unknown;
+    }
+
+    /**
+     * Start a new word, forgetting the cells of the word being typed.
+     */
+    public void clearCells() {
+        typedCells.clear();
+        prefix = "";
+        segmentStart = 0;
+        segments.clear();
+        segmentText.setLength(0);
+        if (session != null) {
+            session.clear();
+        }
+    }
+
+    /**
+     * Start a new word which continues text that is already in the field, for
+     * example when the user types in the middle of a word. The text is
+     * forward translated and its cells start the word so contractions typed
+     * next are read in the context of the letters before them. The cells are
+     * remembered for each word so editing the same word again doesn't
+     * translate it again.
+     * 
+     * If every cell is a single character, as the earlier cells then can't
+     * change how later ones are read, or if the cells don't back translate to
+     * the same text, the text is kept as it is and the cells typed next are
+     * translated after it.
+     * 
+     * @param text
+     *            The part of the word before the cursor.
+     * @return The back translation of the word, which is the text, or null if
+     *         no back translation is possible.
      */
-    public String backTranslate(Context context, Byte[] cellBytes) {
-        // Convert from a Byte[] to a byte[]O
-        byte[] cells = new byte[cellBytes.length + 2];
-        // Pad the cells so that we have spaces on each size. This makes the
-        // back translation work properly.
-        cells[0] = 0;
-        cells[cells.length - 1] = 0;
-
-        for (int i = 0; i < cellBytes.length; i++) {
-            cells[i + 1] = 0;
-            if (cellBytes[i] != null) { // should never be null
-                cells[i + 1] = cellBytes[i].byteValue();
+    public String startWordWith(CharSequence text) {
+        clearCells();
+        if (status != STATUS_OK || session == null) {
+            return null;
+        }
+        String word = text.toString();
+        if (cellCharacters || !startWordWithCells(word)) {
+            prefix = word;
+        }
+        return word;
+    }
+
+    // Start the word with the cells of the text if they back translate to it.
+    private boolean startWordWithCells(String word) {
+        if (word.length() == 0) {
+            return false;
+        }
+        byte[] cells = contextCells.get(word);
+        boolean checked = cells != null;
+        if (cells == null) {
+            cells = translator.translate(word);
+            if (cells == null) {
+                cells = NO_CELLS;
             }
         }
+        if (cells.length == 0) {
+            contextCells.put(word, NO_CELLS);
+            return false;
+        }
 
-        String text = null;
-        if (status == STATUS_OK) {
-            text = translator.backTranslate(cells);
-            text = handleUnknownPatterns(context, text, cells);
+        startWord();
+        for (byte cell : cells) {
+            addCell(cell);
         }
-        return text != null ? text.trim() : text;
+        if (!checked) {
+            // Translating the word on its own may give cells which read
+            // differently, for example with a capital the table can't type.
+            if (!word.equals(translateWord())) {
+                clearCells();
+                contextCells.put(word, NO_CELLS);
+                return false;
+            }
+            contextCells.put(word, cells);
+        }
+        return true;
+    }
+
+    /**
+     * Start a new word with cells which were typed earlier, for example when
+     * the user returns to a field.
+     * 
+     * @param cells
+     *            The cells of the word, as returned by getWordCells.
+     * @return The back translation of the word with the active table or null
+     *         if no back translation was possible.
+     */
+    public String restoreWord(byte[] cells) {
+        clearCells();
+        if (status != STATUS_OK || session == null || cells.length == 0) {
+            return null;
+        }
+        startWord();
+        for (byte cell : cells) {
+            addCell(cell);
+        }
+        return translateWord();
+    }
+
+    /**
+     * Copy the cells of the word being typed, for example to start it again
+     * with restoreWord.
+     * 
+     * @param cells
+     *            Replaced with the cells of the word.
+     * @return False if there are no cells or the word can't be started again
+     *         from them, because the table was switched part way through the
+     *         word or it continues text which wasn't typed as cells.
+     */
+    public boolean getWordCells(CellBuffer cells) {
+        cells.clear();
+        if (typedCells.size() == 0 || !segments.isEmpty()
+                || prefix.length() > 0) {
+            return false;
+        }
+        for (int i = 0; i < typedCells.size(); i++) {
+            cells.append(typedCells.get(i));
+        }
+        return true;
+    }
+
+    private void startWord() {
+        if (typedCells.size() == 0 && session.getCellCount() == 0) {
+            // Start the word with a space like backTranslate does.
+            session.appendCell((byte) 0);
+        }
+    }
+
+    private void addCell(byte cell) {
+        typedCells.append(cell);
+        session.appendCell(cell);
+    }
+
+    // The number of cells in the word including the blank cell before it, or
+    // 0 if nothing has been typed.
+    private int getCellCount() {
+        return typedCells.size() == 0 ? 0 : typedCells.size() + 1;
     }
 
     // Called when the BrailleTranslator becomes ready.
@@ -399,24 +762,123 @@ public class BrailleParser {
             status = STATUS_OK;
             tables = client.getTables();
             setTranslator(context);
+            warmUpTables(context);
         } else {
             status = STATUS_ERROR;
         }
         listener.onTranslatorReady(status);
     }
 
-    // Sets the translator to the active table.
+    // Sets the translator to the active table. The word being typed is
+    // switched to it through the listener.
     public boolean setTranslator(Context context) {
         TableInfo table = getTable(context);
         if (table != null
                 && (status == STATUS_OK || status == STATUS_TABLE_ERROR)) {
-            translator = client.getTranslator(table);
-            status = translator == null ? STATUS_TABLE_ERROR : STATUS_OK;
+            BrailleTranslator newTranslator = client.getTranslator(table);
+            status = newTranslator == null ? STATUS_TABLE_ERROR : STATUS_OK;
+            String id = newTranslator == null ? null : table.getId();
+            if (id == null || !id.equals(activeTableId)) {
+                activeTableId = id;
+                listener.onTranslatorChanged(newTranslator, id);
+            }
             return true;
         }
         return false;
     }
 
+    /**
+     * Continue the word being typed with a new table. Called on the
+     * translating thread with the translator given to
+     * BrailleParserListener.onTranslatorChanged. The cells typed with the old
+     * table keep the text they were translated to.
+     * 
+     * @param newTranslator
+     *            The translator or null if the table couldn't be loaded, in
+     *            which case the word is forgotten.
+     * @param newId
+     *            The id of the table.
+     */
+    public void switchTranslator(BrailleTranslator newTranslator, String newId) {
+        if (newTranslator == null) {
+            clearCells();
+            translator = null;
+            tableId = null;
+            cellCharacters = false;
+            session = null;
+        } else if (session == null || !newId.equals(tableId)) {
+            switchSegment(newTranslator, newId);
+        }
+    }
+
+    // Finish the segment being typed and continue the word with a new table.
+    private void switchSegment(BrailleTranslator newTranslator, String newId) {
+        int cellCount = getCellCount();
+        if (session != null && cellCount > segmentStart) {
+            BackTranslationResult result = session.getResult();
+            int[] unknown = result.getUnknownCells();
+            for (int i = 0; i < unknown.length; i++) {
+                unknown[i] += segmentStart;
+            }
+            String text = result.getText().trim();
+            segments.add(new Segment(translator, tableId, segmentStart, text,
+                    unknown));
+            segmentText.append(text);
+            segmentStart = cellCount;
+        }
+
+        if (!newId.equals(tableId)) {
+            contextCells.clear();
+        }
+        translator = newTranslator;
+        tableId = newId;
+        cellCharacters = translator.getCellCharacters() != null;
+        session = translator.beginSession();
+        cache.setTable(tableId);
+        // Switched back before typing anything.
+        resumeSegment();
+    }
+
+    // Carry on with the last finished segment if it was typed with the active
+    // table and nothing has been typed since.
+    private void resumeSegment() {
+        int cellCount = getCellCount();
+        Segment previous = segments.isEmpty() ? null : segments
+                .get(segments.size() - 1);
+        if (previous != null && previous.tableId.equals(tableId)
+                && cellCount == segmentStart) {
+            segments.remove(segments.size() - 1);
+            segmentText.setLength(segmentText.length()
+                    - previous.text.length());
+            segmentStart = previous.start;
+            session.clear();
+            byte[] cells = typedCells.getArray();
+            for (int i = segmentStart; i < cellCount; i++) {
+                session.appendCell(cells[i]);
+            }
+        }
+    }
+
+    // Load the tables which can be switched to on the fly and the other grade
+    // of the active table in the background so switching to them doesn't
+    // stall typing.
+    private void warmUpTables(Context context) {
+        Set<String> onFly = Options.getStringSetPreference(context,
+                R.string.pref_switch_tables_key, new HashSet<String>());
+        TableInfo active = getTable(context);
+        List<TableInfo> warm = new ArrayList<TableInfo>();
+        for (TableInfo table : tables) {
+            if (onFly.contains(table.getId())
+                    || (active != null && !active.isEightDot()
+                            && !table.isEightDot()
+                            && table.getGrade() != active.getGrade() && table
+                            .getLocale().equals(active.getLocale()))) {
+                warm.add(table);
+            }
+        }
+        client.warmUp(warm);
+    }
+
     // Checks if a given Braille table matches the given BrailleType filter.
     private static boolean matchesBrailleType(TableInfo table,
             BrailleType brailleType) {
@@ -475,42 +937,6 @@ public class BrailleParser {
         }
     }
 
-    // Returns an English readable pattern of the given byte value that
-    // represents the pressed dots. For example 0b101 would return 13. See
-    // BrailleTranslator details for how dots are encoded as bytes.
-    private static String computeCellValue(byte value) {
-        StringBuilder sb = new StringBuilder();
-        int mask = 1;
-
-        // We start from the right of the bit string at dot 1 and work our way
-        // towards the left of the bit string adding dots to the output string
-        // that are set to 1.
-        for (int i = 1; i <= 8; i++) {
-            if ((mask & value) != 0) {
-                // dot is active here write it to the output.
-                sb.append(String.valueOf(i));
-            }
-            mask <<= 1;
-        }
-
-        // Return the output string or nothing if no dots are set.
-        return sb.length() > 0 ? sb.toString() : "";
-    }
-
-    // The BrailleTranslator can populate the output string with garbage for
-    // unknown Braille patterns. Remove these from the string.
-    // These are of the form \dotpattern/ eg. \12/ if dots 12 is unknown.
-    private String handleUnknownPatterns(Context context, String text,
-            byte[] cells) {
-        for (byte cell : cells) {
-            String value = "\\" + computeCellValue(cell) + "/";
-            if (text.contains(value)) {
-                text = text.replace(value, "");
-            }
-        }
-        return text;
-    }
-
     private TableInfo findDefaultTableInfo(BrailleType brailleType) {
         List<TableInfo> filteredTables = getTables(brailleType);
         if (filteredTables == null) {
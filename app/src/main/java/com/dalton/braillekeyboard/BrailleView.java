@@ -27,6 +27,7 @@ import android.graphics.Paint;
 import android.graphics.Paint.FontMetrics;
 import android.graphics.Paint.Style;
 import android.graphics.Rect;
+import android.os.SystemClock;
 import android.os.Vibrator;
 import android.util.AttributeSet;
 import android.util.DisplayMetrics;
@@ -68,9 +69,13 @@ public class BrailleView extends View {
     private static final byte NO_DOTS = 0;
     private static final long LONG_HOLD_DELAY = 1200;
     private static final long QUICK_VIBRATION = 25;
+    private static final int MAX_FINGER_SIZE_DP = 80; // 1/2 inch
 
     private final AccessibilityManager accessibilityManager;
-    private final List<Coords> lastDotList = new ArrayList<Coords>();
+    // Where the first three fingers went down while calibrating, see setPad.
+    private final int[] lastDotX = new int[3];
+    private final int[] lastDotY = new int[3];
+    private int lastDotCount;
     private final Paint circlePaint;
     private final Paint paint;
     private final Rect circleTextBounds = new Rect();
@@ -129,7 +134,7 @@ public class BrailleView extends View {
     private DisplayParams displayParams = null;
     private boolean dot7;
     private boolean dot8;
-    private Coords[] dotsDown = new Coords[8];
+    private final Touches dotsDown;
     private boolean handledSwipe = false;
     private KeyboardListener listener;
     private Pad pad;
@@ -145,6 +150,9 @@ public class BrailleView extends View {
                 .getSystemService(Context.ACCESSIBILITY_SERVICE);
         vibrator = (Vibrator) context
                 .getSystemService(Context.VIBRATOR_SERVICE);
+        dotsDown = new Touches((int) TypedValue.applyDimension(
+                TypedValue.COMPLEX_UNIT_DIP, MAX_FINGER_SIZE_DP, context
+                        .getResources().getDisplayMetrics()));
     }
 
     /**
@@ -349,12 +357,14 @@ public class BrailleView extends View {
                         .currentTimeMillis() + LONG_HOLD_DELAY
                         : requiredTouchTime;
 
-                if (!updatePointer(dotsDown, id, x, y, true)
-                        && id < dotsDown.length) {
-                    // add a new unique dot to the list of dots that were
-                    // pushed.
-                    dotsDown[id] = new Coords(id, x, y);
+                if (action == MotionEvent.ACTION_DOWN) {
+                    // A new gesture, forget fingers whose lift we missed.
+                    dotsDown.clear();
                 }
+                // add a new unique dot to the list of dots that were pushed.
+                dotsDown.down(id, x, y,
+                        (int) motionEvent.getTouchMajor(index),
+                        motionEvent.getEventTime());
             }
             break;
         case MotionEvent.ACTION_HOVER_EXIT:
@@ -373,7 +383,7 @@ public class BrailleView extends View {
                             handleTypedCharacter();
                         }
                     }
-                    lastDotList.clear();
+                    lastDotCount = 0;
                 }
             }
             resetDots();
@@ -407,12 +417,12 @@ public class BrailleView extends View {
                 pointerX = displayParams.autoRotate || getWidth() >= getHeight() ? pointerX : pointerY;
                 pointerY = displayParams.autoRotate || getWidth() >= getHeight() ? pointerY : tempPointerX;
                 
-                updatePointer(dotsDown, pointerId, pointerX, pointerY, false);
+                dotsDown.move(pointerId, pointerX, pointerY);
             }
             break;
         case MotionEvent.ACTION_POINTER_UP:
             if (!setPad(id, width, height, displayParams.autoRotate)) {
-                updatePointer(dotsDown, id, x, y, false);
+                dotsDown.move(id, x, y);
                 setDots();
                 if ((swipe = handledSwipeAction(dotsDown,
                         getHeight() > getWidth() && !displayParams.autoRotate)) != Swipe.NONE) {
@@ -421,6 +431,11 @@ public class BrailleView extends View {
                     actionHandler.handleSwipe(getContext(), swipe);
                 }
             }
+            // The id may be given to the next finger which goes down.
+            dotsDown.up(id, motionEvent.getEventTime());
+            break;
+        case MotionEvent.ACTION_CANCEL:
+            resetDots();
             break;
         default:
         }
@@ -468,28 +483,29 @@ public class BrailleView extends View {
         final int ONE_SIDE = 3;
         // For whatever reason we won't be able to set a pad
         if (requiredTouchTime > System.currentTimeMillis()
-                || countDotsDown(dotsDown) != ONE_SIDE) {
+                || dotsDown.count() != ONE_SIDE) {
             return false;
         }
-        if (lastDotList.size() != ONE_SIDE && lastDotList.size() != 0) {
-            lastDotList.clear();
+        if (lastDotCount != ONE_SIDE && lastDotCount != 0) {
+            lastDotCount = 0;
             return false;
         }
 
         // Add the first three dots to the current dot list.
-        for (int i = 0; i < lastDotList.size(); i++) {
-            Coords coord = lastDotList.get(i);
-            dotsDown[ONE_SIDE + i] = new Coords(ONE_SIDE + id, coord.x, coord.y);
+        for (int i = 0; i < lastDotCount; i++) {
+            dotsDown.set(ONE_SIDE + i, ONE_SIDE + id, lastDotX[i],
+                    lastDotY[i], 0, SystemClock.uptimeMillis());
         }
 
-        if (countDotsDown(dotsDown) == TOTAL_DOTS) {
+        if (dotsDown.count() == TOTAL_DOTS) {
             setDotsSevenEight(false, false);
             Coords[] sixDots = new Coords[TOTAL_DOTS];
 
-            for (int i = 0, j = 0; i < dotsDown.length && j < sixDots.length; i++) {
-                if (dotsDown[i] != null) {
-                    int localX = dotsDown[i].getSecondX();
-                    int localY = dotsDown[i].getSecondY();
+            for (int i = 0, j = 0; i < Touches.MAX_TOUCHES
+                    && j < sixDots.length; i++) {
+                if (dotsDown.isDown(i)) {
+                    int localX = dotsDown.getSecondX(i);
+                    int localY = dotsDown.getSecondY(i);
                     sixDots[j++] = new Coords(localX, localY);
                 }
             }
@@ -504,16 +520,17 @@ public class BrailleView extends View {
                         Speech.QUEUE_FLUSH);
                 vibrator.vibrate(QUICK_VIBRATION);
             }
-            lastDotList.clear();
+            lastDotCount = 0;
             resetDots();
             return result;
         } else {
             // Add the first three dots that have been tuched to a member
             // variable for reference on the second touch of three fingers
-            for (int i = 0; i < dotsDown.length; i++) {
-                if (dotsDown[i] != null) {
-                    lastDotList.add(dotsDown[i]);
-                    dotsDown[i] = null;
+            for (int i = 0; i < Touches.MAX_TOUCHES; i++) {
+                if (dotsDown.isDown(i)) {
+                    lastDotX[lastDotCount] = dotsDown.getX(i);
+                    lastDotY[lastDotCount++] = dotsDown.getY(i);
+                    dotsDown.remove(i);
                 }
             }
             speech.speak(getContext(),
@@ -578,17 +595,15 @@ public class BrailleView extends View {
         if (pad == null) {
             return;
         }
-        // Sort the dots into their actual positions eg. dotsDown[0] = dot1
-        // dotsDown[1] = dot 2 etc.
+        // Sort the dots into their actual positions eg. slot 0 of dotsDown =
+        // dot 1, slot 1 = dot 2 etc.
         // Previous ordering is based on the order that fingers hit the screen.
-        dotsDown = pad.getBrailleDots(dotsDown, listener.getDots());
+        pad.getBrailleDots(dotsDown, listener.getDots());
     }
 
     private void resetDots() {
         requiredTouchTime = 0;
-        for (int i = 0; i < dotsDown.length; i++) {
-            dotsDown[i] = null;
-        }
+        dotsDown.clear();
         handledSwipe = false;
     }
 
@@ -611,8 +626,8 @@ public class BrailleView extends View {
         byte value = 0;
 
         // See what dots of the first six are pressed.
-        for (int i = 0; i < dotsDown.length - 2; i++) {
-            if (dotsDown[i] != null) {
+        for (int i = 0; i < Touches.MAX_TOUCHES - 2; i++) {
+            if (dotsDown.isDown(i)) {
                 // it's present so set the bit in the bitstring.
                 value |= mask;
             }
@@ -622,11 +637,11 @@ public class BrailleView extends View {
         // special case for setting dots 7 and 8.
         // They can be activated by pressing them on the screen or using a swipe
         // gesture.
-        if (dot7 || dotsDown[6] != null) {
+        if (dot7 || dotsDown.isDown(6)) {
             value |= mask;
         }
         mask <<= 1;
-        if (dot8 || dotsDown[7] != null) {
+        if (dot8 || dotsDown.isDown(7)) {
             value |= mask;
         }
         return value;
@@ -660,36 +675,10 @@ public class BrailleView extends View {
         listener.updateFullscreenMode();
     }
 
-    private static int countDotsDown(Coords[] dots) {
-        int count = 0;
-        for (Coords coords : dots) {
-            if (coords != null) {
-                ++count;
-            }
-        }
-        return count;
-    }
-
-    private static boolean updatePointer(Coords[] coords, int id, int x, int y,
-            boolean reset) {
-        for (int i = 0; i < coords.length; i++) {
-            if (coords[i] != null) {
-                if (coords[i].id == id) {
-                    if (reset) {
-                        coords[i] = new Coords(id, x, y);
-                    }
-                    coords[i].setSecondCords(x, y);
-                    return true;
-                }
-            }
-        }
-        return false;
-    }
-
-    private Swipe handledSwipeAction(Coords[] coords, boolean swap) {
+    private Swipe handledSwipeAction(Touches touches, boolean swap) {
         Swipe value;
         try {
-            value = pad.getSwipe(coords, swap);
+            value = pad.getSwipe(touches, swap);
             return value;
         } catch (NullPointerException npe) { // can be null if invalidate
             // somehow is called
@@ -757,7 +746,7 @@ public class BrailleView extends View {
 
     private boolean handleVoiceInput() {
         if (System.currentTimeMillis() > requiredTouchTime
-                && countDotsDown(dotsDown) == 1
+                && dotsDown.count() == 1
                 && Options.getBooleanPreference(
                         getContext(),
                         R.string.pref_voice_shortcut_key,
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2016 The Soft Braille Keyboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dalton.braillekeyboard;
+
+import java.util.Arrays;
+
+/**
+ * A growable sequence of Braille cells stored in a byte array.
+ *
+ * The cells are kept padded with a blank cell on each side, which is how words
+ * are passed to the translator, so the array returned by getArray can be back
+ * translated without copying. Cell i is at index i + 1 of the array.
+ *
+ * Adding and removing cells doesn't allocate unless the array has to grow.
+ * Instances are not thread safe.
+ */
+public class CellBuffer {
+    private byte[] cells;
+    private int size;
+
+    public CellBuffer() {
+        this(32);
+    }
+
+    /**
+     * @param capacity
+     *            The number of cells to make room for.
+     */
+    public CellBuffer(int capacity) {
+        cells = new byte[Math.max(capacity, 1) + 2];
+    }
+
+    /**
+     * Add a cell to the end.
+     *
+     * @param cell
+     *            The dots of the cell, see BrailleParser.appendCells.
+     */
+    public void append(byte cell) {
+        if (size + 2 == cells.length) {
+            cells = Arrays.copyOf(cells, cells.length * 2);
+        }
+        cells[++size] = cell;
+        cells[size + 1] = 0;
+    }
+
+    /**
+     * Remove the last cell. Does nothing if there are no cells.
+     */
+    public void removeLast() {
+        if (size > 0) {
+            cells[size--] = 0;
+        }
+    }
+
+    /**
+     * Remove all of the cells.
+     */
+    public void clear() {
+        Arrays.fill(cells, 1, size + 1, (byte) 0);
+        size = 0;
+    }
+
+    /**
+     * @return The number of cells, not counting the padding.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param index
+     *            The index of the cell, not counting the padding.
+     * @return The dots of the cell.
+     */
+    public byte get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+        return cells[index + 1];
+    }
+
+    /**
+     * @return The array holding the padded cells. It's replaced when the
+     *         buffer grows and must not be changed.
+     */
+    public byte[] getArray() {
+        return cells;
+    }
+
+    /**
+     * @return A copy of the cells without the padding.
+     */
+    public byte[] toArray() {
+        return Arrays.copyOfRange(cells, 1, size + 1);
+    }
+}
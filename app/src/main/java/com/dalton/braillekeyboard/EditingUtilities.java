@@ -17,6 +17,7 @@
 package com.dalton.braillekeyboard;
 
 import android.view.inputmethod.ExtractedText;
+import android.view.inputmethod.InputConnection;
 
 /**
  * A series of handy utilities for editing and manipulating text through an IME.
@@ -281,21 +282,173 @@ public class EditingUtilities {
         }
     }
 
+    /**
+     * Replace text which was just written before the cursor with a new version
+     * of it. Only the part after the start the two share is deleted and
+     * written again, so when a word grows or shrinks at the end the number of
+     * calls to the editor doesn't depend on how long the word is.
+     *
+     * The new part is committed one character at a time because some fields,
+     * like ones which validate or complete what is typed, misbehave when given
+     * several characters at once. The edits are batched so the field sees a
+     * single change.
+     *
+     * @param ic
+     *            The connection to the field.
+     * @param oldText
+     *            The text which is before the cursor.
+     * @param text
+     *            The text to replace it with.
+     * @return The length of the start of the text which was left alone.
+     */
+    public static int rewriteBeforeCursor(InputConnection ic,
+            CharSequence oldText, CharSequence text) {
+        int common = commonPrefixLength(oldText, text);
+        ic.beginBatchEdit();
+        if (oldText.length() > common) {
+            ic.deleteSurroundingText(oldText.length() - common, 0);
+        }
+        for (int i = common; i < text.length(); i++) {
+            ic.commitText(text.subSequence(i, i + 1), 1);
+        }
+        ic.endBatchEdit();
+        return common;
+    }
+
+    /**
+     * @return The number of characters at the start of two strings which are
+     *         the same.
+     */
+    public static int commonPrefixLength(CharSequence str1, CharSequence str2) {
+        int length = Math.min(str1.length(), str2.length());
+        int i = 0;
+        while (i < length && str1.charAt(i) == str2.charAt(i)) {
+            ++i;
+        }
+        return i;
+    }
+
+    /**
+     * The number of lines, words and characters in some text, counted the
+     * same way as lineCount, wordCount and characterCount.
+     */
+    public static class TextCounts {
+        public int lines;
+        public int words;
+        public int characters;
+
+        public TextCounts(int lines, int words, int characters) {
+            this.lines = lines;
+            this.words = words;
+            this.characters = characters;
+        }
+    }
+
+    public static TextCounts count(CharSequence text) {
+        return new TextCounts(lineCount(text), wordCount(text),
+                characterCount(text));
+    }
+
     public static int characterCount(CharSequence text) {
         return text != null ? text.length() : 0;
     }
 
+    // The text is counted in a single pass without copying it since it can be
+    // the whole document.
     public static int wordCount(CharSequence text) {
         if (characterCount(text) == 0) {
             return 0;
         }
-        return text.toString().split("\\s+").length;
+        return wordCount(text, countWordStarts(text, 0, text.length()));
+    }
+
+    /**
+     * Count the words in some text when the word starts have already been
+     * counted. The words are counted the way splitting the text at white
+     * space counts them, so white space at the start of text which has words
+     * in it counts as an empty word.
+     *
+     * @param text
+     *            The text.
+     * @param wordStarts
+     *            The number of word starts in the text, see countWordStarts.
+     * @return The number of words.
+     */
+    public static int wordCount(CharSequence text, int wordStarts) {
+        if (wordStarts > 0 && isSpace(text.charAt(0))) {
+            return wordStarts + 1;
+        }
+        return wordStarts;
     }
 
     public static int lineCount(CharSequence text) {
         if (characterCount(text) == 0) {
             return 0;
         }
-        return text.toString().split("\\n").length;
+        return lineCount(text, countLineBreaks(text, 0, text.length()));
+    }
+
+    /**
+     * Count the lines in some text when the line breaks have already been
+     * counted. Empty lines at the end aren't counted.
+     * 
+     * @param text
+     *            The text.
+     * @param lineBreaks
+     *            The number of line breaks in the text.
+     * @return The number of lines.
+     */
+    public static int lineCount(CharSequence text, int lineBreaks) {
+        int end = text.length();
+        while (end > 0 && text.charAt(end - 1) == '\n') {
+            --end;
+            --lineBreaks;
+        }
+        return end == 0 ? 0 : lineBreaks + 1;
+    }
+
+    /**
+     * Count the words which start in part of some text. A word starts at a
+     * character which isn't white space if the character before it is white
+     * space or it's the first character of the text. White space is what \s
+     * matches in a regular expression.
+     * 
+     * @param text
+     *            The text.
+     * @param start
+     *            The start of the part to count.
+     * @param end
+     *            The end of the part to count.
+     * @return The number of words starting from start to end.
+     */
+    public static int countWordStarts(CharSequence text, int start, int end) {
+        int count = 0;
+        boolean inWord = start > 0 && !isSpace(text.charAt(start - 1));
+        for (int i = start; i < end; i++) {
+            boolean space = isSpace(text.charAt(i));
+            if (!space && !inWord) {
+                ++count;
+            }
+            inWord = !space;
+        }
+        return count;
+    }
+
+    // The characters \s matches, which wordCount used to split at.
+    private static boolean isSpace(char c) {
+        return c == ' ' || (c >= '\t' && c <= '\r');
+    }
+
+    /**
+     * @return The number of line breaks in text from start to end.
+     */
+    public static int countLineBreaks(CharSequence text, int start, int end) {
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            if (text.charAt(i) == '\n') {
+                ++count;
+            }
+        }
+        return count;
     }
 }
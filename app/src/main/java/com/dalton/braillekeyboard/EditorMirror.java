@@ -0,0 +1,453 @@
+/*
+ * Copyright (C) 2016 The Soft Braille Keyboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dalton.braillekeyboard;
+
+import android.view.inputmethod.ExtractedText;
+import android.view.inputmethod.ExtractedTextRequest;
+import android.view.inputmethod.InputConnection;
+
+/**
+ * A copy of the text and selection of the field being edited so reading them
+ * doesn't copy the whole field out of the editor's process every time.
+ *
+ * The text is fetched with GET_EXTRACTED_TEXT_MONITOR so the editor reports
+ * later changes to onUpdateExtractedText, which only carries the part of the
+ * text that changed, and the selection is kept up to date by
+ * onUpdateSelection.
+ *
+ * The reports for changes made by the IME itself only arrive after the IME
+ * has moved on, so the IME applies its commits and deletes to the copy
+ * straight away with commitText, replaceBeforeCursor and
+ * deleteSurroundingText. Their reports are skipped rather than applied a
+ * second time. Each report has to be for the part of the field the oldest
+ * unreported change was made to and change the length by as much, and the
+ * report of the last one has to match the text, otherwise another change got
+ * in between and the copy is fetched again. Changes the IME can't describe,
+ * like key events, call invalidate. Each fetch uses a new request token so
+ * reports of changes the fetch already includes are ignored.
+ * Selection changes made by the IME are applied straight away with
+ * setSelection. A selection report is only applied if it moves the selection
+ * from the one we have, otherwise it's for a change we already know about,
+ * and not while the IME's own changes are still being reported.
+ *
+ * The words and line breaks in the text are counted when it's fetched and
+ * the counts are updated from the parts which change, so getCounts doesn't
+ * have to count the whole text again.
+ *
+ * If the editor can't extract its text the read methods return null and the
+ * caller should ask the InputConnection. getTextBeforeCursor and
+ * getTextAfterCursor also return null rather than fetching the whole text
+ * again when the copy is out of date. Only used on the main thread.
+ */
+public class EditorMirror {
+    // More changes than this waiting to be reported means the editor isn't
+    // reporting them.
+    private static final int MAX_UNREPORTED = 16;
+
+    private final StringBuilder text = new StringBuilder();
+    // The text as a String, made when it is first asked for after a change.
+    private String snapshot;
+    // The position of the start of the text in the field, not zero if the
+    // editor only gave us part of it.
+    private int startOffset;
+    // The selection from the start of the field.
+    private int selectionStart;
+    private int selectionEnd;
+    private int flags;
+    private int wordStarts;
+    private int lineBreaks;
+    private int token;
+    private boolean valid;
+    // The changes made by the IME which are in the text but which the editor
+    // hasn't reported yet, oldest first from firstUnreported: where each
+    // started and ended in the field before it and how much it changed the
+    // length of the text by.
+    private final int[] unreportedStarts = new int[MAX_UNREPORTED];
+    private final int[] unreportedEnds = new int[MAX_UNREPORTED];
+    private final int[] unreportedDeltas = new int[MAX_UNREPORTED];
+    private int firstUnreported;
+    private int unreported;
+
+    /**
+     * Forget the text, for example when a new field is being edited.
+     */
+    public void reset() {
+        invalidate();
+        text.setLength(0);
+        snapshot = null;
+    }
+
+    /**
+     * Fetch the text again before it is next read. Call after changing the
+     * text of the field.
+     */
+    public void invalidate() {
+        valid = false;
+    }
+
+    /**
+     * @return True if the text and selection are known, false if they will be
+     *         fetched again before they are next read.
+     */
+    public boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * @return True if the selection is known and is from start to end. After
+     *         the IME's own changes it's the selection they leave, which the
+     *         editor will report.
+     */
+    public boolean isSelection(int start, int end) {
+        return valid && start == selectionStart && end == selectionEnd;
+    }
+
+    /**
+     * Apply a change reported by the editor.
+     *
+     * @param token
+     *            The token of the request the change is for.
+     * @param extracted
+     *            The change, either the whole text or a part which replaces
+     *            the text from partialStartOffset to partialEndOffset.
+     */
+    public void onUpdateExtractedText(int token, ExtractedText extracted) {
+        if (!valid || token != this.token || extracted == null
+                || extracted.text == null) {
+            return;
+        }
+        if (unreported > 0) {
+            // The text already has the IME's change.
+            int change = firstUnreported;
+            firstUnreported = (firstUnreported + 1) % MAX_UNREPORTED;
+            --unreported;
+            if (!isReportOf(change, extracted)
+                    || (unreported == 0 && !hasChange(extracted))) {
+                invalidate();
+            }
+            return;
+        }
+        if (extracted.partialStartOffset < 0) {
+            setText(extracted);
+        } else {
+            int start = extracted.startOffset + extracted.partialStartOffset
+                    - startOffset;
+            int end = extracted.startOffset + extracted.partialEndOffset
+                    - startOffset;
+            if (start < 0 || end < start || end > text.length()) {
+                // The change is outside the part of the text we have.
+                invalidate();
+                return;
+            }
+            replace(start, end, extracted.text);
+        }
+        // The selection is left to onUpdateSelection which reports it in
+        // order with the IME's own changes.
+        if (Math.min(selectionStart, selectionEnd) < startOffset
+                || Math.max(selectionStart, selectionEnd) > startOffset
+                        + text.length()) {
+            invalidate();
+        }
+    }
+
+    /**
+     * Apply a selection change reported by the editor.
+     *
+     * @param oldStart
+     *            The start of the selection before the change.
+     * @param oldEnd
+     *            The end of the selection before the change.
+     * @param newStart
+     *            The start of the selection after the change.
+     * @param newEnd
+     *            The end of the selection after the change.
+     */
+    public void onUpdateSelection(int oldStart, int oldEnd, int newStart,
+            int newEnd) {
+        if (oldStart != selectionStart || oldEnd != selectionEnd) {
+            return;
+        }
+        if (unreported > 0) {
+            // Our own changes can pass back through the selection we have, so
+            // we can't tell whether this is one of them.
+            invalidate();
+        } else {
+            setSelection(newStart, newEnd);
+        }
+    }
+
+    /**
+     * Record a selection set by the IME.
+     *
+     * @param start
+     *            The start of the selection from the start of the field.
+     * @param end
+     *            The end of the selection from the start of the field.
+     */
+    public void setSelection(int start, int end) {
+        if (!valid) {
+            return;
+        }
+        if (Math.min(start, end) < startOffset
+                || Math.max(start, end) > startOffset + text.length()) {
+            // The text we have is out of date or doesn't cover the selection.
+            invalidate();
+            return;
+        }
+        selectionStart = start;
+        selectionEnd = end;
+    }
+
+    /**
+     * Record text committed by the IME, which replaces the selection.
+     */
+    public void commitText(CharSequence committed) {
+        replaceBeforeCursor(0, committed);
+    }
+
+    /**
+     * Record a change made by the IME which replaces the characters before
+     * the cursor, such as the word being typed, and leaves the cursor after
+     * the new text.
+     *
+     * @param before
+     *            The number of characters before the cursor to replace.
+     * @param replacement
+     *            The text to replace them and the selection with.
+     */
+    public void replaceBeforeCursor(int before, CharSequence replacement) {
+        if (!valid) {
+            return;
+        }
+        int start = Math.min(selectionStart, selectionEnd) - startOffset;
+        int end = Math.max(selectionStart, selectionEnd) - startOffset;
+        if ((before > 0 && start != end) || start - before < 0) {
+            // Deleting before a selection leaves it alone, or the characters
+            // are before the part of the text we have.
+            invalidate();
+            return;
+        }
+        start -= before;
+        if (start == end && replacement.length() == 0) {
+            return;
+        }
+        replace(start, end, replacement);
+        selectionStart = selectionEnd = startOffset + start
+                + replacement.length();
+        addUnreported(start, end, replacement.length() - (end - start));
+    }
+
+    /**
+     * Record a deletion made by the IME, see
+     * InputConnection.deleteSurroundingText.
+     */
+    public void deleteSurroundingText(int before, int after) {
+        if (!valid) {
+            return;
+        }
+        int start = Math.min(selectionStart, selectionEnd) - startOffset;
+        int end = Math.max(selectionStart, selectionEnd) - startOffset;
+        if ((start < before && startOffset > 0)
+                || end + after > text.length()) {
+            // The field may have characters beyond the part we have.
+            invalidate();
+            return;
+        }
+        int deleteStart = Math.max(0, start - before);
+        if (deleteStart == start && after == 0) {
+            return;
+        }
+        replace(end, end + after, "");
+        replace(deleteStart, start, "");
+        selectionStart -= start - deleteStart;
+        selectionEnd -= start - deleteStart;
+        addUnreported(deleteStart, end + after, deleteStart - start - after);
+    }
+
+    /**
+     * @param ic
+     *            The connection to fetch the text with if needed.
+     * @return The text and selection in the same form as
+     *         InputConnection.getExtractedText or null if the editor didn't
+     *         provide them. The returned object isn't changed later.
+     */
+    public ExtractedText getExtractedText(InputConnection ic) {
+        if (!sync(ic)) {
+            return null;
+        }
+        if (snapshot == null) {
+            snapshot = text.toString();
+        }
+        ExtractedText extracted = new ExtractedText();
+        extracted.text = snapshot;
+        extracted.startOffset = startOffset;
+        extracted.partialStartOffset = -1;
+        extracted.partialEndOffset = -1;
+        extracted.selectionStart = selectionStart - startOffset;
+        extracted.selectionEnd = selectionEnd - startOffset;
+        extracted.flags = flags;
+        return extracted;
+    }
+
+    /**
+     * @param ic
+     *            The connection to fetch the text with if needed.
+     * @return The number of lines, words and characters in the text or null
+     *         if the editor didn't provide the text.
+     */
+    public EditingUtilities.TextCounts getCounts(InputConnection ic) {
+        if (!sync(ic)) {
+            return null;
+        }
+        return new EditingUtilities.TextCounts(
+                EditingUtilities.lineCount(text, lineBreaks),
+                EditingUtilities.wordCount(text, wordStarts), text.length());
+    }
+
+    /**
+     * @return Up to n characters before the selection or null if they aren't
+     *         known, see InputConnection.getTextBeforeCursor.
+     */
+    public CharSequence getTextBeforeCursor(int n) {
+        if (!valid) {
+            return null;
+        }
+        int end = Math.min(selectionStart, selectionEnd) - startOffset;
+        int start = Math.max(0, end - n);
+        if (start == 0 && end < n && startOffset > 0) {
+            // Some of the characters are before the part of the text we have.
+            return null;
+        }
+        return text.substring(start, end);
+    }
+
+    /**
+     * @return Up to n characters after the selection or null if they aren't
+     *         known, see InputConnection.getTextAfterCursor.
+     */
+    public CharSequence getTextAfterCursor(int n) {
+        if (!valid) {
+            return null;
+        }
+        int start = Math.max(selectionStart, selectionEnd) - startOffset;
+        return text.substring(start, Math.min(text.length(), start + n));
+    }
+
+    // Fetch the text if it's out of date and ask the editor to report
+    // changes. Returns false if the editor didn't provide the text.
+    private boolean sync(InputConnection ic) {
+        if (valid) {
+            return true;
+        }
+        if (ic == null) {
+            return false;
+        }
+        ExtractedTextRequest request = new ExtractedTextRequest();
+        request.token = ++token;
+        ExtractedText extracted = ic.getExtractedText(request,
+                InputConnection.GET_EXTRACTED_TEXT_MONITOR);
+        if (extracted == null || extracted.text == null) {
+            return false;
+        }
+        setText(extracted);
+        selectionStart = startOffset + extracted.selectionStart;
+        selectionEnd = startOffset + extracted.selectionEnd;
+        unreported = 0;
+        valid = true;
+        return true;
+    }
+
+    // Remember a change made to the text from start to end, which the editor
+    // will report.
+    private void addUnreported(int start, int end, int delta) {
+        if (unreported == MAX_UNREPORTED) {
+            invalidate();
+            return;
+        }
+        int change = (firstUnreported + unreported) % MAX_UNREPORTED;
+        unreportedStarts[change] = startOffset + start;
+        unreportedEnds[change] = startOffset + end;
+        unreportedDeltas[change] = delta;
+        ++unreported;
+    }
+
+    // Whether a report could be for an unreported change. Editors may report
+    // more or less of the text around the change than we changed, so the
+    // part reported only has to touch it.
+    private boolean isReportOf(int change, ExtractedText extracted) {
+        if (extracted.partialStartOffset < 0) {
+            // Only hasChange can tell for the whole text.
+            return unreported == 0;
+        }
+        int start = extracted.startOffset + extracted.partialStartOffset;
+        int end = extracted.startOffset + extracted.partialEndOffset;
+        int delta = extracted.text.length() - (end - start);
+        return delta == unreportedDeltas[change]
+                && start <= unreportedEnds[change]
+                && end >= unreportedStarts[change];
+    }
+
+    // Whether the text has the change in a report, which would make it the
+    // report of the last change we made. The part which changed must be in
+    // the text where the report says it is.
+    private boolean hasChange(ExtractedText extracted) {
+        int start = extracted.startOffset - startOffset;
+        int length = extracted.text.length();
+        if (extracted.partialStartOffset < 0) {
+            if (start != 0 || length != text.length()) {
+                return false;
+            }
+        } else {
+            start += extracted.partialStartOffset;
+        }
+        if (start < 0 || start + length > text.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (text.charAt(start + i) != extracted.text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Replace part of the text, updating the counts from the part which
+    // changed.
+    private void replace(int start, int end, CharSequence replacement) {
+        // Words which start from start up to and including end can change,
+        // the rest of the text stays the same.
+        wordStarts -= EditingUtilities.countWordStarts(text, start,
+                Math.min(end + 1, text.length()));
+        lineBreaks -= EditingUtilities.countLineBreaks(text, start, end);
+        text.replace(start, end, replacement.toString());
+        snapshot = null;
+        int newEnd = start + replacement.length();
+        wordStarts += EditingUtilities.countWordStarts(text, start,
+                Math.min(newEnd + 1, text.length()));
+        lineBreaks += EditingUtilities.countLineBreaks(text, start, newEnd);
+    }
+
+    private void setText(ExtractedText extracted) {
+        text.setLength(0);
+        text.append(extracted.text);
+        snapshot = null;
+        startOffset = extracted.startOffset;
+        flags = extracted.flags;
+        wordStarts = EditingUtilities.countWordStarts(text, 0, text.length());
+        lineBreaks = EditingUtilities.countLineBreaks(text, 0, text.length());
+    }
+}
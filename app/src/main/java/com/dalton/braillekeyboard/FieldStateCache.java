@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2016 The Soft Braille Keyboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dalton.braillekeyboard;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.view.inputmethod.EditorInfo;
+
+/**
+ * Remembers the word being typed and the mark of the last few fields the
+ * keyboard was used in, so they can be picked up again when the user returns
+ * to a field or the editor restarts the input.
+ *
+ * Fields are told apart by the package, field id and input type in their
+ * EditorInfo. A state is only given back if the editor starts with the cursor
+ * where the state left it, otherwise the field was changed while we were away
+ * and the state is dropped. Only used on the main thread.
+ */
+public class FieldStateCache {
+    // The number of fields to remember.
+    private static final int MAX_FIELDS = 4;
+
+    /**
+     * The state of a field when the keyboard left it.
+     */
+    public static class FieldState {
+        /**
+         * The word being typed as it was written to the field, or null.
+         */
+        public final String word;
+        /**
+         * The cells of the word, or null if they aren't known.
+         */
+        public final byte[] cells;
+        /**
+         * The caps mode the word was capitalised with.
+         */
+        public final int caps;
+        /**
+         * The position of the cursor, at the end of the word.
+         */
+        public final int cursor;
+        /**
+         * The start of the selection being made or -1.
+         */
+        public final int mark;
+
+        public FieldState(String word, byte[] cells, int caps, int cursor,
+                int mark) {
+            this.word = word;
+            this.cells = cells;
+            this.caps = caps;
+            this.cursor = cursor;
+            this.mark = mark;
+        }
+    }
+
+    private final Map<String, FieldState> states = new LinkedHashMap<String, FieldState>(
+            MAX_FIELDS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(
+                Map.Entry<String, FieldState> eldest) {
+            return size() > MAX_FIELDS;
+        }
+    };
+
+    /**
+     * Remember the state of a field, replacing any earlier state.
+     *
+     * @param info
+     *            Describes the field.
+     * @param state
+     *            The state or null to forget the field.
+     */
+    public void put(EditorInfo info, FieldState state) {
+        if (state == null) {
+            states.remove(getKey(info));
+        } else {
+            states.put(getKey(info), state);
+        }
+    }
+
+    /**
+     * Take the state of a field which is starting. The state is forgotten
+     * either way.
+     *
+     * @param info
+     *            Describes the field and where its cursor starts.
+     * @return The state or null if there isn't one or the cursor isn't where
+     *         the state left it.
+     */
+    public FieldState take(EditorInfo info) {
+        FieldState state = states.remove(getKey(info));
+        if (state == null || info.initialSelStart != state.cursor
+                || info.initialSelEnd != state.cursor) {
+            return null;
+        }
+        return state;
+    }
+
+    /**
+     * Forget every field.
+     */
+    public void clear() {
+        states.clear();
+    }
+
+    private static String getKey(EditorInfo info) {
+        return info.packageName + ':' + info.fieldId + ':' + info.inputType;
+    }
+}
@@ -129,51 +129,7 @@ public class HorizontalPad extends Pad {
     }
 
     @Override
-    public Swipe getSwipe(Coords[] coords, boolean swap) {
-        Swipe swipe = getGenericSwipeAction(coords, swap);
-        switch (swipe) {
-        case ONE_LEFT:
-            return Swipe.ONE_RIGHT;
-        case ONE_RIGHT:
-            return Swipe.ONE_LEFT;
-        case TWO_LEFT:
-            return Swipe.TWO_RIGHT;
-        case TWO_RIGHT:
-            return Swipe.TWO_LEFT;
-        case THREE_LEFT:
-            return Swipe.THREE_RIGHT;
-        case THREE_RIGHT:
-            return Swipe.THREE_LEFT;
-        case FOUR_LEFT:
-            return Swipe.FOUR_RIGHT;
-        case FOUR_RIGHT:
-            return Swipe.FOUR_LEFT;
-        case FIVE_LEFT:
-            return Swipe.FIVE_RIGHT;
-        case FIVE_RIGHT:
-            return Swipe.FIVE_LEFT;
-        case SIX_LEFT:
-            return Swipe.SIX_RIGHT;
-        case SIX_RIGHT:
-            return Swipe.SIX_LEFT;
-        case HOLD_SIX_LEFT:
-            return Swipe.HOLD_SIX_RIGHT;
-        case HOLD_SIX_RIGHT:
-            return Swipe.HOLD_SIX_LEFT;
-        case HOLD_THREE_LEFT:
-            return Swipe.HOLD_THREE_RIGHT;
-        case HOLD_THREE_RIGHT:
-            return Swipe.HOLD_THREE_LEFT;
-        case HOLD_ONE_LEFT:
-            return Swipe.HOLD_ONE_RIGHT;
-        case HOLD_ONE_RIGHT:
-            return Swipe.HOLD_ONE_LEFT;
-        case HOLD_FOUR_LEFT:
-            return Swipe.HOLD_FOUR_RIGHT;
-        case HOLD_FOUR_RIGHT:
-            return Swipe.HOLD_FOUR_LEFT;
-        default:
-            return swipe;
-        }
+    public Swipe getSwipe(Touches touches, boolean swap) {
+        return getGenericSwipeAction(touches, swap).getMirror();
     }
 }
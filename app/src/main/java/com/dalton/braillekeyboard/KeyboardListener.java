@@ -45,13 +45,22 @@ public interface KeyboardListener {
     int getDots();
 
     /**
-     * Toggle the active BrailleType and return the new BrailleType in use in
-     * terms of the number of dots (6 or 8).
+     * Switch to the next BrailleType, or to or from Unicode Braille, and return
+     * the new BrailleType in use in terms of the number of dots (6 or 8).
      * 
      * @return The number of dots used by the newly active type.
      */
     int switchBrailleType();
 
+    /**
+     * Whether cells are typed as characters from the Unicode Braille Patterns
+     * block rather than being back translated. switchBrailleType moves to
+     * this after computer Braille.
+     * 
+     * @return True if typing Unicode Braille.
+     */
+    boolean isUnicodeBraille();
+
     /**
      * Switch to the next "on the fly" Braille table and return a textual String
      * describing the table.
@@ -60,23 +69,93 @@ public interface KeyboardListener {
      */
     String switchTable();
 
+    /**
+     * Receives the result of handleTypedCharacter once the cell has been back
+     * translated.
+     */
+    interface OnCharacterTypedListener {
+
+        /**
+         * Called on the main thread. If several cells are typed before the
+         * first is translated this is only called once with the changes made
+         * by all of them.
+         * 
+         * @param changes
+         *            A string that describes the changes made to the input
+         *            since Braille isn't a 1:1 mapping or null if the cell
+         *            couldn't be handled.
+         * @param unknown
+         *            True if the last cell couldn't be back translated and was
+         *            left out of the input.
+         */
+        void onCharacterTyped(String changes, boolean unknown);
+    }
+
     /**
      * This method is once for every Braille cell that is typed. The
      * implementation of this method should handle back translating the Braille
      * pattern to text, and writing it to the input method. It should be smarter
      * than this and implement logic to maximise Braille accuracy.
      * 
+     * The cell may be translated in the background so this doesn't wait for
+     * the translation, the result is delivered to the listener.
+     * 
      * @param dots
      *            A bitstring representing the pressed dots for the given cell.
      *            For an 8 bit string the MSB represents dot 8 and the LSB
      *            represents dot 1. The dot is set if it is set to 1. So
      *            0b11111111 means all dots are set, 101 means dots 13 are set
      *            and 0 would mean no dots are set.
-     * @return A string that describes the changes made to the input since
-     *         Braille isn't a 1:1 mapping. This might be useful to communicate
-     *         to the user if they can't monitor the input themselves.
+     * @param listener
+     *            Told about the changes made to the input. This might be
+     *            useful to communicate to the user if they can't monitor the
+     *            input themselves.
+     */
+    void handleTypedCharacter(byte dots, OnCharacterTypedListener listener);
+
+    /**
+     * Receives the result of deleteLastCell once the word has been translated
+     * without the cell.
+     */
+    interface OnCellDeletedListener {
+
+        /**
+         * Called on the main thread.
+         * 
+         * @param removed
+         *            The text removed from the input, which may be empty if
+         *            the cell didn't add any text of its own, or null if the
+         *            word had no cells to remove in which case nothing is
+         *            changed.
+         */
+        void onCellDeleted(String removed);
+    }
+
+    /**
+     * Remove the last Braille cell of the word being typed and update the
+     * input with the translation of the remaining cells. This lets a mistyped
+     * cell be corrected without losing the rest of the word's contractions.
+     * 
+     * The word is translated in the background, the result is delivered to
+     * the listener.
+     * 
+     * @param listener
+     *            Told about the text removed.
+     * @return False if no word is being typed in which case nothing is
+     *         changed and the listener isn't called.
      */
-    String handleTypedCharacter(byte dots);
+    boolean deleteLastCell(OnCellDeletedListener listener);
+
+    /**
+     * Run an action which reads or changes the input once the cells typed
+     * before it have been translated and written, so that it sees them.
+     * Actions and cells are handled in the order they arrive.
+     * 
+     * @param action
+     *            Run on the main thread, straight away if nothing is being
+     *            translated.
+     */
+    void runWhenTranslated(Runnable action);
 
     /**
      * Determine if the active input session pertains to a password typed field.
@@ -122,6 +201,13 @@ public interface KeyboardListener {
      */
     ExtractedText getAllText();
 
+    /**
+     * Count the lines, words and characters in the current input field.
+     * 
+     * @return The counts or null if the text of the field isn't available.
+     */
+    EditingUtilities.TextCounts getTextCounts();
+
     /**
      * Perform an Android context menu action.
      * 
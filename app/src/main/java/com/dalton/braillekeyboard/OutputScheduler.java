@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2016 The Soft Braille Keyboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dalton.braillekeyboard;
+
+import android.view.Choreographer;
+
+/**
+ * Writes the word being typed to the editor at most once a frame.
+ *
+ * Each typed cell changes the word and writing every change makes the editor
+ * lay itself out again, which slow apps can't keep up with when chords are
+ * typed quickly. Instead setText records the latest word and it's written on
+ * the next frame. Changes made in between replace each other so only the last
+ * one is written.
+ *
+ * After a write the next one also waits until the editor has reported the
+ * selection the write left, see editorUpdated, so the words pile up here
+ * rather than in a slow editor. Reports of earlier changes don't end the
+ * wait. It stops waiting after MAX_WAIT_NANOS in case the report was missed,
+ * and doesn't wait at all if the listener can't tell which report is the
+ * write's.
+ *
+ * Anything else sent to the editor must be sent after calling flush so that
+ * the editor sees the changes in the order they were made, and changes to the
+ * text or selection should be announced with expectUpdate. Only used on the
+ * main thread.
+ */
+public class OutputScheduler implements Choreographer.FrameCallback {
+    // The longest to wait for the editor to report a write, a few frames.
+    static final long MAX_WAIT_NANOS = 50000000L;
+
+    /**
+     * Writes a word to the editor.
+     */
+    public interface OnWriteListener {
+
+        /**
+         * @param oldText
+         *            The word which was last written, which the editor has
+         *            now.
+         * @param newText
+         *            The word to replace it with.
+         * @return True if the editor's report of the write will be passed to
+         *         editorUpdated as expected, false if it can't be told apart.
+         */
+        boolean onWrite(CharSequence oldText, CharSequence newText);
+    }
+
+    private final OnWriteListener listener;
+    private final StringBuilder written = new StringBuilder();
+    private final StringBuilder pending = new StringBuilder();
+    private boolean changed;
+    private boolean scheduled;
+    // Set until the editor reports the selection left by the last change.
+    private boolean awaiting;
+    // When the last change was made, in System.nanoTime's units.
+    private long lastChange;
+
+    /**
+     * @param listener
+     *            Writes the words to the editor.
+     */
+    public OutputScheduler(OnWriteListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Replace the word on the next frame.
+     *
+     * @param text
+     *            The new word.
+     */
+    public void setText(CharSequence text) {
+        pending.setLength(0);
+        pending.append(text);
+        changed = true;
+        if (!scheduled) {
+            scheduled = true;
+            postFrameCallback();
+        }
+    }
+
+    /**
+     * Tell the scheduler the editor has reported a selection, usually from
+     * onUpdateSelection.
+     *
+     * @param expected
+     *            True if it's the selection the IME's last change left, so
+     *            the editor has caught up. Reports of earlier changes are
+     *            ignored.
+     */
+    public void editorUpdated(boolean expected) {
+        if (expected) {
+            awaiting = false;
+        }
+    }
+
+    /**
+     * Tell the scheduler a change is being sent to the editor other than by a
+     * write. The next write waits for its report as if it were a write's.
+     */
+    public void expectUpdate() {
+        awaiting = true;
+        lastChange = System.nanoTime();
+    }
+
+    /**
+     * @return True if a word has been written and the editor has reported
+     *         the last change since, so its reports describe the field as we
+     *         left it.
+     */
+    public boolean isSettled() {
+        return written.length() > 0 && !awaiting;
+    }
+
+    /**
+     * @return True if the word has changed since it was last written.
+     */
+    public boolean isPending() {
+        return changed;
+    }
+
+    /**
+     * Write the word now if it has changed since it was last written.
+     */
+    public void flush() {
+        if (scheduled) {
+            scheduled = false;
+            removeFrameCallback();
+        }
+        write(System.nanoTime());
+    }
+
+    /**
+     * Start a new word. Call flush first if the old word must be written.
+     */
+    public void clear() {
+        if (scheduled) {
+            scheduled = false;
+            removeFrameCallback();
+        }
+        written.setLength(0);
+        pending.setLength(0);
+        changed = false;
+    }
+
+    /**
+     * Start a new word from text which is already in the editor before the
+     * cursor, so the next write replaces it. Call clear first.
+     *
+     * @param text
+     *            The start of the word.
+     */
+    public void resume(CharSequence text) {
+        written.setLength(0);
+        written.append(text);
+        pending.setLength(0);
+        pending.append(text);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        scheduled = false;
+        if (awaiting && frameTimeNanos - lastChange < MAX_WAIT_NANOS) {
+            // The editor is still busy with the last word, try again on the
+            // next frame.
+            scheduled = true;
+            postFrameCallback();
+            return;
+        }
+        write(frameTimeNanos);
+    }
+
+    // Overridden by tests which run the frames themselves.
+    void postFrameCallback() {
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    void removeFrameCallback() {
+        Choreographer.getInstance().removeFrameCallback(this);
+    }
+
+    // Write the word if it has changed. now is the time in
+    // System.nanoTime's units.
+    private void write(long now) {
+        if (!changed) {
+            return;
+        }
+        changed = false;
+        if (sameText(written, pending)) {
+            return;
+        }
+        lastChange = now;
+        awaiting = listener.onWrite(written, pending);
+        written.setLength(0);
+        written.append(pending);
+    }
+
+    private static boolean sameText(CharSequence str1, CharSequence str2) {
+        if (str1.length() != str2.length()) {
+            return false;
+        }
+        for (int i = 0; i < str1.length(); i++) {
+            if (str1.charAt(i) != str2.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
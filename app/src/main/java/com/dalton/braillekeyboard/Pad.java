@@ -17,12 +17,11 @@
 package com.dalton.braillekeyboard;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
 import java.util.Set;
 
 import android.content.Context;
@@ -42,214 +41,211 @@ public abstract class Pad {
     private static final int DOT_FOUR = 3;
     private static final int DOT_SEVEN = 6;
     private static final int MAX_DOTS = 8;
-
-    private final int SWIPE_MARGINE;
+    // The cost of leaving a touch without a dot. It's more than any match can
+    // cost so touches are only left out when there are more touches than
+    // dots.
+    private static final long UNMATCHED_COST = 1L << 40;
+    private static final byte NO_DOT = -1;
+    // The bits for the direction of each touch in a swipe, see Swipe.valueOf.
+    private static final int BITS_PER_TOUCH = 3;
+    // A gesture made without holding a dot still.
+    private static final int NO_HOLD = 0;
 
     public final int padString;
 
     private final int swipeThreshold;
-    private final XY[] differences;
+
+    // How far each key is from where it was touched in the last chord, see
+    // updateKeys.
+    private final boolean[] drifted = new boolean[MAX_DOTS];
+    private final int[] driftX = new int[MAX_DOTS];
+    private final int[] driftY = new int[MAX_DOTS];
+
+    // Used by getBrailleDots. The slots of the touches being matched, the
+    // cost of matching each touch to each dot and for each number of touches
+    // and set of dots the least cost of matching the first touches to those
+    // dots, with the dot given to the last of the touches. Last the slot of
+    // the touch matched to each dot.
+    private final int[] touchSlots = new int[Touches.MAX_TOUCHES];
+    private final long[] matchCosts = new long[Touches.MAX_TOUCHES
+            * MAX_DOTS];
+    private final long[] leastCosts = new long[(Touches.MAX_TOUCHES + 1)
+            << MAX_DOTS];
+    private final byte[] lastDots = new byte[(Touches.MAX_TOUCHES + 1)
+            << MAX_DOTS];
+    private final int[] matched = new int[Touches.MAX_TOUCHES];
 
     public enum Column {
         LEFT, RIGHT;
     }
 
+    /**
+     * The swipe gestures.
+     * 
+     * Each gesture is described by the direction of the swipe, the dots any
+     * one of which may make it and the dot which must be held still while it's
+     * made, if any. Swipes are recognised by looking up the directions the
+     * touches moved in a table built from these descriptions, see valueOf, so
+     * a new gesture only needs a new constant.
+     */
     public enum Swipe {
-        NONE, UNKNOWN, ONE_LEFT, ONE_RIGHT, ONE_UP, ONE_DOWN, TWO_LEFT, TWO_RIGHT, TWO_DOWN, TWO_UP, THREE_LEFT, THREE_RIGHT, THREE_DOWN, THREE_UP, FOUR_LEFT, FOUR_RIGHT, FOUR_UP, FOUR_DOWN, FIVE_LEFT, FIVE_RIGHT, FIVE_DOWN, FIVE_UP, SIX_LEFT, SIX_RIGHT, SIX_DOWN, SIX_UP, HOLD_SIX_LEFT, HOLD_SIX_RIGHT, HOLD_SIX_UP, HOLD_SIX_DOWN, HOLD_THREE_LEFT, HOLD_THREE_RIGHT, HOLD_THREE_UP, HOLD_THREE_DOWN, HOLD_ONE_UP, HOLD_ONE_DOWN, HOLD_ONE_LEFT, HOLD_ONE_RIGHT, HOLD_FOUR_LEFT, HOLD_FOUR_RIGHT, HOLD_FOUR_DOWN, HOLD_FOUR_UP;
+        NONE,
+        UNKNOWN,
+        ONE_LEFT(NO_HOLD, Touches.DOT_LEFT, 1),
+        ONE_RIGHT(NO_HOLD, Touches.DOT_RIGHT, 1),
+        ONE_UP(NO_HOLD, Touches.DOT_UP, 1),
+        ONE_DOWN(NO_HOLD, Touches.DOT_DOWN, 1),
+        TWO_LEFT(NO_HOLD, Touches.DOT_LEFT, 2),
+        TWO_RIGHT(NO_HOLD, Touches.DOT_RIGHT, 2),
+        TWO_DOWN(NO_HOLD, Touches.DOT_DOWN, 2),
+        TWO_UP(NO_HOLD, Touches.DOT_UP, 2),
+        THREE_LEFT(NO_HOLD, Touches.DOT_LEFT, 3),
+        THREE_RIGHT(NO_HOLD, Touches.DOT_RIGHT, 3),
+        THREE_DOWN(NO_HOLD, Touches.DOT_DOWN, 3),
+        THREE_UP(NO_HOLD, Touches.DOT_UP, 3),
+        FOUR_LEFT(NO_HOLD, Touches.DOT_LEFT, 4),
+        FOUR_RIGHT(NO_HOLD, Touches.DOT_RIGHT, 4),
+        FOUR_UP(NO_HOLD, Touches.DOT_UP, 4),
+        FOUR_DOWN(NO_HOLD, Touches.DOT_DOWN, 4),
+        FIVE_LEFT(NO_HOLD, Touches.DOT_LEFT, 5),
+        FIVE_RIGHT(NO_HOLD, Touches.DOT_RIGHT, 5),
+        FIVE_DOWN(NO_HOLD, Touches.DOT_DOWN, 5),
+        FIVE_UP(NO_HOLD, Touches.DOT_UP, 5),
+        SIX_LEFT(NO_HOLD, Touches.DOT_LEFT, 6),
+        SIX_RIGHT(NO_HOLD, Touches.DOT_RIGHT, 6),
+        SIX_DOWN(NO_HOLD, Touches.DOT_DOWN, 6),
+        SIX_UP(NO_HOLD, Touches.DOT_UP, 6),
+        HOLD_SIX_LEFT(6, Touches.DOT_LEFT, 1, 2, 3),
+        HOLD_SIX_RIGHT(6, Touches.DOT_RIGHT, 1, 2, 3),
+        HOLD_SIX_UP(6, Touches.DOT_UP, 1, 2, 3),
+        HOLD_SIX_DOWN(6, Touches.DOT_DOWN, 1, 2, 3),
+        HOLD_THREE_LEFT(3, Touches.DOT_LEFT, 4, 5, 6),
+        HOLD_THREE_RIGHT(3, Touches.DOT_RIGHT, 4, 5, 6),
+        HOLD_THREE_UP(3, Touches.DOT_UP, 4, 5, 6),
+        HOLD_THREE_DOWN(3, Touches.DOT_DOWN, 4, 5, 6),
+        HOLD_ONE_UP(1, Touches.DOT_UP, 4, 5, 6),
+        HOLD_ONE_DOWN(1, Touches.DOT_DOWN, 4, 5, 6),
+        HOLD_ONE_LEFT(1, Touches.DOT_LEFT, 4, 5, 6),
+        HOLD_ONE_RIGHT(1, Touches.DOT_RIGHT, 4, 5, 6),
+        HOLD_FOUR_LEFT(4, Touches.DOT_LEFT, 1, 2, 3),
+        HOLD_FOUR_RIGHT(4, Touches.DOT_RIGHT, 1, 2, 3),
+        HOLD_FOUR_DOWN(4, Touches.DOT_DOWN, 1, 2, 3),
+        HOLD_FOUR_UP(4, Touches.DOT_UP, 1, 2, 3);
+
+        // The number of slots in the lookup table, a power of two at least
+        // twice the number of ways to make the gestures.
+        private static final int TABLE_BITS = 8;
+        private static final int[] tableValues = new int[1 << TABLE_BITS];
+        private static final Swipe[] tableSwipes = new Swipe[1 << TABLE_BITS];
+
+        static {
+            for (Swipe swipe : values()) {
+                for (int dot : swipe.dots) {
+                    put(swipe.getValue(dot), swipe);
+                }
+            }
+            for (Swipe swipe : values()) {
+                swipe.mirror = swipe.findMirror();
+            }
+        }
 
+        private final int held;
+        private final byte direction;
+        private final int[] dots;
+        private Swipe mirror;
+
+        private Swipe() {
+            this(NO_HOLD, Touches.DOT_NONE);
+        }
+
+        /**
+         * @param held
+         *            The dot which is held still, or NO_HOLD.
+         * @param direction
+         *            One of the Touches.DOT_ directions.
+         * @param dots
+         *            The dots which may swipe, numbered from 1.
+         */
+        private Swipe(int held, byte direction, int... dots) {
+            this.held = held;
+            this.direction = direction;
+            this.dots = dots;
+        }
+
+        /**
+         * @return The same gesture with left and right swapped, for keyboards
+         *         whose dots run the other way.
+         */
+        public Swipe getMirror() {
+            return mirror;
+        }
+
+        /**
+         * Find the gesture made by a chord.
+         * 
+         * @param value
+         *            The direction each dot moved in, BITS_PER_TOUCH bits for
+         *            each starting with dot 1 in the lowest bits. A dot which
+         *            wasn't touched is 0.
+         * @return The gesture or UNKNOWN if the directions don't make one.
+         */
         public static Swipe valueOf(int value) {
-            // bit strings to represent different swipe actions
-            final int VALUE_NONE = 0;
-            final int VALUE_ONE_LEFT = 1;
-            final int VALUE_ONE_RIGHT = 2;
-            final int VALUE_ONE_DOWN = 3;
-            final int VALUE_ONE_UP = 4;
-            final int VALUE_TWO_LEFT = 8;
-            final int VALUE_TWO_RIGHT = 16;
-            final int VALUE_TWO_DOWN = 24;
-            final int VALUE_TWO_UP = 32;
-            final int VALUE_THREE_LEFT = 64;
-            final int VALUE_THREE_RIGHT = 128;
-            final int VALUE_THREE_DOWN = 192;
-            final int VALUE_THREE_UP = 256;
-            final int VALUE_FOUR_LEFT = 512;
-            final int VALUE_FOUR_RIGHT = 1024;
-            final int VALUE_FOUR_DOWN = 1536;
-            final int VALUE_FOUR_UP = 2048;
-            final int VALUE_FIVE_LEFT = 4096;
-            final int VALUE_FIVE_RIGHT = 8192;
-            final int VALUE_FIVE_DOWN = 12288;
-            final int VALUE_FIVE_UP = 16384;
-            final int VALUE_SIX_LEFT = 32768;
-            final int VALUE_SIX_RIGHT = 65536;
-            final int VALUE_SIX_DOWN = 98304;
-            final int VALUE_SIX_UP = 131072;
-            final int VALUE_HOLD_SIX_ONE_LEFT = 229377;
-            final int VALUE_HOLD_SIX_TWO_LEFT = 229384;
-            final int VALUE_HOLD_SIX_THREE_LEFT = 229440;
-            final int VALUE_HOLD_SIX_ONE_RIGHT = 229378;
-            final int VALUE_HOLD_SIX_TWO_RIGHT = 229392;
-            final int VALUE_HOLD_SIX_THREE_RIGHT = 229504;
-            final int VALUE_HOLD_SIX_ONE_DOWN = 229379;
-            final int VALUE_HOLD_SIX_TWO_DOWN = 229400;
-            final int VALUE_HOLD_SIX_THREE_DOWN = 229568;
-            final int VALUE_HOLD_SIX_ONE_UP = 229380;
-            final int VALUE_HOLD_SIX_TWO_UP = 229408;
-            final int VALUE_HOLD_SIX_THREE_UP = 229632;
-            final int VALUE_HOLD_THREE_FOUR_LEFT = 960;
-            final int VALUE_HOLD_THREE_FIVE_LEFT = 4544;
-            final int VALUE_HOLD_THREE_SIX_LEFT = 33216;
-            final int VALUE_HOLD_THREE_FOUR_RIGHT = 1472;
-            final int VALUE_HOLD_THREE_FIVE_RIGHT = 8640;
-            final int VALUE_HOLD_THREE_SIX_RIGHT = 65984;
-            final int VALUE_HOLD_THREE_FOUR_DOWN = 1984;
-            final int VALUE_HOLD_THREE_FIVE_DOWN = 12736;
-            final int VALUE_HOLD_THREE_SIX_DOWN = 98752;
-            final int VALUE_HOLD_THREE_FOUR_UP = 2496;
-            final int VALUE_HOLD_THREE_FIVE_UP = 16832;
-            final int VALUE_HOLD_THREE_SIX_UP = 131520;
-            final int VALUE_HOLD_ONE_FOUR_UP = 2055;
-            final int VALUE_HOLD_ONE_FIVE_UP = 16391;
-            final int VALUE_HOLD_ONE_SIX_UP = 131078;
-            final int VALUE_HOLD_ONE_FOUR_DOWN = 1543;
-            final int VALUE_HOLD_ONE_FIVE_DOWN = 12295;
-            final int VALUE_HOLD_ONE_SIX_DOWN = 98311;
-            final int VALUE_HOLD_ONE_FOUR_RIGHT = 1031;
-            final int VALUE_HOLD_ONE_FIVE_RIGHT = 8199;
-            final int VALUE_HOLD_ONE_SIX_RIGHT = 65543;
-            final int VALUE_HOLD_ONE_FOUR_LEFT = 519;
-            final int VALUE_HOLD_ONE_FIVE_LEFT = 4103;
-            final int VALUE_HOLD_ONE_SIX_LEFT = 32775;
-            final int VALUE_HOLD_FOUR_ONE_LEFT = 3585;
-            final int VALUE_HOLD_FOUR_TWO_LEFT = 3592;
-            final int VALUE_HOLD_FOUR_THREE_LEFT = 3648;
-            final int VALUE_HOLD_FOUR_ONE_RIGHT = 3586;
-            final int VALUE_HOLD_FOUR_TWO_RIGHT = 3600;
-            final int VALUE_HOLD_FOUR_THREE_RIGHT = 3712;
-            final int VALUE_HOLD_FOUR_ONE_DOWN = 3587;
-            final int VALUE_HOLD_FOUR_TWO_DOWN = 3608;
-            final int VALUE_HOLD_FOUR_THREE_DOWN = 3776;
-            final int VALUE_HOLD_FOUR_ONE_UP = 3588;
-            final int VALUE_HOLD_FOUR_TWO_UP = 3616;
-            final int VALUE_HOLD_FOUR_THREE_UP = 3840;
-            switch (value) {
-            case VALUE_NONE:
+            if (value == 0) {
                 return NONE;
-            case VALUE_ONE_LEFT:
-                return ONE_LEFT;
-            case VALUE_ONE_RIGHT:
-                return ONE_RIGHT;
-            case VALUE_ONE_DOWN:
-                return ONE_DOWN;
-            case VALUE_ONE_UP:
-                return ONE_UP;
-            case VALUE_TWO_LEFT:
-                return TWO_LEFT;
-            case VALUE_TWO_RIGHT:
-                return TWO_RIGHT;
-            case VALUE_TWO_DOWN:
-                return TWO_DOWN;
-            case VALUE_TWO_UP:
-                return TWO_UP;
-            case VALUE_THREE_LEFT:
-                return THREE_LEFT;
-            case VALUE_THREE_RIGHT:
-                return THREE_RIGHT;
-            case VALUE_THREE_DOWN:
-                return THREE_DOWN;
-            case VALUE_THREE_UP:
-                return THREE_UP;
-            case VALUE_FOUR_LEFT:
-                return FOUR_LEFT;
-            case VALUE_FOUR_RIGHT:
-                return FOUR_RIGHT;
-            case VALUE_FOUR_DOWN:
-                return FOUR_DOWN;
-            case VALUE_FOUR_UP:
-                return FOUR_UP;
-            case VALUE_FIVE_LEFT:
-                return FIVE_LEFT;
-            case VALUE_FIVE_RIGHT:
-                return FIVE_RIGHT;
-            case VALUE_FIVE_UP:
-                return FIVE_UP;
-            case VALUE_FIVE_DOWN:
-                return FIVE_DOWN;
-            case VALUE_SIX_LEFT:
-                return SIX_LEFT;
-            case VALUE_SIX_RIGHT:
-                return SIX_RIGHT;
-            case VALUE_SIX_DOWN:
-                return SIX_DOWN;
-            case VALUE_SIX_UP:
-                return SIX_UP;
-            case VALUE_HOLD_SIX_ONE_RIGHT:
-            case VALUE_HOLD_SIX_TWO_RIGHT:
-            case VALUE_HOLD_SIX_THREE_RIGHT:
-                return HOLD_SIX_RIGHT;
-            case VALUE_HOLD_SIX_ONE_LEFT:
-            case VALUE_HOLD_SIX_TWO_LEFT:
-            case VALUE_HOLD_SIX_THREE_LEFT:
-                return HOLD_SIX_LEFT;
-            case VALUE_HOLD_SIX_ONE_DOWN:
-            case VALUE_HOLD_SIX_TWO_DOWN:
-            case VALUE_HOLD_SIX_THREE_DOWN:
-                return HOLD_SIX_DOWN;
-            case VALUE_HOLD_SIX_ONE_UP:
-            case VALUE_HOLD_SIX_TWO_UP:
-            case VALUE_HOLD_SIX_THREE_UP:
-                return HOLD_SIX_UP;
-            case VALUE_HOLD_THREE_SIX_LEFT:
-            case VALUE_HOLD_THREE_FIVE_LEFT:
-            case VALUE_HOLD_THREE_FOUR_LEFT:
-                return HOLD_THREE_LEFT;
-            case VALUE_HOLD_THREE_SIX_RIGHT:
-            case VALUE_HOLD_THREE_FIVE_RIGHT:
-            case VALUE_HOLD_THREE_FOUR_RIGHT:
-                return HOLD_THREE_RIGHT;
-            case VALUE_HOLD_THREE_SIX_UP:
-            case VALUE_HOLD_THREE_FIVE_UP:
-            case VALUE_HOLD_THREE_FOUR_UP:
-                return HOLD_THREE_UP;
-            case VALUE_HOLD_THREE_SIX_DOWN:
-            case VALUE_HOLD_THREE_FIVE_DOWN:
-            case VALUE_HOLD_THREE_FOUR_DOWN:
-                return HOLD_THREE_DOWN;
-            case VALUE_HOLD_ONE_SIX_DOWN:
-            case VALUE_HOLD_ONE_FIVE_DOWN:
-            case VALUE_HOLD_ONE_FOUR_DOWN:
-                return HOLD_ONE_DOWN;
-            case VALUE_HOLD_ONE_SIX_UP:
-            case VALUE_HOLD_ONE_FIVE_UP:
-            case VALUE_HOLD_ONE_FOUR_UP:
-                return HOLD_ONE_UP;
-            case VALUE_HOLD_ONE_SIX_RIGHT:
-            case VALUE_HOLD_ONE_FIVE_RIGHT:
-            case VALUE_HOLD_ONE_FOUR_RIGHT:
-                return HOLD_ONE_RIGHT;
-            case VALUE_HOLD_ONE_SIX_LEFT:
-            case VALUE_HOLD_ONE_FIVE_LEFT:
-            case VALUE_HOLD_ONE_FOUR_LEFT:
-                return HOLD_ONE_LEFT;
-            case VALUE_HOLD_FOUR_ONE_LEFT:
-            case VALUE_HOLD_FOUR_TWO_LEFT:
-            case VALUE_HOLD_FOUR_THREE_LEFT:
-                return HOLD_FOUR_LEFT;
-            case VALUE_HOLD_FOUR_ONE_RIGHT:
-            case VALUE_HOLD_FOUR_TWO_RIGHT:
-            case VALUE_HOLD_FOUR_THREE_RIGHT:
-                return HOLD_FOUR_RIGHT;
-            case VALUE_HOLD_FOUR_ONE_DOWN:
-            case VALUE_HOLD_FOUR_TWO_DOWN:
-            case VALUE_HOLD_FOUR_THREE_DOWN:
-                return HOLD_FOUR_DOWN;
-            case VALUE_HOLD_FOUR_ONE_UP:
-            case VALUE_HOLD_FOUR_TWO_UP:
-            case VALUE_HOLD_FOUR_THREE_UP:
-                return HOLD_FOUR_UP;
-            default:
-                return UNKNOWN;
             }
+            int mask = tableValues.length - 1;
+            for (int i = hash(value);; i = (i + 1) & mask) {
+                if (tableValues[i] == value) {
+                    return tableSwipes[i];
+                } else if (tableValues[i] == 0) {
+                    return UNKNOWN;
+                }
+            }
+        }
+
+        // The value valueOf is given when the gesture is made with dot.
+        private int getValue(int dot) {
+            int value = direction << BITS_PER_TOUCH * (dot - 1);
+            if (held != NO_HOLD) {
+                value |= Touches.DOT_NONE << BITS_PER_TOUCH * (held - 1);
+            }
+            return value;
+        }
+
+        private Swipe findMirror() {
+            byte opposite;
+            if (direction == Touches.DOT_LEFT) {
+                opposite = Touches.DOT_RIGHT;
+            } else if (direction == Touches.DOT_RIGHT) {
+                opposite = Touches.DOT_LEFT;
+            } else {
+                return this;
+            }
+            for (Swipe swipe : values()) {
+                if (swipe.direction == opposite && swipe.held == held
+                        && Arrays.equals(swipe.dots, dots)) {
+                    return swipe;
+                }
+            }
+            return this;
+        }
+
+        private static void put(int value, Swipe swipe) {
+            int mask = tableValues.length - 1;
+            int i = hash(value);
+            while (tableValues[i] != 0) {
+                if (tableValues[i] == value) {
+                    throw new IllegalStateException(swipe + " and "
+                            + tableSwipes[i] + " are made the same way");
+                }
+                i = (i + 1) & mask;
+            }
+            tableValues[i] = value;
+            tableSwipes[i] = swipe;
+        }
+
+        private static int hash(int value) {
+            return (value * 0x9E3779B9) >>> (32 - TABLE_BITS);
         }
     }
 
@@ -276,96 +272,149 @@ public abstract class Pad {
 
     public Pad(Context context, Coords[] coords, int width, int height,
             int padString, boolean invert) {
-        SWIPE_MARGINE = Integer.parseInt(Options.getStringPreference(context,
-                R.string.pref_swipe_sensitivity_key,
-                context.getString(R.string.default_swipe_sensitivity)));
+        this(coords, width, height, padString, invert,
+                getSwipeThreshold(context));
+    }
+
+    /**
+     * @param swipeThreshold
+     *            How far in pixels a finger has to move to swipe.
+     */
+    Pad(Coords[] coords, int width, int height, int padString,
+            boolean invert, int swipeThreshold) {
         this.invert = invert;
         this.padString = padString;
         viewHeight = height;
         viewWidth = width;
-        swipeThreshold = (int) TypedValue.applyDimension(
-                TypedValue.COMPLEX_UNIT_DIP, SWIPE_MARGINE, context
-                        .getResources().getDisplayMetrics());
+        this.swipeThreshold = swipeThreshold;
         for (Coords coord : coords) {
             keys.add(coord);
         }
-        differences = new XY[MAX_DOTS];
     }
 
-    public Coords[] getBrailleDots(Coords[] coords, int dots) {
+    // The swipe sensitivity preference in pixels.
+    private static int getSwipeThreshold(Context context) {
+        int margin = Integer.parseInt(Options.getStringPreference(context,
+                R.string.pref_swipe_sensitivity_key,
+                context.getString(R.string.default_swipe_sensitivity)));
+        return (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP,
+                margin, context.getResources().getDisplayMetrics());
+    }
+
+    /**
+     * Match the touches of a chord to the dots of the keyboard. Afterwards
+     * the touches are in dot order, slot 0 is dot 1 and so on, and touches
+     * which couldn't be matched are dropped. Doesn't allocate.
+     * 
+     * The touches are matched so that the total of the squared distances
+     * from each touch to its dot is as small as possible. A touch may be
+     * matched to a dot in the other column but that costs as much again as
+     * the squared distance between the columns, so it only happens when
+     * there are more touches on one side than there are dots. The match is
+     * found by trying each dot for each touch in turn and keeping the
+     * cheapest way to use each set of dots, so the time taken is bounded by
+     * the number of touches times the number of sets of dots times the number
+     * of dots, and ties always go the same way.
+     * 
+     * @param touches
+     *            The touches of the chord.
+     * @param dots
+     *            The number of dots being typed.
+     */
+    public void getBrailleDots(Touches touches, int dots) {
         dots = dots > keys.size() ? keys.size() : dots;
-        if (dots > keys.size()) {
-            throw new IllegalArgumentException("Requires " + dots
-                    + " keys only " + keys.size() + " set");
-        }
-        int[] total = getAverageLeftRightColumns();
-        List<Coords> list = new ArrayList<Coords>();
-        for (Coords coord : coords) {
-            if (coord != null) {
-                list.add(coord);
+        int left = getAverageColumn(Column.LEFT);
+        int right = getAverageColumn(Column.RIGHT);
+        long columnPenalty = (long) (right - left) * (right - left);
+        int count = 0;
+        for (int i = 0; i < Touches.MAX_TOUCHES; i++) {
+            if (touches.isDown(i)) {
+                int x = touches.getX(i);
+                int y = touches.getY(i);
+                Column column = Math.abs(x - left) <= Math.abs(x - right)
+                        ? Column.LEFT : Column.RIGHT;
+                for (int dot = 0; dot < dots; dot++) {
+                    long cost = getDistance(dot, x, y);
+                    if (getColumn(dot) != column) {
+                        cost += columnPenalty;
+                    }
+                    matchCosts[count * MAX_DOTS + dot] = cost;
+                }
+                touchSlots[count++] = i;
             }
         }
-        Coords[] brailleDots = new Coords[coords.length];
-        while (list.size() > 0) {
-            matchDotToCoord(dots, total, list, brailleDots);
-        }
-        return brailleDots;
-    }
 
-    private void matchDotToCoord(int dots, int[] total, List<Coords> list,
-            Coords[] outputDots) {
-        Coords coords = list.remove(0);
-        int leftRight = Math.abs(coords.x - total[0]) <= Math.abs(coords.x
-                - total[1]) ? 0 : 1;
-        int best = -1;
-        int bestDistance = Integer.MAX_VALUE;
-        for (int i = 0; i < dots; i++) {
-            int j = getColumn(i) == Column.LEFT ? 0 : 1;
-            if (j == leftRight) {
-                int result = getDistance(i, coords);
-                if (result < bestDistance) {
-                    if (outputDots[i] != null) {
-                        if (result < getDistance(i, outputDots[i])) {
-                            list.add(outputDots[i]);
-                            outputDots[i] = null;
-                            differences[i] = null;
-                        } else {
-                            continue;
-                        }
+        int sets = 1 << dots;
+        Arrays.fill(leastCosts, 0, (count + 1) << MAX_DOTS, Long.MAX_VALUE);
+        leastCosts[0] = 0;
+        for (int touch = 0; touch < count; touch++) {
+            int from = touch << MAX_DOTS;
+            int to = (touch + 1) << MAX_DOTS;
+            for (int set = 0; set < sets; set++) {
+                long cost = leastCosts[from + set];
+                if (cost == Long.MAX_VALUE) {
+                    continue;
+                }
+                relax(to + set, cost + UNMATCHED_COST, NO_DOT);
+                for (int dot = 0; dot < dots; dot++) {
+                    if ((set & 1 << dot) == 0) {
+                        relax(to + (set | 1 << dot), cost
+                                + matchCosts[touch * MAX_DOTS + dot],
+                                (byte) dot);
                     }
-                    bestDistance = result;
-                    best = i;
                 }
             }
         }
-        // sometimes we may not resolve a dot eg. 4 fingers in the left column
-        // of a six dot keyboard. Also seems to crash when typing really
-        // quickly. Could have something to do with wrapid touch events, but
-        // unsure.
-        if (best >= 0) {
-            differences[best] = keys.get(best).getUpdate(coords.x, coords.y);
-            outputDots[best] = coords;
+
+        // Find the cheapest set of dots and follow the choices back.
+        int best = 0;
+        int last = count << MAX_DOTS;
+        for (int set = 1; set < sets; set++) {
+            if (leastCosts[last + set] < leastCosts[last + best]) {
+                best = set;
+            }
         }
+        Arrays.fill(matched, -1);
+        for (int touch = count - 1; touch >= 0; touch--) {
+            int dot = lastDots[((touch + 1) << MAX_DOTS) + best];
+            if (dot != NO_DOT) {
+                int slot = touchSlots[touch];
+                matched[dot] = slot;
+                best &= ~(1 << dot);
+                Coords key = keys.get(dot);
+                key.addSample(touches.getX(slot), touches.getY(slot));
+                drifted[dot] = true;
+                driftX[dot] = key.getDriftX();
+                driftY[dot] = key.getDriftY();
+            }
+        }
+        touches.arrange(matched);
     }
 
-    private int getDistance(int key, Coords coord) {
-        double horizontal = Math.pow(Math.abs(coord.x - keys.get(key).x), 2);
-        double vertical = Math.pow(Math.abs(coord.y - keys.get(key).y), 2);
-        int result = (int) Math.sqrt(horizontal + vertical);
-        return result;
+    // Keep a way of matching touches to dots if it's cheaper than the one
+    // found so far.
+    private void relax(int state, long cost, byte dot) {
+        if (cost < leastCosts[state]) {
+            leastCosts[state] = cost;
+            lastDots[state] = dot;
+        }
     }
 
-    private int[] getAverageLeftRightColumns() {
-        int total[] = { 0, 0 };
+    // The squared distance from a key.
+    private int getDistance(int key, int x, int y) {
+        int horizontal = x - keys.get(key).x;
+        int vertical = y - keys.get(key).y;
+        return horizontal * horizontal + vertical * vertical;
+    }
+
+    private int getAverageColumn(Column column) {
+        int total = 0;
         for (int i = 0; i < keys.size(); i++) {
-            if (keys.get(i) != null) {
-                int j = getColumn(i) == Column.LEFT ? 0 : 1;
-                total[j] += keys.get(i).x;
+            if (keys.get(i) != null && getColumn(i) == column) {
+                total += keys.get(i).x;
             }
         }
-        total[0] /= (keys.size() / 2);
-        total[1] /= (keys.size() / 2);
-        return total;
+        return total / (keys.size() / 2);
     }
 
     protected Column getColumn(int key) {
@@ -373,61 +422,64 @@ public abstract class Pad {
     }
 
     public void updateKeys(boolean portrait) {
-        XY[] newDiff = new XY[2];
-        newDiff[0] = new XY(0, 0);
-        newDiff[1] = new XY(0, 0);
-        int count[] = { 0, 0 };
-        for (int i = 0; i < differences.length; i++) {
-            int j = getColumn(i) == Column.LEFT ? 0 : 1;
-            if (differences[i] != null) {
-                count[j] += 1;
-                newDiff[j].x += differences[i].x;
-                newDiff[j].y += differences[i].y;
-                differences[i] = null;
+        // The average drift of the keys in each column.
+        int leftX = 0;
+        int leftY = 0;
+        int leftCount = 0;
+        int rightX = 0;
+        int rightY = 0;
+        int rightCount = 0;
+        for (int i = 0; i < MAX_DOTS; i++) {
+            if (drifted[i]) {
+                if (getColumn(i) == Column.LEFT) {
+                    ++leftCount;
+                    leftX += driftX[i];
+                    leftY += driftY[i];
+                } else {
+                    ++rightCount;
+                    rightX += driftX[i];
+                    rightY += driftY[i];
+                }
+                drifted[i] = false;
             }
         }
-        if (count[0] > 0) {
-            newDiff[0].x /= count[0];
-            newDiff[0].y /= count[0];
+        if (leftCount > 0) {
+            leftX /= leftCount;
+            leftY /= leftCount;
         }
-        if (count[1] > 0) {
-            newDiff[1].x /= count[1];
-            newDiff[1].y /= count[1];
+        if (rightCount > 0) {
+            rightX /= rightCount;
+            rightY /= rightCount;
         }
 
         for (int i = 0; i < keys.size(); i++) {
-            int j = getColumn(i) == Column.LEFT ? 0 : 1;
             if (keys.get(i) != null) {
-                keys.get(i).update(newDiff[j]);
+                if (getColumn(i) == Column.LEFT) {
+                    keys.get(i).update(leftX, leftY);
+                } else {
+                    keys.get(i).update(rightX, rightY);
+                }
             }
         }
     }
 
-    protected Swipe getGenericSwipeAction(Coords[] coords, boolean swap) {
-        final int REQUIRED_BITS = 3;
-        StringBuilder sb = new StringBuilder();
-        for (int i = coords.length - 1; i >= 0; i--) {
-            String bitString = "";
-            if (coords[i] != null) {
-                bitString = Integer.toBinaryString(coords[i].swipeDirection(
-                        swipeThreshold, swipeThreshold, swap, invert));
-            }
-            // zero padding
-            for (int j = 0; j < REQUIRED_BITS - bitString.length(); j++) {
-                sb.append("0");
-            }
-            sb.append(bitString);
-        }
-        for (int i = 0; i < sb.length(); i += 3) {
-            if (!sb.substring(i, i + 3).equals("000")
-                    && !sb.substring(i, i + 3).equals("111")) {
-                return Swipe.valueOf(Integer.parseInt(sb.toString(), 2));
+    protected Swipe getGenericSwipeAction(Touches touches, boolean swap) {
+        // The direction of each slot with the last slot in the highest bits.
+        int value = 0;
+        boolean moved = false;
+        for (int i = Touches.MAX_TOUCHES - 1; i >= 0; i--) {
+            int direction = 0;
+            if (touches.isDown(i)) {
+                direction = touches.swipeDirection(i, swipeThreshold,
+                        swipeThreshold, swap, invert);
+                moved |= direction != Touches.DOT_NONE;
             }
+            value = value << BITS_PER_TOUCH | direction;
         }
-        return Swipe.NONE;
+        return moved ? Swipe.valueOf(value) : Swipe.NONE;
     }
 
-    abstract Swipe getSwipe(Coords[] coords, boolean swap);
+    abstract Swipe getSwipe(Touches touches, boolean swap);
 
     protected static int getXGap(List<Coords> list) {
         int[] array = new int[list.size()];
@@ -509,28 +561,88 @@ public abstract class Pad {
         }
     }
 
+    /**
+     * Change how the keys follow where they are touched. What the keys
+     * remember of earlier touches is forgotten.
+     */
+    public void setHistory(History history) {
+        for (Coords key : keys) {
+            key.setHistory(history);
+        }
+    }
+
     public void swapTopBottom() {
         Collections.swap(keys, 0, 2);
         Collections.swap(keys, 3, 5);
     }
 
-    public static class Coords {
-        public static final byte DOT_NONE = 7;
-        public static final byte DOT_LEFT = 1;
-        public static final byte DOT_RIGHT = 2;
-        public static final byte DOT_DOWN = 3;
-        public static final byte DOT_UP = 4;
-        private static final int HISTORY_SIZE = 5;
+    /**
+     * Sets how a key follows where it's touched, see Coords.addSample. A key
+     * is moved towards the average of where it has been touched recently,
+     * with each touch counting for decay times as much as the one after it.
+     * 
+     * The weights are worked out once here in fixed point so that adding a
+     * touch to a key takes the same time however long the history is.
+     */
+    public static class History {
+        /**
+         * The last five touches, each counting half as much as the next.
+         */
+        public static final History DEFAULT = new History(5, 0.5);
+
+        private static final int FRACTION_BITS = 16;
+
+        private final int length;
+        // The weight of the touch i touches before the latest one, for i
+        // from 0 to length, in fixed point.
+        private final long[] weights;
+        // The total weight of i touches, for i from 0 to length.
+        private final long[] totals;
+
+        /**
+         * @param length
+         *            The number of touches to remember, at least 1.
+         * @param decay
+         *            How much each touch counts compared to the one after it,
+         *            more than 0 and at most 1.
+         */
+        public History(int length, double decay) {
+            if (length < 1 || !(decay > 0 && decay <= 1)) {
+                throw new IllegalArgumentException("Bad history " + length
+                        + ", " + decay);
+            }
+            this.length = length;
+            weights = new long[length + 1];
+            totals = new long[length + 1];
+            double weight = 1 << FRACTION_BITS;
+            for (int i = 0; i <= length; i++) {
+                weights[i] = Math.round(weight);
+                weight *= decay;
+                if (i > 0) {
+                    totals[i] = totals[i - 1] + weights[i - 1];
+                }
+            }
+        }
+    }
 
+    public static class Coords {
         public final int id;
-        private final Queue<XY> coordHistory = new LinkedList<XY>();
+        private History history = History.DEFAULT;
+        // Where the key has been touched, oldest first from historyStart,
+        // starting with the key's own position.
+        private int[] historyX;
+        private int[] historyY;
+        private int historyStart;
+        private int historySize;
+        // The touches in the history times their weights.
+        private long weightedX;
+        private long weightedY;
+        private int driftX;
+        private int driftY;
 
         public int x;
         public int y;
 
-        private int secondX;
-        private int secondY;
-
         public Coords(int x, int y) {
             this(-1, x, y);
         }
@@ -539,9 +651,7 @@ public abstract class Pad {
             this.id = id;
             this.x = x;
             this.y = y;
-            this.secondX = x;
-            this.secondY = y;
-            coordHistory.add(new XY(x, y));
+            setHistory(history);
         }
 
         public Coords(int[] centre, String point) {
@@ -549,99 +659,69 @@ public abstract class Pad {
             x = centre[0] + Integer.parseInt(components[1]);
             y = centre[1] + Integer.parseInt(components[2]);
             id = Integer.parseInt(components[0]);
-            coordHistory.add(new XY(x, y));
-        }
-
-        public int getSecondX() {
-            return secondX;
-        }
-
-        public int getSecondY() {
-            return secondY;
-        }
-
-        public void setSecondCords(int x, int y) {
-            secondX = x;
-            secondY = y;
-        }
-
-        public byte swipeDirection(int xSwipeThreshold, int ySwipeThreshold,
-                boolean swap, boolean invert) {
-            byte swipe = swipeDirection(xSwipeThreshold, ySwipeThreshold, swap);
-            if (!swap || !invert) {
-                return swipe;
-            }
-            switch (swipe) {
-            case DOT_UP:
-                return DOT_DOWN;
-            case DOT_DOWN:
-                return DOT_UP;
-            case DOT_LEFT:
-                return DOT_RIGHT;
-            case DOT_RIGHT:
-                return DOT_LEFT;
-            default:
-                return swipe;
-            }
-        }
-
-        private byte swipeDirection(int xSwipeThreshold, int ySwipeThreshold,
-                boolean swap) {
-            int xDiff = x - secondX;
-            int yDiff = y - secondY;
-            if (Math.abs(xDiff) > Math.abs(yDiff)) {
-                if (xDiff > xSwipeThreshold) {
-                    return swap ? DOT_LEFT : DOT_RIGHT;
-                } else if (xDiff < (0 - xSwipeThreshold)) {
-                    return swap ? DOT_RIGHT : DOT_LEFT;
-                }
-            } else if (Math.abs(yDiff) >= Math.abs(xDiff)) {
-                if (yDiff > ySwipeThreshold) {
-                    return DOT_UP;
-                } else if (yDiff < (0 - ySwipeThreshold)) {
-                    return DOT_DOWN;
-                }
-            }
-            return DOT_NONE;
-        }
-
-        public XY getUpdate(int x, int y) {
-            if (coordHistory.size() >= HISTORY_SIZE) {
-                coordHistory.poll();
-            }
-            coordHistory.add(new XY(x, y));
-            return getXYDifference();
-        }
-
-        private XY getXYDifference() {
-            double total = 0;
-            double i = Math.pow(2d, (double) coordHistory.size());
-            double x = 0;
-            double y = 0;
-            for (XY item : coordHistory) {
-                i /= 2;
-                x += (1 / i) * item.x;
-                y += (1 / i) * item.y;
-                total += 1 / i;
+            setHistory(history);
+        }
+
+        /**
+         * Change how the key follows where it's touched. The touches
+         * remembered so far are forgotten.
+         */
+        public void setHistory(History history) {
+            this.history = history;
+            historyX = new int[history.length];
+            historyY = new int[history.length];
+            historyStart = 0;
+            historySize = 0;
+            weightedX = 0;
+            weightedY = 0;
+            addHistory(x, y);
+        }
+
+        /**
+         * Record where the key was touched and work out how far the key is
+         * from where it has been touched recently, see getDriftX and
+         * getDriftY.
+         */
+        public void addSample(int x, int y) {
+            addHistory(x, y);
+            long total = history.totals[historySize];
+            driftX = (int) (weightedX / total) - this.x;
+            driftY = (int) (weightedY / total) - this.y;
+        }
+
+        public int getDriftX() {
+            return driftX;
+        }
+
+        public int getDriftY() {
+            return driftY;
+        }
+
+        // Add a touch to the history, decaying the weights of the touches
+        // already there and dropping the oldest if it's full.
+        private void addHistory(int x, int y) {
+            long[] weights = history.weights;
+            weightedX = (weightedX * weights[1] >> History.FRACTION_BITS)
+                    + weights[0] * x;
+            weightedY = (weightedY * weights[1] >> History.FRACTION_BITS)
+                    + weights[0] * y;
+            int length = history.length;
+            int end = (historyStart + historySize) % length;
+            if (historySize == length) {
+                // The oldest touch now has the weight of one too many.
+                weightedX -= weights[length] * historyX[historyStart];
+                weightedY -= weights[length] * historyY[historyStart];
+                historyStart = (historyStart + 1) % length;
+            } else {
+                ++historySize;
             }
-            int newX = (int) (x / total);
-            int newY = (int) (y / total);
-            return new XY(newX - this.x, newY - this.y);
+            historyX[end] = x;
+            historyY[end] = y;
         }
 
-        public void update(XY diff) {
-            this.x += diff.x;
-            this.y += diff.y;
-        }
-    }
-
-    public static class XY {
-        public int x;
-        public int y;
-
-        public XY(int x, int y) {
-            this.x = x;
-            this.y = y;
+        public void update(int diffX, int diffY) {
+            this.x += diffX;
+            this.y += diffY;
         }
     }
 }
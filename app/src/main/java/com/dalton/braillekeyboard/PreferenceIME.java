@@ -36,6 +36,7 @@ import com.dalton.braillekeyboard.BrailleParser.BrailleType;
 import com.dalton.braillekeyboard.Options.KeyboardEcho;
 import com.dalton.braillekeyboard.Options.KeyboardFeedback;
 import com.dalton.braillekeyboard.Options.OptionList;
+import com.googlecode.eyesfree.braille.translate.BrailleTranslator;
 import com.googlecode.eyesfree.braille.translate.TableInfo;
 
 // TODO fix the keyboard echo / feedback prefs
@@ -96,6 +97,12 @@ public class PreferenceIME extends PreferenceActivity {
                         public void onTranslatorReady(int status) {
                             addTables(status);
                         }
+
+                        @Override
+                        public void onTranslatorChanged(
+                                BrailleTranslator translator, String tableId) {
+                            // No words are typed here.
+                        }
                     });
         }
 
@@ -0,0 +1,355 @@
+/*
+ * Copyright (C) 2016 The Soft Braille Keyboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dalton.braillekeyboard;
+
+import java.util.Arrays;
+
+/**
+ * The fingers touching the keyboard during a chord, kept in a fixed number of
+ * slots.
+ *
+ * Each slot holds the pointer id, where the finger went down, where it was
+ * last seen, the size of the touch and when it went down and up, in parallel
+ * arrays so that following a chord doesn't allocate. A finger which goes down
+ * takes the first free slot whatever its pointer id, and while it's down its
+ * slot is found from the id. A finger which lifts keeps its slot until the
+ * chord is cleared but no longer answers to the id, which the system may give
+ * to the next finger. Once a Pad has matched the touches to its dots with
+ * arrange the slots are in dot order, slot 0 is dot 1 and so on.
+ *
+ * If a finger goes down when every slot is taken the touch we are least sure
+ * of is dropped, which may be the new one. Touches much bigger than a finger,
+ * like a palm, and fingers which only brushed the screen are the least
+ * likely to be part of the chord, see getConfidence.
+ *
+ * Only used on the main thread.
+ */
+public class Touches {
+    /**
+     * The number of slots, one for each dot of an eight dot keyboard.
+     */
+    public static final int MAX_TOUCHES = 8;
+
+    public static final byte DOT_NONE = 7;
+    public static final byte DOT_LEFT = 1;
+    public static final byte DOT_RIGHT = 2;
+    public static final byte DOT_DOWN = 3;
+    public static final byte DOT_UP = 4;
+
+    // The id of an empty slot.
+    private static final int NO_ID = -1;
+    // A touch held for this long in milliseconds is a deliberate one, see
+    // getConfidence.
+    private static final int SETTLE_TIME = 50;
+
+    private final int fingerSize;
+
+    private final int[] ids = new int[MAX_TOUCHES];
+    private final int[] x = new int[MAX_TOUCHES];
+    private final int[] y = new int[MAX_TOUCHES];
+    private final int[] secondX = new int[MAX_TOUCHES];
+    private final int[] secondY = new int[MAX_TOUCHES];
+    private final int[] sizes = new int[MAX_TOUCHES];
+    private final long[] downTimes = new long[MAX_TOUCHES];
+    private final boolean[] lifted = new boolean[MAX_TOUCHES];
+    private final long[] upTimes = new long[MAX_TOUCHES];
+
+    // Copies of the slots while arrange moves them.
+    private final int[] oldIds = new int[MAX_TOUCHES];
+    private final int[] oldX = new int[MAX_TOUCHES];
+    private final int[] oldY = new int[MAX_TOUCHES];
+    private final int[] oldSecondX = new int[MAX_TOUCHES];
+    private final int[] oldSecondY = new int[MAX_TOUCHES];
+    private final int[] oldSizes = new int[MAX_TOUCHES];
+    private final long[] oldDownTimes = new long[MAX_TOUCHES];
+    private final boolean[] oldLifted = new boolean[MAX_TOUCHES];
+    private final long[] oldUpTimes = new long[MAX_TOUCHES];
+
+    /**
+     * @param fingerSize
+     *            The largest size in pixels of a touch made by one finger.
+     */
+    public Touches(int fingerSize) {
+        this.fingerSize = Math.max(fingerSize, 1);
+        clear();
+    }
+
+    /**
+     * Record a finger going down. If the pointer is already down it starts
+     * again from the new position.
+     *
+     * @param id
+     *            The pointer id from the MotionEvent.
+     * @param x
+     *            Where the finger went down.
+     * @param y
+     *            Where the finger went down.
+     * @param size
+     *            The size of the touch in pixels, see
+     *            MotionEvent.getTouchMajor, or 0 if it isn't known.
+     * @param time
+     *            When the finger went down in SystemClock.uptimeMillis.
+     * @return False if the touch was dropped because every slot is taken by
+     *         a touch we are surer of.
+     */
+    public boolean down(int id, int x, int y, int size, long time) {
+        int slot = find(id);
+        if (slot < 0) {
+            slot = allocate(size);
+            if (slot < 0) {
+                return false;
+            }
+        }
+        set(slot, id, x, y, size, time);
+        return true;
+    }
+
+    /**
+     * Record a finger lifting. The touch stays in its slot as part of the
+     * chord but the pointer id is free to be used again.
+     *
+     * @param time
+     *            When the finger lifted in SystemClock.uptimeMillis.
+     */
+    public void up(int id, long time) {
+        int slot = find(id);
+        if (slot >= 0) {
+            lifted[slot] = true;
+            upTimes[slot] = time;
+        }
+    }
+
+    /**
+     * Record where a finger is now. Does nothing if the pointer isn't down.
+     *
+     * @return False if the pointer isn't down.
+     */
+    public boolean move(int id, int x, int y) {
+        int slot = find(id);
+        if (slot < 0) {
+            return false;
+        }
+        secondX[slot] = x;
+        secondY[slot] = y;
+        return true;
+    }
+
+    /**
+     * Put a touch which is still down in a slot, replacing whatever was there.
+     */
+    public void set(int slot, int id, int x, int y, int size, long time) {
+        ids[slot] = id;
+        this.x[slot] = x;
+        this.y[slot] = y;
+        secondX[slot] = x;
+        secondY[slot] = y;
+        sizes[slot] = size;
+        downTimes[slot] = time;
+        lifted[slot] = false;
+    }
+
+    /**
+     * Empty a slot.
+     */
+    public void remove(int slot) {
+        ids[slot] = NO_ID;
+    }
+
+    /**
+     * Empty every slot.
+     */
+    public void clear() {
+        Arrays.fill(ids, NO_ID);
+    }
+
+    /**
+     * @return The slot of a pointer or -1 if it isn't down.
+     */
+    public int find(int id) {
+        for (int i = 0; i < MAX_TOUCHES; i++) {
+            if (ids[i] == id && id != NO_ID && !lifted[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return The number of slots in use.
+     */
+    public int count() {
+        int count = 0;
+        for (int i = 0; i < MAX_TOUCHES; i++) {
+            if (ids[i] != NO_ID) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    public boolean isDown(int slot) {
+        return ids[slot] != NO_ID;
+    }
+
+    public int getId(int slot) {
+        return ids[slot];
+    }
+
+    public int getX(int slot) {
+        return x[slot];
+    }
+
+    public int getY(int slot) {
+        return y[slot];
+    }
+
+    public int getSecondX(int slot) {
+        return secondX[slot];
+    }
+
+    public int getSecondY(int slot) {
+        return secondY[slot];
+    }
+
+    public int getSize(int slot) {
+        return sizes[slot];
+    }
+
+    public long getDownTime(int slot) {
+        return downTimes[slot];
+    }
+
+    public boolean isLifted(int slot) {
+        return lifted[slot];
+    }
+
+    /**
+     * Move the touches to new slots. Touches which aren't given a slot are
+     * dropped.
+     *
+     * @param order
+     *            For each slot the slot whose touch should move there or -1
+     *            to leave it empty.
+     */
+    public void arrange(int[] order) {
+        System.arraycopy(ids, 0, oldIds, 0, MAX_TOUCHES);
+        System.arraycopy(x, 0, oldX, 0, MAX_TOUCHES);
+        System.arraycopy(y, 0, oldY, 0, MAX_TOUCHES);
+        System.arraycopy(secondX, 0, oldSecondX, 0, MAX_TOUCHES);
+        System.arraycopy(secondY, 0, oldSecondY, 0, MAX_TOUCHES);
+        System.arraycopy(sizes, 0, oldSizes, 0, MAX_TOUCHES);
+        System.arraycopy(downTimes, 0, oldDownTimes, 0, MAX_TOUCHES);
+        System.arraycopy(lifted, 0, oldLifted, 0, MAX_TOUCHES);
+        System.arraycopy(upTimes, 0, oldUpTimes, 0, MAX_TOUCHES);
+        for (int i = 0; i < MAX_TOUCHES; i++) {
+            int from = i < order.length ? order[i] : -1;
+            if (from < 0) {
+                ids[i] = NO_ID;
+                continue;
+            }
+            ids[i] = oldIds[from];
+            x[i] = oldX[from];
+            y[i] = oldY[from];
+            secondX[i] = oldSecondX[from];
+            secondY[i] = oldSecondY[from];
+            sizes[i] = oldSizes[from];
+            downTimes[i] = oldDownTimes[from];
+            lifted[i] = oldLifted[from];
+            upTimes[i] = oldUpTimes[from];
+        }
+    }
+
+    // Find a slot for a new touch of the given size, emptying the slot of the
+    // touch we are least sure of if they are all taken. Returns -1 if the new
+    // touch should be dropped instead.
+    private int allocate(int size) {
+        int worst = -1;
+        int worstConfidence = getConfidence(SETTLE_TIME, size);
+        for (int i = 0; i < MAX_TOUCHES; i++) {
+            if (ids[i] == NO_ID) {
+                return i;
+            }
+            // Keep the older touch when they are as likely as each other.
+            int confidence = getConfidence(i);
+            if (confidence < worstConfidence) {
+                worst = i;
+                worstConfidence = confidence;
+            }
+        }
+        return worst;
+    }
+
+    // How sure we are that the touch in a slot is a finger typing the chord.
+    // A finger still down hasn't been held long enough to judge yet.
+    private int getConfidence(int slot) {
+        int held = lifted[slot] ? (int) Math.min(
+                Math.max(upTimes[slot] - downTimes[slot], 0), SETTLE_TIME)
+                : SETTLE_TIME;
+        return getConfidence(held, sizes[slot]);
+    }
+
+    // Touches held for less than SETTLE_TIME are brushes and touches bigger
+    // than a finger are palms or knuckles, either makes a touch less likely.
+    private int getConfidence(int held, int size) {
+        return held * fingerSize / Math.max(size, fingerSize);
+    }
+
+    /**
+     * @return Which way the finger in a slot moved between going down and
+     *         where it was last seen, one of the DOT_ constants.
+     */
+    public byte swipeDirection(int slot, int xSwipeThreshold,
+            int ySwipeThreshold, boolean swap, boolean invert) {
+        byte swipe = swipeDirection(slot, xSwipeThreshold, ySwipeThreshold,
+                swap);
+        if (!swap || !invert) {
+            return swipe;
+        }
+        switch (swipe) {
+        case DOT_UP:
+            return DOT_DOWN;
+        case DOT_DOWN:
+            return DOT_UP;
+        case DOT_LEFT:
+            return DOT_RIGHT;
+        case DOT_RIGHT:
+            return DOT_LEFT;
+        default:
+            return swipe;
+        }
+    }
+
+    private byte swipeDirection(int slot, int xSwipeThreshold,
+            int ySwipeThreshold, boolean swap) {
+        int xDiff = x[slot] - secondX[slot];
+        int yDiff = y[slot] - secondY[slot];
+        if (Math.abs(xDiff) > Math.abs(yDiff)) {
+            if (xDiff > xSwipeThreshold) {
+                return swap ? DOT_LEFT : DOT_RIGHT;
+            } else if (xDiff < (0 - xSwipeThreshold)) {
+                return swap ? DOT_RIGHT : DOT_LEFT;
+            }
+        } else if (Math.abs(yDiff) >= Math.abs(xDiff)) {
+            if (yDiff > ySwipeThreshold) {
+                return DOT_UP;
+            } else if (yDiff < (0 - ySwipeThreshold)) {
+                return DOT_DOWN;
+            }
+        }
+        return DOT_NONE;
+    }
+}
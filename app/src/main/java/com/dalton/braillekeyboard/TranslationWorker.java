@@ -0,0 +1,405 @@
+/*
+ * Copyright (C) 2016 The Soft Braille Keyboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dalton.braillekeyboard;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+
+import com.googlecode.eyesfree.braille.translate.BrailleTranslator;
+
+/**
+ * Back translates the word being typed on a background thread so that the
+ * thread handling touches never waits for a translator.
+ *
+ * Every change to the word, typed cells, removing a cell, starting a word or
+ * switching tables, is queued by the main thread and made by the worker in
+ * the order it was queued. The BrailleParser is only used by the worker. Each
+ * change is numbered and the worker publishes the translation of the word
+ * after the changes it has made. Changes queued while a translation is
+ * running are made together and translated once. The main thread only queues
+ * changes and reads the last published result, which is delivered to the
+ * listener if nothing has been queued since, a later result will include the
+ * earlier changes.
+ *
+ * Results are written to two buffers which are swapped as they are published
+ * so that typing doesn't allocate.
+ */
+public class TranslationWorker {
+
+    /**
+     * Receives the translation of the word being typed on the main thread.
+     */
+    public interface OnTranslatedListener {
+
+        /**
+         * @param text
+         *            The back translation of the word after the last change
+         *            which was queued or null if the cells couldn't be back
+         *            translated, or if the change was removing a cell, the
+         *            word had no cells to remove.
+         * @param unknown
+         *            True if the last change was typing cells and the last of
+         *            them couldn't be back translated, so it was left out of
+         *            the text.
+         */
+        void onTranslated(String text, boolean unknown);
+    }
+
+    // The translation of the word after the changes up to sequence.
+    private static class Result {
+        int sequence;
+        String text;
+        boolean unknown;
+        // The cells of the word if it can be restored from them, see
+        // BrailleParser.getWordCells.
+        final CellBuffer cells = new CellBuffer();
+        boolean hasCells;
+    }
+
+    // Queued changes other than cells, which are queued as their dots. Each
+    // change has up to two arguments.
+    private static final int CLEAR = -1;
+    private static final int START = -2;
+    private static final int RESTORE = -3;
+    private static final int RESTORE_CAPITALISED = -4;
+    private static final int REMOVE = -5;
+    private static final int TRANSLATOR = -6;
+
+    private final BrailleParser parser;
+    private final OnTranslatedListener listener;
+    private final HandlerThread thread;
+    private final Handler worker;
+    private final Handler main = new Handler(Looper.getMainLooper());
+    private final Object lock = new Object();
+
+    private final Runnable work = new Runnable() {
+
+        @Override
+        public void run() {
+            work();
+        }
+    };
+
+    private final Runnable deliver = new Runnable() {
+
+        @Override
+        public void run() {
+            deliver();
+        }
+    };
+
+    // Guarded by lock. The queue is swapped with the worker's arrays when
+    // the worker takes it. sequence counts the changes queued.
+    private int[] ops = new int[16];
+    private Object[] args = new Object[32];
+    private int opCount;
+    private int sequence;
+    private boolean scheduled;
+    private Result published = new Result();
+
+    // Only used on the worker's thread.
+    private int[] workOps = new int[16];
+    private Object[] workArgs = new Object[32];
+    private final CellBuffer batch = new CellBuffer(16);
+    private Result back = new Result();
+
+    // Only used on the main thread. Set when a change has been queued whose
+    // result hasn't been delivered.
+    private boolean waiting;
+
+    /**
+     * Start a worker. Call shutdown when it's no longer needed.
+     *
+     * @param parser
+     *            The parser to translate with. Only the worker uses its word.
+     * @param listener
+     *            Receives the translations on the main thread.
+     */
+    public TranslationWorker(BrailleParser parser,
+            OnTranslatedListener listener) {
+        this.parser = parser;
+        this.listener = listener;
+        thread = new HandlerThread("TranslationWorker");
+        thread.start();
+        worker = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Queue a cell to be added to the end of the word.
+     *
+     * @param cell
+     *            The dots of the cell, see BrailleParser.appendCells.
+     */
+    public void append(byte cell) {
+        queue(cell & 0xff, null, null);
+        waiting = true;
+    }
+
+    /**
+     * Queue removing the last cell of the word, see
+     * BrailleParser.removeLastCell.
+     */
+    public void removeLastCell() {
+        queue(REMOVE, null, null);
+        waiting = true;
+    }
+
+    /**
+     * Start a new word. Results for changes queued before this are dropped.
+     */
+    public void clear() {
+        queue(CLEAR, null, null);
+        waiting = false;
+    }
+
+    /**
+     * Queue starting a new word which continues text before the cursor, see
+     * BrailleParser.startWordWith. Results for changes queued before this are
+     * dropped.
+     *
+     * @param text
+     *            The part of the word before the cursor.
+     */
+    public void startWord(CharSequence text) {
+        queue(START, text.toString(), null);
+        waiting = true;
+    }
+
+    /**
+     * Queue starting a new word with cells which were typed earlier, see
+     * BrailleParser.restoreWord. If the cells no longer translate to the word
+     * it was left as the word is started with its text instead. Results for
+     * changes queued before this are dropped.
+     *
+     * @param cells
+     *            The cells of the word.
+     * @param word
+     *            The text of the word.
+     * @param capitalised
+     *            True if the first character of the word was capitalised
+     *            after it was translated.
+     */
+    public void restoreWord(byte[] cells, String word, boolean capitalised) {
+        queue(capitalised ? RESTORE_CAPITALISED : RESTORE, cells, word);
+        waiting = true;
+    }
+
+    /**
+     * Queue switching the table the rest of the word is translated with, see
+     * BrailleParser.switchTranslator.
+     *
+     * @param translator
+     *            The translator or null if the table couldn't be loaded.
+     * @param tableId
+     *            The id of the table.
+     */
+    public void setTranslator(BrailleTranslator translator, String tableId) {
+        queue(TRANSLATOR, translator, tableId);
+    }
+
+    /**
+     * @return True if a change has been queued whose translation hasn't been
+     *         delivered yet.
+     */
+    public boolean isTranslating() {
+        return waiting;
+    }
+
+    /**
+     * Deliver the result of the last change queued if it has been published
+     * and not delivered. Doesn't wait for the worker, if the change hasn't
+     * been translated yet nothing is delivered and the result is dropped when
+     * the word is cleared.
+     */
+    public void flush() {
+        deliver();
+    }
+
+    /**
+     * @return A copy of the cells of the word after the last change queued or
+     *         null if they haven't been translated yet or the word can't be
+     *         restored from its cells.
+     */
+    public byte[] getWordCells() {
+        synchronized (lock) {
+            if (published.sequence != sequence || !published.hasCells) {
+                return null;
+            }
+            return published.cells.toArray();
+        }
+    }
+
+    /**
+     * Stop the worker thread. Queued changes are dropped.
+     */
+    public void shutdown() {
+        synchronized (lock) {
+            clearArgs(args, opCount);
+            opCount = 0;
+        }
+        waiting = false;
+        thread.quit();
+    }
+
+    // Called on the main thread.
+    private void queue(int op, Object arg1, Object arg2) {
+        synchronized (lock) {
+            if (opCount == ops.length) {
+                int[] largerOps = new int[ops.length * 2];
+                System.arraycopy(ops, 0, largerOps, 0, opCount);
+                ops = largerOps;
+                Object[] largerArgs = new Object[args.length * 2];
+                System.arraycopy(args, 0, largerArgs, 0, opCount * 2);
+                args = largerArgs;
+            }
+            ops[opCount] = op;
+            args[opCount * 2] = arg1;
+            args[opCount * 2 + 1] = arg2;
+            ++opCount;
+            ++sequence;
+            if (scheduled) {
+                return;
+            }
+            scheduled = true;
+        }
+        worker.post(work);
+    }
+
+    // Make the queued changes to the parser and publish the result.
+    private void work() {
+        int count;
+        synchronized (lock) {
+            int[] takenOps = ops;
+            ops = workOps;
+            workOps = takenOps;
+            Object[] takenArgs = args;
+            args = workArgs;
+            workArgs = takenArgs;
+            count = opCount;
+            opCount = 0;
+            back.sequence = sequence;
+            scheduled = false;
+        }
+
+        String text = null;
+        boolean unknown = false;
+        int i = 0;
+        while (i < count) {
+            int op = workOps[i];
+            if (op >= 0) {
+                // Add cells queued together in one go.
+                batch.clear();
+                for (; i < count && workOps[i] >= 0; i++) {
+                    batch.append((byte) workOps[i]);
+                }
+                text = parser.appendCells(batch);
+                unknown = text != null && isLastCellUnknown();
+                continue;
+            }
+
+            unknown = false;
+            Object arg1 = workArgs[i * 2];
+            Object arg2 = workArgs[i * 2 + 1];
+            switch (op) {
+            case CLEAR:
+                parser.clearCells();
+                text = null;
+                break;
+            case START:
+                text = parser.startWordWith((String) arg1);
+                break;
+            case RESTORE:
+            case RESTORE_CAPITALISED:
+                text = restore((byte[]) arg1, (String) arg2,
+                        op == RESTORE_CAPITALISED);
+                break;
+            case REMOVE:
+                text = parser.removeLastCell();
+                break;
+            case TRANSLATOR:
+                parser.switchTranslator((BrailleTranslator) arg1,
+                        (String) arg2);
+                text = parser.getText();
+                break;
+            }
+            ++i;
+        }
+        clearArgs(workArgs, count);
+
+        back.text = text;
+        back.unknown = unknown;
+        back.hasCells = parser.getWordCells(back.cells);
+        synchronized (lock) {
+            Result result = published;
+            published = back;
+            back = result;
+        }
+        main.post(deliver);
+    }
+
+    private boolean isLastCellUnknown() {
+        int[] unknown = parser.getUnknownCells();
+        return unknown.length > 0
+                && unknown[unknown.length - 1] == parser.getTypedCellCount() - 1;
+    }
+
+    // Start the word with its cells if they still translate to it, else with
+    // its text.
+    private String restore(byte[] cells, String word, boolean capitalised) {
+        String text = parser.restoreWord(cells);
+        if (text == null || text.length() != word.length()
+                || text.length() == 0) {
+            return parser.startWordWith(word);
+        }
+        char first = text.charAt(0);
+        if (capitalised) {
+            first = Character.toUpperCase(first);
+        }
+        if (first != word.charAt(0)
+                || !text.regionMatches(1, word, 1, word.length() - 1)) {
+            return parser.startWordWith(word);
+        }
+        return text;
+    }
+
+    // Drop the references to the arguments of count changes.
+    private static void clearArgs(Object[] args, int count) {
+        for (int i = 0; i < count * 2; i++) {
+            args[i] = null;
+        }
+    }
+
+    // Called on the main thread when a result has been published.
+    private void deliver() {
+        if (!waiting) {
+            return;
+        }
+        String text;
+        boolean unknown;
+        synchronized (lock) {
+            if (published.sequence != sequence) {
+                // A later result will include the changes since.
+                return;
+            }
+            text = published.text;
+            unknown = published.unknown;
+        }
+        waiting = false;
+        listener.onTranslated(text, unknown);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2016 The Soft Braille Keyboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dalton.braillekeyboard;
+
+import com.dalton.braillekeyboard.BrailleParser.BrailleType;
+
+/**
+ * Typing cells as characters from the Unicode Braille Patterns block, which
+ * skips translation, and where it comes when switching the Braille type.
+ */
+final class UnicodeBraille {
+    /**
+     * Switching the Braille type turns Unicode Braille on or off.
+     */
+    static final int SWITCH_UNICODE = 1;
+    /**
+     * Switching the Braille type switches the BrailleType of the parser.
+     */
+    static final int SWITCH_TYPE = 2;
+
+    // The first character of the Unicode Braille Patterns block, the dots of a
+    // cell are added to it.
+    private static final char PATTERN_BLANK = '\u2800';
+    // The character for each cell, so typing in Unicode Braille doesn't
+    // allocate.
+    private static final String[] PATTERNS = new String[256];
+    static {
+        for (int i = 0; i < PATTERNS.length; i++) {
+            PATTERNS[i] = String.valueOf((char) (PATTERN_BLANK | i));
+        }
+    }
+
+    private UnicodeBraille() {
+    }
+
+    /**
+     * @param dots
+     *            The dots of the cell, see BrailleParser.appendCells.
+     * @return The character for the cell. The same String is returned each
+     *         time.
+     */
+    static String getPattern(byte dots) {
+        return PATTERNS[dots & 0xff];
+    }
+
+    /**
+     * Find what switching the Braille type changes. It goes from literary to
+     * computer Braille, then to Unicode Braille and back to literary Braille.
+     * Without a parser it only turns Unicode Braille on and off.
+     * 
+     * @param unicodeBraille
+     *            True if typing Unicode Braille.
+     * @param type
+     *            The BrailleType of the parser or null if there's no parser.
+     * @return SWITCH_UNICODE, SWITCH_TYPE or both.
+     */
+    static int getSwitches(boolean unicodeBraille, BrailleType type) {
+        if (type == null) {
+            return SWITCH_UNICODE;
+        }
+        if (unicodeBraille) {
+            return type == BrailleType.COMPUTER ? SWITCH_UNICODE | SWITCH_TYPE
+                    : SWITCH_UNICODE;
+        }
+        return type == BrailleType.COMPUTER ? SWITCH_UNICODE : SWITCH_TYPE;
+    }
+}
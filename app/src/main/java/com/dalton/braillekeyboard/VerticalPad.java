@@ -168,7 +168,7 @@ public class VerticalPad extends Pad {
     }
 
     @Override
-    public Swipe getSwipe(Coords[] coords, boolean swap) {
-        return getGenericSwipeAction(coords, swap);
+    public Swipe getSwipe(Touches touches, boolean swap) {
+        return getGenericSwipeAction(touches, swap);
     }
 }
@@ -0,0 +1,727 @@
+/*
+ * Copyright (C) 2016 The Soft Braille Keyboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.eyesfree.braille.service.translate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.googlecode.eyesfree.braille.service.translate.LibLouisTable.Opcode;
+
+/**
+ * Compiles liblouis text tables (.ctb, .utb, .cti, .uti, .dis) into a
+ * LibLouisTable.
+ *
+ * Only the opcodes needed to translate single words to and from Braille are
+ * supported: character definitions, the capital, number and letter indicators
+ * and the contraction rules restricted by their position in a word. Multipass
+ * rules, emphasis and rules depending on character classes are skipped since
+ * they can't be expressed as a plain cell pattern.
+ *
+ * Include statements are resolved through a TableSource so the compiler can
+ * read the tables wherever they are kept. The build uses it to precompile the
+ * tables into the file read by LibLouisTableFile.
+ */
+public final class LibLouisCompiler {
+
+    /**
+     * Opens table files by name. Names are the ones used by liblouis include
+     * statements and in tablelist.xml.
+     */
+    public interface TableSource {
+
+        /**
+         * Open the given table file.
+         *
+         * @param fileName
+         *            The name of the table file eg. en-us-g2.ctb.
+         * @return A stream for the contents of the file encoded as UTF-8.
+         * @throws IOException
+         *             If the file doesn't exist or can't be read.
+         */
+        InputStream open(String fileName) throws IOException;
+    }
+
+    private static final Map<String, Opcode> OPCODES = new HashMap<String, Opcode>();
+
+    static {
+        for (Opcode opcode : Opcode.values()) {
+            OPCODES.put(opcode.name().toLowerCase(Locale.US), opcode);
+        }
+        // Older names which mean the same thing.
+        OPCODES.put("capsign", Opcode.CAPSLETTER);
+        OPCODES.put("begcaps", Opcode.BEGCAPSWORD);
+        OPCODES.put("endcaps", Opcode.ENDCAPSWORD);
+    }
+
+    private final TableSource source;
+    private final Set<String> included = new HashSet<String>();
+    private final List<PendingRule> pending = new ArrayList<PendingRule>();
+    // The first definition of each character, used to resolve '=' dots.
+    private final Map<Character, byte[]> characterDots = new HashMap<Character, byte[]>();
+
+    private LibLouisCompiler(TableSource source) {
+        this.source = source;
+    }
+
+    /**
+     * Compile a table and all of the tables it includes.
+     *
+     * @param source
+     *            Used to open the table and its includes.
+     * @param fileName
+     *            The name of the table to compile.
+     * @return The compiled table.
+     * @throws IOException
+     *             If the table or one of its includes can't be read.
+     */
+    public static LibLouisTable compile(TableSource source, String fileName)
+            throws IOException {
+        LibLouisCompiler compiler = new LibLouisCompiler(source);
+        compiler.include(fileName);
+        return compiler.build(fileName);
+    }
+
+    private void include(String fileName) throws IOException {
+        if (!included.add(fileName)) {
+            return;
+        }
+        InputStream in = source.open(fileName);
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    in, "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                parseLine(line);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private void parseLine(String line) throws IOException {
+        String[] fields = line.trim().split("[ \t]+");
+        if (fields.length == 0 || fields[0].length() == 0
+                || fields[0].charAt(0) == '#' || fields[0].charAt(0) == '<') {
+            return;
+        }
+
+        int i = 0;
+        boolean noBack = false;
+        boolean noFor = false;
+        for (; i < fields.length; i++) {
+            if (fields[i].equals("nofor")) {
+                noFor = true;
+            } else if (fields[i].equals("noback")) {
+                noBack = true;
+            } else {
+                break;
+            }
+        }
+        if (i >= fields.length) {
+            return;
+        }
+
+        String name = fields[i++];
+        if (name.equals("include")) {
+            if (i < fields.length) {
+                include(fields[i]);
+            }
+            return;
+        }
+        if (name.equals("uplow")) {
+            parseUpLow(fields, i, noBack, noFor);
+            return;
+        }
+
+        // Unsupported opcodes and rules conditioned by before/after classes are
+        // skipped.
+        Opcode opcode = OPCODES.get(name);
+        if (opcode == null) {
+            return;
+        }
+
+        switch (opcode) {
+        case CAPSLETTER:
+        case BEGCAPSWORD:
+        case ENDCAPSWORD:
+        case NUMSIGN:
+        case LETSIGN:
+            if (i < fields.length) {
+                addRule(opcode, "", fields[i], noBack, noFor);
+            }
+            break;
+        case CONTRACTION:
+            String letters = i < fields.length ? unescape(fields[i]) : null;
+            if (letters != null && letters.length() > 0) {
+                addRule(opcode, letters, "=", noBack, noFor);
+            }
+            break;
+        default:
+            if (i + 1 < fields.length) {
+                String text = unescape(fields[i]);
+                if (text != null && text.length() > 0) {
+                    addRule(opcode, text, fields[i + 1], noBack, noFor);
+                }
+            }
+        }
+    }
+
+    // uplow defines the upper and lower case forms of a letter together, eg.
+    // uplow Aa 1 or uplow Aa 17,1.
+    private void parseUpLow(String[] fields, int i, boolean noBack,
+            boolean noFor) {
+        if (i + 1 >= fields.length) {
+            return;
+        }
+        String letters = unescape(fields[i]);
+        if (letters == null || letters.length() != 2) {
+            return;
+        }
+        String[] dots = fields[i + 1].split(",");
+        String upper = dots[0];
+        String lower = dots.length > 1 ? dots[1] : dots[0];
+        addRule(Opcode.LOWERCASE, letters.substring(1), lower, noBack, noFor);
+        addRule(Opcode.UPPERCASE, letters.substring(0, 1), upper, noBack, noFor);
+    }
+
+    private void addRule(Opcode opcode, String text, String dotsField,
+            boolean noBack, boolean noFor) {
+        byte[] dots = null;
+        if (!dotsField.equals("=")) {
+            dots = parseDots(dotsField);
+            if (dots == null) {
+                return; // uses dots which don't fit in a cell.
+            }
+        }
+
+        if (opcode.characterDefinition && text.length() == 1 && dots != null) {
+            char c = text.charAt(0);
+            if (!characterDots.containsKey(c)) {
+                characterDots.put(c, dots);
+            }
+        }
+        pending.add(new PendingRule(opcode, text, dots, noBack, noFor,
+                pending.size()));
+    }
+
+    private LibLouisTable build(String name) {
+        // Resolve rules whose dots are given by the character definitions.
+        List<PendingRule> rules = new ArrayList<PendingRule>();
+        Set<String> seen = new HashSet<String>();
+        for (PendingRule rule : pending) {
+            if (rule.dots == null) {
+                rule.dots = dotsForText(rule.text);
+                if (rule.dots == null) {
+                    continue;
+                }
+            }
+            if (rule.dots.length == 0
+                    || rule.dots.length > LibLouisTable.MAX_RULE_LENGTH
+                    || rule.text.length() > LibLouisTable.MAX_RULE_LENGTH) {
+                continue;
+            }
+            // liblouis keeps the first of identical rules.
+            if (seen.add(rule.opcode.ordinal() + "\u0000" + rule.text
+                    + "\u0000" + Arrays.toString(rule.dots))) {
+                rules.add(rule);
+            }
+        }
+
+        int[] ruleArray = new int[rules.size() * LibLouisTable.RULE_SIZE];
+        StringBuilder textPool = new StringBuilder();
+        ByteList dotsPool = new ByteList();
+        byte[] cellFlags = new byte[256];
+        char[] litDigits = new char[256];
+        int[] indicators = new int[Opcode.values().length];
+        Arrays.fill(indicators, -1);
+        TrieBuilder back = new TrieBuilder(BACK_RULE_ORDER);
+        TrieBuilder forward = new TrieBuilder(RULE_ORDER);
+        // The character definition back translation prefers for each cell.
+        PendingRule[] cellDefinitions = new PendingRule[256];
+        int maxBackRuleCells = 1;
+        byte[] capitalSign = null;
+        boolean[] letterCells = new boolean[256];
+        boolean[] hyphenCells = new boolean[256];
+        for (PendingRule rule : rules) {
+            if (rule.opcode == Opcode.HYPHEN && rule.dots.length == 1) {
+                hyphenCells[rule.dots[0] & 0xff] = true;
+            }
+            if (rule.opcode == Opcode.CAPSLETTER && capitalSign == null) {
+                capitalSign = rule.dots;
+            }
+            if (isLetter(rule.opcode) && rule.dots.length == 1
+                    && !rule.noBack) {
+                letterCells[rule.dots[0] & 0xff] = true;
+            }
+        }
+
+        for (int r = 0; r < rules.size(); r++) {
+            PendingRule rule = rules.get(r);
+            int offset = r * LibLouisTable.RULE_SIZE;
+            ruleArray[offset + LibLouisTable.RULE_HEADER] = rule.opcode
+                    .ordinal() << LibLouisTable.RULE_OPCODE_SHIFT
+                    | rule.text.length() << LibLouisTable.RULE_TEXT_SHIFT
+                    | rule.dots.length;
+            ruleArray[offset + LibLouisTable.RULE_TEXT_START] = textPool
+                    .length();
+            ruleArray[offset + LibLouisTable.RULE_DOTS_START] = dotsPool.size;
+            textPool.append(rule.text);
+            dotsPool.add(rule.dots);
+
+            if (indicators[rule.opcode.ordinal()] == -1) {
+                indicators[rule.opcode.ordinal()] = r;
+            }
+
+            if (rule.dots.length == 1 && rule.opcode.characterDefinition) {
+                int cell = rule.dots[0] & 0xff;
+                if (rule.opcode == Opcode.LITDIGIT) {
+                    if (litDigits[cell] == 0) {
+                        litDigits[cell] = rule.text.charAt(0);
+                        cellFlags[cell] |= LibLouisTable.CELL_LITDIGIT;
+                    }
+                } else if (!rule.noBack
+                        && rule.opcode != Opcode.DECPOINT
+                        && (cellDefinitions[cell] == null || RULE_ORDER
+                                .compare(rule, cellDefinitions[cell]) < 0)) {
+                    cellDefinitions[cell] = rule;
+                }
+            }
+
+            // A cell which can close a word is punctuation even if it is
+            // defined as a letter, see LibLouisTranslator.isWordEnd.
+            if (rule.dots.length == 1 && rule.opcode == Opcode.POSTPUNC
+                    && !rule.noBack) {
+                int cell = rule.dots[0] & 0xff;
+                cellFlags[cell] |= LibLouisTable.CELL_PUNCTUATION;
+            }
+
+            // Numeric characters are resolved in number mode instead of by
+            // the trie. Repeated rules only squeeze runs of characters when
+            // translating forwards.
+            if (!rule.noBack && rule.opcode != Opcode.LITDIGIT
+                    && rule.opcode != Opcode.DECPOINT
+                    && rule.opcode != Opcode.REPEATED
+                    && !hidesCapital(rule, capitalSign, letterCells)) {
+                back.add(rule.dots, r, rule);
+                maxBackRuleCells = Math.max(maxBackRuleCells, rule.dots.length);
+            }
+            if (!rule.noFor && rule.text.length() > 0) {
+                forward.add(forwardKeys(rule), r, rule);
+            }
+        }
+
+        // Tables without litdigit rules write numbers after the number sign
+        // with their digit definitions.
+        if (indicators[Opcode.LITDIGIT.ordinal()] == -1
+                && indicators[Opcode.NUMSIGN.ordinal()] != -1) {
+            for (PendingRule rule : rules) {
+                int cell = rule.dots[0] & 0xff;
+                if (rule.opcode == Opcode.DIGIT && rule.dots.length == 1
+                        && litDigits[cell] == 0) {
+                    litDigits[cell] = rule.text.charAt(0);
+                    cellFlags[cell] |= LibLouisTable.CELL_LITDIGIT;
+                }
+            }
+        }
+
+        // A cell separates words if it is blank or reads as a space or
+        // punctuation on its own. Hyphens always end a word.
+        cellFlags[0] |= LibLouisTable.CELL_BOUNDARY;
+        for (int cell = 1; cell < 256; cell++) {
+            if (cellDefinitions[cell] != null
+                    && isBoundary(cellDefinitions[cell].opcode)) {
+                cellFlags[cell] |= LibLouisTable.CELL_BOUNDARY;
+            }
+            if (cellDefinitions[cell] != null
+                    && cellDefinitions[cell].opcode == Opcode.PUNCTUATION) {
+                cellFlags[cell] |= LibLouisTable.CELL_PUNCTUATION;
+            }
+            if (hyphenCells[cell]) {
+                cellFlags[cell] &= ~LibLouisTable.CELL_PUNCTUATION;
+            }
+        }
+
+        IntList backNodes = new IntList();
+        IntList backKeys = new IntList();
+        IntList backRules = new IntList();
+        back.flatten(backNodes, backKeys, backRules);
+        IntList forwardNodes = new IntList();
+        IntList forwardKeys = new IntList();
+        IntList forwardRules = new IntList();
+        forward.flatten(forwardNodes, forwardKeys, forwardRules);
+        byte[] backKeyArray = new byte[backKeys.size];
+        for (int i = 0; i < backKeyArray.length; i++) {
+            backKeyArray[i] = (byte) backKeys.values[i];
+        }
+        char[] forwardKeyArray = new char[forwardKeys.size];
+        for (int i = 0; i < forwardKeyArray.length; i++) {
+            forwardKeyArray[i] = (char) forwardKeys.values[i];
+        }
+
+        char[] text = new char[textPool.length()];
+        textPool.getChars(0, text.length, text, 0);
+        return new LibLouisTable(name, IntBuffer.wrap(ruleArray),
+                CharBuffer.wrap(text), ByteBuffer.wrap(dotsPool.toArray()),
+                IntBuffer.wrap(backNodes.toArray()),
+                ByteBuffer.wrap(backKeyArray),
+                IntBuffer.wrap(backRules.toArray()),
+                IntBuffer.wrap(forwardNodes.toArray()),
+                CharBuffer.wrap(forwardKeyArray),
+                IntBuffer.wrap(forwardRules.toArray()),
+                ByteBuffer.wrap(cellFlags), CharBuffer.wrap(litDigits),
+                IntBuffer.wrap(indicators), maxBackRuleCells);
+    }
+
+    private static boolean isLetter(Opcode opcode) {
+        return opcode == Opcode.LOWERCASE || opcode == Opcode.LETTER
+                || opcode == Opcode.UPPERCASE;
+    }
+
+    // The capital sign followed by a letter is read as a capital, so a
+    // symbol written the same way can't be back translated, eg. the
+    // registered sign is 45-1235 in chardefs.cti but 45 is the capital sign
+    // of ru-ru-g1.
+    private static boolean hidesCapital(PendingRule rule, byte[] capitalSign,
+            boolean[] letterCells) {
+        if (capitalSign == null || !rule.opcode.characterDefinition
+                || isLetter(rule.opcode)
+                || rule.dots.length <= capitalSign.length) {
+            return false;
+        }
+        for (int i = 0; i < capitalSign.length; i++) {
+            if (rule.dots[i] != capitalSign[i]) {
+                return false;
+            }
+        }
+        return letterCells[rule.dots[capitalSign.length] & 0xff];
+    }
+
+    static boolean isBoundary(Opcode opcode) {
+        return opcode == Opcode.SPACE || opcode == Opcode.PUNCTUATION
+                || opcode == Opcode.HYPHEN;
+    }
+
+    // Rules are matched against lower case text. Upper case character
+    // definitions keep their case so they can be looked up exactly.
+    private static int[] forwardKeys(PendingRule rule) {
+        int[] keys = new int[rule.text.length()];
+        for (int i = 0; i < keys.length; i++) {
+            char c = rule.text.charAt(i);
+            keys[i] = rule.opcode.characterDefinition ? c : Character
+                    .toLowerCase(c);
+        }
+        return keys;
+    }
+
+    // Translate text to dots using only the character definitions.
+    private byte[] dotsForText(String text) {
+        ByteList list = new ByteList();
+        for (int i = 0; i < text.length(); i++) {
+            byte[] dots = characterDots.get(text.charAt(i));
+            if (dots == null) {
+                dots = characterDots.get(Character.toLowerCase(text.charAt(i)));
+            }
+            if (dots == null) {
+                return null;
+            }
+            list.add(dots);
+        }
+        return list.toArray();
+    }
+
+    /**
+     * Parse a liblouis dot pattern such as 1-345 into cells. 0 is a blank
+     * cell. Returns null if the pattern uses dots 9 to 16 which can't be
+     * represented in a byte.
+     */
+    static byte[] parseDots(String field) {
+        String[] cells = field.split("-");
+        byte[] dots = new byte[cells.length];
+        for (int i = 0; i < cells.length; i++) {
+            String cell = cells[i];
+            if (cell.length() == 0) {
+                return null;
+            }
+            int value = 0;
+            for (int j = 0; j < cell.length(); j++) {
+                char c = cell.charAt(j);
+                if (c >= '1' && c <= '8') {
+                    value |= 1 << (c - '1');
+                } else if (c != '0') {
+                    return null;
+                }
+            }
+            dots[i] = (byte) value;
+        }
+        return dots;
+    }
+
+    /**
+     * Decode liblouis escape sequences such as \s, \x00a0 or \\ in a text
+     * operand. Returns null if the operand is malformed.
+     */
+    static String unescape(String field) {
+        StringBuilder sb = new StringBuilder(field.length());
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c != '\\' || i + 1 >= field.length()) {
+                sb.append(c);
+                continue;
+            }
+            char escape = field.charAt(++i);
+            int digits = 0;
+            switch (escape) {
+            case 's':
+                sb.append(' ');
+                break;
+            case 't':
+                sb.append('\t');
+                break;
+            case 'n':
+                sb.append('\n');
+                break;
+            case 'r':
+                sb.append('\r');
+                break;
+            case 'f':
+                sb.append('\f');
+                break;
+            case 'v':
+                sb.append('\u000b');
+                break;
+            case 'e':
+                sb.append('\u001b');
+                break;
+            case 'x':
+            case 'X':
+                digits = 4;
+                break;
+            case 'y':
+            case 'Y':
+                digits = 5;
+                break;
+            case 'z':
+            case 'Z':
+                digits = 8;
+                break;
+            default:
+                sb.append(escape);
+            }
+            if (digits > 0) {
+                if (i + digits >= field.length()) {
+                    return null;
+                }
+                try {
+                    int codePoint = Integer.parseInt(
+                            field.substring(i + 1, i + 1 + digits), 16);
+                    sb.appendCodePoint(codePoint);
+                } catch (RuntimeException e) {
+                    return null;
+                }
+                i += digits;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static class PendingRule {
+        final Opcode opcode;
+        final String text;
+        final boolean noBack;
+        final boolean noFor;
+        final int sequence;
+        byte[] dots;
+
+        PendingRule(Opcode opcode, String text, byte[] dots, boolean noBack,
+                boolean noFor, int sequence) {
+            this.opcode = opcode;
+            this.text = text;
+            this.dots = dots;
+            this.noBack = noBack;
+            this.noFor = noFor;
+            this.sequence = sequence;
+        }
+    }
+
+    // Orders rules sharing a trie node: lower opcode rank first, then the
+    // order they were defined in.
+    private static final Comparator<PendingRule> RULE_ORDER = new Comparator<PendingRule>() {
+        @Override
+        public int compare(PendingRule o1, PendingRule o2) {
+            if (o1.opcode.rank != o2.opcode.rank) {
+                return o1.opcode.rank - o2.opcode.rank;
+            }
+            return o1.sequence - o2.sequence;
+        }
+    };
+
+    // Back translation reads a cell as a letter in preference to a rule which
+    // only substitutes a single symbol for it, eg. "always > 135" in en-gb-g1.
+    private static final Comparator<PendingRule> BACK_RULE_ORDER = new Comparator<PendingRule>() {
+        @Override
+        public int compare(PendingRule o1, PendingRule o2) {
+            int rank1 = backRank(o1);
+            int rank2 = backRank(o2);
+            if (rank1 != rank2) {
+                return rank1 - rank2;
+            }
+            // Capitals are shown by the capital sign, so of symbols which
+            // only differ by case the lower case one is read, eg. the
+            // largesign for u grave 4-136 in en-gb-g1. Words such as I keep
+            // their case.
+            boolean upper1 = !o1.text.equals(o1.text.toLowerCase(Locale.US));
+            boolean upper2 = !o2.text.equals(o2.text.toLowerCase(Locale.US));
+            if (rank1 >= Opcode.ALWAYS.rank && upper1 != upper2) {
+                return upper1 ? 1 : -1;
+            }
+            return o1.sequence - o2.sequence;
+        }
+    };
+
+    private static int backRank(PendingRule rule) {
+        if (rule.opcode.rank >= Opcode.ALWAYS.rank
+                && !rule.opcode.characterDefinition
+                && rule.text.length() == 1
+                && !Character.isLetter(rule.text.charAt(0))) {
+            return Opcode.SIGN.rank;
+        }
+        return rule.opcode.rank;
+    }
+
+    // Builds a trie out of nodes and then flattens it into the arrays used by
+    // LibLouisTable.
+    private static class TrieBuilder {
+        private final Node root = new Node();
+        private final Comparator<PendingRule> ruleOrder;
+
+        TrieBuilder(Comparator<PendingRule> order) {
+            this.ruleOrder = order;
+        }
+
+        void add(byte[] dots, int ruleIndex, PendingRule rule) {
+            int[] keys = new int[dots.length];
+            for (int i = 0; i < dots.length; i++) {
+                keys[i] = dots[i] & 0xff;
+            }
+            add(keys, ruleIndex, rule);
+        }
+
+        void add(int[] keys, int ruleIndex, PendingRule rule) {
+            Node node = root;
+            for (int key : keys) {
+                Node child = node.children.get(key);
+                if (child == null) {
+                    child = new Node();
+                    node.children.put(key, child);
+                }
+                node = child;
+            }
+            node.rules.add(rule);
+            node.ruleIndexes.add(ruleIndex);
+        }
+
+        // Nodes are numbered breadth first so the root is node 0 and the
+        // edge at index i of keys leads to node i + 1. An extra node at the end
+        // marks where the edges and rules of the last node end.
+        void flatten(IntList nodes, IntList keys, IntList ruleRefs) {
+            List<Node> order = new ArrayList<Node>();
+            order.add(root);
+            for (int i = 0; i < order.size(); i++) {
+                order.addAll(order.get(i).children.values());
+            }
+
+            for (Node node : order) {
+                nodes.add(keys.size);
+                nodes.add(ruleRefs.size);
+                // TreeMap keeps the edges sorted for binary search.
+                for (Integer key : node.children.keySet()) {
+                    keys.add(key);
+                }
+                Integer[] sorted = new Integer[node.rules.size()];
+                for (int i = 0; i < sorted.length; i++) {
+                    sorted[i] = i;
+                }
+                final List<PendingRule> rules = node.rules;
+                Arrays.sort(sorted, new Comparator<Integer>() {
+                    @Override
+                    public int compare(Integer o1, Integer o2) {
+                        return ruleOrder.compare(rules.get(o1), rules.get(o2));
+                    }
+                });
+                for (Integer i : sorted) {
+                    ruleRefs.add(node.ruleIndexes.get(i));
+                }
+            }
+            nodes.add(keys.size);
+            nodes.add(ruleRefs.size);
+        }
+
+        private static class Node {
+            final TreeMap<Integer, Node> children = new TreeMap<Integer, Node>();
+            final List<PendingRule> rules = new ArrayList<PendingRule>(1);
+            final List<Integer> ruleIndexes = new ArrayList<Integer>(1);
+        }
+    }
+
+    private static class IntList {
+        int[] values = new int[64];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    private static class ByteList {
+        byte[] values = new byte[64];
+        int size;
+
+        void add(byte[] bytes) {
+            while (size + bytes.length > values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            System.arraycopy(bytes, 0, values, size, bytes.length);
+            size += bytes.length;
+        }
+
+        byte[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2016 The Soft Braille Keyboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.eyesfree.braille.service.translate;
+
+import java.util.Arrays;
+
+import com.googlecode.eyesfree.braille.translate.BackTranslationResult;
+import com.googlecode.eyesfree.braille.translate.BackTranslationSession;
+
+/**
+ * A BackTranslationSession for LibLouisTranslator.
+ *
+ * The translator reads the cells in steps, each step applying one rule. A
+ * step starting at a cell can only look as far ahead as the longest rule in
+ * the table and as many cells again to find the end of the word, so when the
+ * end of the cells changes only the steps starting within that distance of
+ * the end can change. The
+ * session records the text length and translator state before each step so it
+ * can undo those steps and translate them again.
+ *
+ * The translation is brought up to date when the text is asked for, so cells
+ * which are added or removed in between are translated together.
+ *
+ * If the translator has a character for each cell the text is instead kept
+ * up to date as cells are added and removed, with no steps recorded.
+ */
+class LibLouisSession implements BackTranslationSession {
+    private final LibLouisTranslator translator;
+    // How far before a change steps have to be redone.
+    private final int lookBehind;
+    private final LibLouisTranslator.BackState state;
+    private final StringBuilder text = new StringBuilder();
+    // See LibLouisTranslator getCellCharacters, null if steps are recorded.
+    private final char[] cellCharacters;
+
+    private byte[] cells = new byte[32];
+    private int cellCount;
+    // The number of cells covered by the recorded steps.
+    private int translated;
+    // The first cell changed since the text was last brought up to date or -1
+    // if it is up to date.
+    private int changed = -1;
+
+    // The cell each step started at with the text length and state before it
+    // and whether the cell was unknown.
+    private int[] stepCells = new int[32];
+    private int[] stepText = new int[32];
+    private int[] stepState = new int[32];
+    private boolean[] stepUnknown = new boolean[32];
+    private int stepCount;
+
+    LibLouisSession(LibLouisTranslator translator) {
+        this.translator = translator;
+        lookBehind = 2 * translator.getTable().getMaxBackRuleCells();
+        state = new LibLouisTranslator.BackState(translator.getTable());
+        cellCharacters = translator.getCellCharacters();
+    }
+
+    @Override
+    public void appendCell(byte cell) {
+        if (cellCount == cells.length) {
+            cells = Arrays.copyOf(cells, cellCount * 2);
+        }
+        cells[cellCount++] = cell;
+        if (cellCharacters != null) {
+            char c = cellCharacters[cell & 0xff];
+            if (c != 0) {
+                text.append(c);
+            }
+        } else {
+            markChanged(cellCount - 1);
+        }
+    }
+
+    @Override
+    public void removeLastCell() {
+        if (cellCount > 0) {
+            --cellCount;
+            if (cellCharacters != null) {
+                if (cellCharacters[cells[cellCount] & 0xff] != 0) {
+                    text.setLength(text.length() - 1);
+                }
+            } else {
+                markChanged(cellCount);
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        cellCount = 0;
+        translated = 0;
+        changed = -1;
+        stepCount = 0;
+        text.setLength(0);
+        state.restore(0);
+    }
+
+    @Override
+    public int getCellCount() {
+        return cellCount;
+    }
+
+    @Override
+    public byte getCell(int index) {
+        if (index < 0 || index >= cellCount) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+        return cells[index];
+    }
+
+    @Override
+    public CharSequence getText() {
+        if (changed >= 0) {
+            retranslate(changed);
+            changed = -1;
+        }
+        return text;
+    }
+
+    @Override
+    public BackTranslationResult getResult() {
+        String result = getText().toString();
+        int[] positions = new int[cellCount];
+        int[] unknown = new int[cellCount];
+        int unknownCount = 0;
+        if (cellCharacters != null) {
+            int position = 0;
+            for (int i = 0; i < cellCount; i++) {
+                positions[i] = position;
+                if (cellCharacters[cells[i] & 0xff] != 0) {
+                    ++position;
+                } else {
+                    unknown[unknownCount++] = i;
+                }
+            }
+        }
+        for (int i = 0; i < stepCount; i++) {
+            int end = i + 1 < stepCount ? stepCells[i + 1] : cellCount;
+            Arrays.fill(positions, stepCells[i], end, stepText[i]);
+            if (stepUnknown[i]) {
+                unknown[unknownCount++] = stepCells[i];
+            }
+        }
+        return new BackTranslationResult(result, positions, Arrays.copyOf(
+                unknown, unknownCount));
+    }
+
+    private void markChanged(int index) {
+        if (changed < 0 || index < changed) {
+            changed = index;
+        }
+    }
+
+    // Undo the steps which could have seen the cells from first on or the end
+    // of the cells and translate from the first of them to the end.
+    private void retranslate(int first) {
+        int from = first - lookBehind;
+        int undone = -1;
+        while (stepCount > 0 && stepCells[stepCount - 1] >= from) {
+            undone = --stepCount;
+        }
+        if (undone >= 0) {
+            translated = stepCells[undone];
+            text.setLength(stepText[undone]);
+            state.restore(stepState[undone]);
+        }
+
+        while (translated < cellCount) {
+            if (stepCount == stepCells.length) {
+                int size = stepCount * 2;
+                stepCells = Arrays.copyOf(stepCells, size);
+                stepText = Arrays.copyOf(stepText, size);
+                stepState = Arrays.copyOf(stepState, size);
+                stepUnknown = Arrays.copyOf(stepUnknown, size);
+            }
+            stepCells[stepCount] = translated;
+            stepText[stepCount] = text.length();
+            stepState[stepCount] = state.save();
+            translated = translator.backTranslateCell(cells, translated,
+                    cellCount, state, text);
+            stepUnknown[stepCount] = state.unknown;
+            ++stepCount;
+        }
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2016 The Soft Braille Keyboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.eyesfree.braille.service.translate;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * A liblouis translation table compiled into flat arrays.
+ *
+ * Rules are stored once and referenced from two tries. The back translation
+ * trie is keyed by Braille cells so that every rule which could start at a
+ * given cell is found by walking the cells that follow it. The forward trie is
+ * keyed by lower case characters and is used to translate text to Braille.
+ *
+ * Within a trie node rules are ordered by the preference they should be given
+ * when more than one of them matches the same input, so a translator can take
+ * the first rule whose context is satisfied.
+ *
+ * The arrays are held in nio buffers so a table can either be built in memory
+ * by LibLouisCompiler or read straight out of a memory mapped file by
+ * LibLouisTableFile without copying. Instances are immutable and only read
+ * with absolute gets so they can be used from any thread. They hold no
+ * Android state so they can also be used from a plain JVM, such as the build.
+ */
+public final class LibLouisTable {
+    // Bits stored per cell in the cell flags array.
+    static final int CELL_BOUNDARY = 1;
+    static final int CELL_LITDIGIT = 2;
+    static final int CELL_PUNCTUATION = 4;
+
+    // Layout of a rule in the rules array. The header packs the opcode with
+    // the length of the text and dots.
+    static final int RULE_HEADER = 0;
+    static final int RULE_TEXT_START = 1;
+    static final int RULE_DOTS_START = 2;
+    static final int RULE_SIZE = 3;
+    static final int RULE_OPCODE_SHIFT = 24;
+    static final int RULE_TEXT_SHIFT = 12;
+    static final int MAX_RULE_LENGTH = 0xfff;
+
+    // Layout of a node in the trie node arrays. Nodes are numbered breadth
+    // first so the edge at index i of the keys leads to node i + 1 and the
+    // edges and rules of a node end where those of the next node start. The
+    // node arrays end with an extra node for this.
+    static final int NODE_EDGE_START = 0;
+    static final int NODE_RULE_START = 1;
+    static final int NODE_SIZE = 2;
+
+    // Stride used by preload, the smallest page size in use.
+    private static final int PAGE_SIZE = 4096;
+    // Keeps the reads made by preload from being optimised away.
+    private static volatile int preloadSink;
+
+    /**
+     * The subset of liblouis opcodes understood by the compiler.
+     *
+     * Each opcode carries the rank used to break ties between rules matching
+     * the same number of cells during back translation, lower ranks win, and
+     * whether the opcode defines a single character rather than a contraction.
+     */
+    public enum Opcode {
+        // Indicators which change how the following cells are read.
+        CAPSLETTER(0, false), BEGCAPSWORD(0, false), ENDCAPSWORD(0, false), NUMSIGN(
+                0, false), LETSIGN(0, false),
+        // Rules restricted to whole words.
+        WORD(1, false), LOWWORD(1, false), CONTRACTION(1, false), JOINWORD(1,
+                false),
+        // Rules anchored to one end of a word.
+        SUFWORD(2, false), PRFWORD(2, false), BEGWORD(2, false), ENDWORD(2,
+                false), PREFIX(2, false), SUFFIX(2, false), BEGNUM(2, false), ENDNUM(
+                2, false), PREPUNC(2, false), POSTPUNC(2, false),
+        // Rules which apply inside words.
+        MIDWORD(3, false), MIDENDWORD(3, false), BEGMIDWORD(3, false), PARTWORD(
+                3, false), MIDNUM(3, false),
+        // Rules which apply anywhere.
+        ALWAYS(4, false), LARGESIGN(4, false), REPEATED(4, false), NOCROSS(4,
+                false),
+        // Character definitions.
+        LOWERCASE(5, true), LETTER(5, true), PUNCTUATION(6, true), SPACE(6,
+                true), SIGN(7, true), MATH(7, true), HYPHEN(7, true), DIGIT(8,
+                true), UPPERCASE(9, true), LITDIGIT(10, true), DECPOINT(10, true);
+
+        public final int rank;
+        public final boolean characterDefinition;
+
+        Opcode(int rank, boolean characterDefinition) {
+            this.rank = rank;
+            this.characterDefinition = characterDefinition;
+        }
+
+        private static final Opcode[] VALUES = values();
+
+        static Opcode valueOf(int ordinal) {
+            return VALUES[ordinal];
+        }
+    }
+
+    // Package private so LibLouisTableFile can write them out.
+    final String name;
+    final IntBuffer rules;
+    final CharBuffer text;
+    final ByteBuffer dots;
+    final IntBuffer backNodes;
+    final ByteBuffer backKeys;
+    final IntBuffer backRules;
+    final IntBuffer forwardNodes;
+    final CharBuffer forwardKeys;
+    final IntBuffer forwardRules;
+    final ByteBuffer cellFlags;
+    final CharBuffer litDigits;
+    final IntBuffer indicators;
+    final int maxBackRuleCells;
+
+    LibLouisTable(String name, IntBuffer rules, CharBuffer text,
+            ByteBuffer dots, IntBuffer backNodes, ByteBuffer backKeys,
+            IntBuffer backRules, IntBuffer forwardNodes,
+            CharBuffer forwardKeys, IntBuffer forwardRules,
+            ByteBuffer cellFlags, CharBuffer litDigits, IntBuffer indicators,
+            int maxBackRuleCells) {
+        this.name = name;
+        this.rules = rules;
+        this.text = text;
+        this.dots = dots;
+        this.backNodes = backNodes;
+        this.backKeys = backKeys;
+        this.backRules = backRules;
+        this.forwardNodes = forwardNodes;
+        this.forwardKeys = forwardKeys;
+        this.forwardRules = forwardRules;
+        this.cellFlags = cellFlags;
+        this.litDigits = litDigits;
+        this.indicators = indicators;
+        this.maxBackRuleCells = maxBackRuleCells;
+    }
+
+    /**
+     * @return The file name of the table this instance was compiled from.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The number of rules in the table.
+     */
+    public int getRuleCount() {
+        return rules.capacity() / RULE_SIZE;
+    }
+
+    /**
+     * @return The number of bytes the table's arrays take up.
+     */
+    public int getSize() {
+        return LibLouisTableFile.getSize(this);
+    }
+
+    /**
+     * Read one value from every page of the table. For a table read out of a
+     * memory mapped LibLouisTableFile this pages it in, so it can be done on a
+     * background thread before the table is first translated with.
+     */
+    public void preload() {
+        int sum = preload(rules) + preload(text) + preload(dots)
+                + preload(backNodes) + preload(backKeys) + preload(backRules)
+                + preload(forwardNodes) + preload(forwardKeys)
+                + preload(forwardRules) + preload(cellFlags)
+                + preload(litDigits) + preload(indicators);
+        preloadSink = sum;
+    }
+
+    /**
+     * @return The number of cells covered by the longest back translation
+     *         rule. No back translation decision looks further ahead than this
+     *         plus one cell of context.
+     */
+    public int getMaxBackRuleCells() {
+        return maxBackRuleCells;
+    }
+
+    private static int preload(IntBuffer buffer) {
+        int sum = 0;
+        for (int i = 0; i < buffer.capacity(); i += PAGE_SIZE / 4) {
+            sum += buffer.get(i);
+        }
+        return sum;
+    }
+
+    private static int preload(CharBuffer buffer) {
+        int sum = 0;
+        for (int i = 0; i < buffer.capacity(); i += PAGE_SIZE / 2) {
+            sum += buffer.get(i);
+        }
+        return sum;
+    }
+
+    private static int preload(ByteBuffer buffer) {
+        int sum = 0;
+        for (int i = 0; i < buffer.capacity(); i += PAGE_SIZE) {
+            sum += buffer.get(i);
+        }
+        return sum;
+    }
+
+    Opcode getOpcode(int rule) {
+        return Opcode.valueOf(rules.get(rule * RULE_SIZE + RULE_HEADER)
+                >>> RULE_OPCODE_SHIFT);
+    }
+
+    int getTextLength(int rule) {
+        return rules.get(rule * RULE_SIZE + RULE_HEADER) >> RULE_TEXT_SHIFT
+                & MAX_RULE_LENGTH;
+    }
+
+    char getTextChar(int rule, int index) {
+        return text.get(rules.get(rule * RULE_SIZE + RULE_TEXT_START) + index);
+    }
+
+    void appendText(int rule, StringBuilder sb) {
+        int start = rules.get(rule * RULE_SIZE + RULE_TEXT_START);
+        int length = getTextLength(rule);
+        for (int i = 0; i < length; i++) {
+            sb.append(text.get(start + i));
+        }
+    }
+
+    int getDotsLength(int rule) {
+        return rules.get(rule * RULE_SIZE + RULE_HEADER) & MAX_RULE_LENGTH;
+    }
+
+    byte getDots(int rule, int index) {
+        return dots.get(rules.get(rule * RULE_SIZE + RULE_DOTS_START) + index);
+    }
+
+    boolean isBoundary(byte cell) {
+        return (cellFlags.get(cell & 0xff) & CELL_BOUNDARY) != 0;
+    }
+
+    boolean isLitDigit(byte cell) {
+        return (cellFlags.get(cell & 0xff) & CELL_LITDIGIT) != 0;
+    }
+
+    boolean isPunctuation(byte cell) {
+        return (cellFlags.get(cell & 0xff) & CELL_PUNCTUATION) != 0;
+    }
+
+    char getLitDigit(byte cell) {
+        return litDigits.get(cell & 0xff);
+    }
+
+    // Returns the first rule defining the given indicator or -1 if the table
+    // doesn't define one.
+    int getIndicator(Opcode opcode) {
+        return indicators.get(opcode.ordinal());
+    }
+
+    int getBackRoot() {
+        return 0;
+    }
+
+    int getForwardRoot() {
+        return 0;
+    }
+
+    int getBackChild(int node, byte cell) {
+        int key = cell & 0xff;
+        int low = backNodes.get(node * NODE_SIZE + NODE_EDGE_START);
+        int high = backNodes.get((node + 1) * NODE_SIZE + NODE_EDGE_START)
+                - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midKey = backKeys.get(mid) & 0xff;
+            if (midKey < key) {
+                low = mid + 1;
+            } else if (midKey > key) {
+                high = mid - 1;
+            } else {
+                return mid + 1;
+            }
+        }
+        return -1;
+    }
+
+    int getForwardChild(int node, char key) {
+        int low = forwardNodes.get(node * NODE_SIZE + NODE_EDGE_START);
+        int high = forwardNodes.get((node + 1) * NODE_SIZE
+                + NODE_EDGE_START) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char midKey = forwardKeys.get(mid);
+            if (midKey < key) {
+                low = mid + 1;
+            } else if (midKey > key) {
+                high = mid - 1;
+            } else {
+                return mid + 1;
+            }
+        }
+        return -1;
+    }
+
+    int getBackRuleCount(int node) {
+        return backNodes.get((node + 1) * NODE_SIZE + NODE_RULE_START)
+                - backNodes.get(node * NODE_SIZE + NODE_RULE_START);
+    }
+
+    int getBackRule(int node, int index) {
+        return backRules.get(backNodes.get(node * NODE_SIZE + NODE_RULE_START)
+                + index);
+    }
+
+    int getForwardRuleCount(int node) {
+        return forwardNodes.get((node + 1) * NODE_SIZE + NODE_RULE_START)
+                - forwardNodes.get(node * NODE_SIZE + NODE_RULE_START);
+    }
+
+    int getForwardRule(int node, int index) {
+        return forwardRules.get(forwardNodes.get(node * NODE_SIZE
+                + NODE_RULE_START)
+                + index);
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2016 The Soft Braille Keyboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.eyesfree.braille.service.translate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads and writes a file of compiled LibLouisTables.
+ *
+ * The build compiles every table in tablelist.xml with LibLouisCompiler and
+ * writes them to one file. At runtime the file is memory mapped and a table is
+ * read by slicing buffers out of the mapping, so loading a table only touches
+ * the pages it is translated with instead of parsing the liblouis sources.
+ *
+ * The file is little endian and laid out as:
+ *
+ * <pre>
+ * int magic, int version, int table count
+ * for each table: int name length, name in UTF-8 padded to 4 bytes,
+ *                 int offset, int length
+ * the tables, each starting on a 4 byte boundary:
+ *     int maxBackRuleCells
+ *     for each array in LibLouisTable: int element count, the elements
+ *                                      padded to 4 bytes
+ * </pre>
+ */
+public final class LibLouisTableFile {
+    private static final int MAGIC = 0x314c4c53; // "SLL1"
+    private static final int VERSION = 1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer buffer;
+    // The offset of each table keyed by the file name it was compiled from.
+    private final Map<String, Integer> offsets;
+
+    private LibLouisTableFile(ByteBuffer buffer, Map<String, Integer> offsets) {
+        this.buffer = buffer;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Read the index of a table file. The tables themselves are only read by
+     * getTable.
+     *
+     * @param buffer
+     *            The contents of the file, usually a MappedByteBuffer.
+     * @throws IOException
+     *             If the buffer doesn't hold a table file of this version.
+     */
+    public static LibLouisTableFile read(ByteBuffer buffer) throws IOException {
+        ByteBuffer in = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+                throw new IOException("Not a compiled table file");
+            }
+            int count = in.getInt();
+            Map<String, Integer> offsets = new HashMap<String, Integer>();
+            for (int i = 0; i < count; i++) {
+                byte[] name = new byte[in.getInt()];
+                in.get(name);
+                in.position(align(in.position()));
+                offsets.put(new String(name, UTF_8), in.getInt());
+                in.getInt(); // length, only needed by tools.
+            }
+            return new LibLouisTableFile(buffer, offsets);
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt table file", e);
+        }
+    }
+
+    /**
+     * @return The file names of the tables in this file.
+     */
+    public Set<String> getNames() {
+        return Collections.unmodifiableSet(offsets.keySet());
+    }
+
+    /**
+     * Get a table without copying it out of the file.
+     *
+     * @param name
+     *            The file name the table was compiled from, eg. en-us-g2.ctb.
+     * @return The table or null if the file doesn't hold it.
+     */
+    public LibLouisTable getTable(String name) {
+        Integer offset = offsets.get(name);
+        if (offset == null) {
+            return null;
+        }
+        ByteBuffer in = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        in.position(offset);
+        int maxBackRuleCells = in.getInt();
+        return new LibLouisTable(name, sliceInts(in), sliceChars(in),
+                sliceBytes(in), sliceInts(in), sliceBytes(in), sliceInts(in),
+                sliceInts(in), sliceChars(in), sliceInts(in), sliceBytes(in),
+                sliceChars(in), sliceInts(in), maxBackRuleCells);
+    }
+
+    /**
+     * Write tables to a file which can be read back with read.
+     *
+     * @param tables
+     *            The tables keyed by the file name they were compiled from.
+     * @param out
+     *            Where to write the file. It isn't closed.
+     */
+    public static void write(Map<String, LibLouisTable> tables,
+            OutputStream out) throws IOException {
+        Map<String, byte[]> names = new HashMap<String, byte[]>();
+        Map<String, ByteBuffer> blocks = new HashMap<String, ByteBuffer>();
+        int headerSize = 12;
+        for (Map.Entry<String, LibLouisTable> entry : tables.entrySet()) {
+            byte[] name = entry.getKey().getBytes(UTF_8);
+            names.put(entry.getKey(), name);
+            blocks.put(entry.getKey(), toBlock(entry.getValue()));
+            headerSize += 4 + align(name.length) + 8;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(headerSize).order(
+                ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(tables.size());
+        int offset = headerSize;
+        for (String key : tables.keySet()) {
+            byte[] name = names.get(key);
+            header.putInt(name.length).put(name);
+            header.position(align(header.position()));
+            header.putInt(offset).putInt(blocks.get(key).capacity());
+            offset += blocks.get(key).capacity();
+        }
+        out.write(header.array());
+        for (String key : tables.keySet()) {
+            out.write(blocks.get(key).array());
+        }
+    }
+
+    /**
+     * @return The number of bytes the table takes up in a table file.
+     */
+    public static int getSize(LibLouisTable table) {
+        int size = 4;
+        for (Buffer section : getSections(table)) {
+            size += 4 + align(section.capacity() * elementSize(section));
+        }
+        return size;
+    }
+
+    // The order getTable reads the arrays back in.
+    private static Buffer[] getSections(LibLouisTable table) {
+        return new Buffer[] { table.rules, table.text, table.dots,
+                table.backNodes, table.backKeys, table.backRules,
+                table.forwardNodes, table.forwardKeys, table.forwardRules,
+                table.cellFlags, table.litDigits, table.indicators };
+    }
+
+    private static ByteBuffer toBlock(LibLouisTable table) {
+        Buffer[] sections = getSections(table);
+        ByteBuffer out = ByteBuffer.allocate(getSize(table)).order(
+                ByteOrder.LITTLE_ENDIAN);
+        out.putInt(table.maxBackRuleCells);
+        for (Buffer section : sections) {
+            out.putInt(section.capacity());
+            for (int i = 0; i < section.capacity(); i++) {
+                if (section instanceof IntBuffer) {
+                    out.putInt(((IntBuffer) section).get(i));
+                } else if (section instanceof CharBuffer) {
+                    out.putChar(((CharBuffer) section).get(i));
+                } else {
+                    out.put(((ByteBuffer) section).get(i));
+                }
+            }
+            out.position(align(out.position()));
+        }
+        return out;
+    }
+
+    private static int elementSize(Buffer section) {
+        if (section instanceof IntBuffer) {
+            return 4;
+        }
+        return section instanceof CharBuffer ? 2 : 1;
+    }
+
+    private static int align(int position) {
+        return (position + 3) & ~3;
+    }
+
+    // Each slice reads its element count, returns a view of the elements and
+    // leaves in at the start of the next section.
+    private static ByteBuffer slice(ByteBuffer in, int bytes) {
+        ByteBuffer section = in.slice().order(ByteOrder.LITTLE_ENDIAN);
+        section.limit(bytes);
+        in.position(align(in.position() + bytes));
+        return section;
+    }
+
+    private static IntBuffer sliceInts(ByteBuffer in) {
+        int count = in.getInt();
+        return slice(in, count * 4).asIntBuffer();
+    }
+
+    private static CharBuffer sliceChars(ByteBuffer in) {
+        int count = in.getInt();
+        return slice(in, count * 2).asCharBuffer();
+    }
+
+    private static ByteBuffer sliceBytes(ByteBuffer in) {
+        int count = in.getInt();
+        return slice(in, count);
+    }
+}
@@ -0,0 +1,669 @@
+/*
+ * Copyright (C) 2016 The Soft Braille Keyboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.eyesfree.braille.service.translate;
+
+import java.util.Arrays;
+
+import com.googlecode.eyesfree.braille.service.translate.LibLouisTable.Opcode;
+import com.googlecode.eyesfree.braille.translate.BackTranslationResult;
+import com.googlecode.eyesfree.braille.translate.BackTranslationSession;
+import com.googlecode.eyesfree.braille.translate.BrailleTranslator;
+
+/**
+ * An in process BrailleTranslator backed by a compiled liblouis table.
+ *
+ * Back translation reads the cells from left to right. At each cell the
+ * table's trie is walked as far as the following cells allow and the longest
+ * rule whose word position is satisfied is applied. Cells that no rule matches
+ * are written as \dots/ by backTranslate the same way liblouis does, eg. \12/,
+ * and are listed separately by backTranslateWithPositions.
+ *
+ * Many eight dot computer Braille tables simply give each cell a character.
+ * For these the translator builds a lookup of the character for each of the
+ * 256 cells and back translates by reading from it, see getCellCharacters.
+ *
+ * Instances hold no per call state so a single translator may be shared.
+ */
+public class LibLouisTranslator implements BrailleTranslator {
+    // Opcodes which change how the cells after them are read.
+    private static final Opcode[] INDICATORS = { Opcode.CAPSLETTER,
+            Opcode.BEGCAPSWORD, Opcode.ENDCAPSWORD, Opcode.NUMSIGN,
+            Opcode.LETSIGN };
+
+    private final LibLouisTable table;
+    private final char[] cellCharacters;
+
+    public LibLouisTranslator(LibLouisTable table) {
+        this.table = table;
+        cellCharacters = compileCellCharacters();
+    }
+
+    /**
+     * @return The table used by this translator.
+     */
+    public LibLouisTable getTable() {
+        return table;
+    }
+
+    @Override
+    public char[] getCellCharacters() {
+        return cellCharacters;
+    }
+
+    @Override
+    public String backTranslate(byte[] cells) {
+        if (cells == null) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder(cells.length * 2);
+        if (cellCharacters != null) {
+            for (byte cell : cells) {
+                char c = cellCharacters[cell & 0xff];
+                if (c != 0) {
+                    sb.append(c);
+                } else {
+                    appendUnknown(cell, sb);
+                }
+            }
+            return sb.toString();
+        }
+        return backTranslateByRules(cells);
+    }
+
+    // Back translate by applying the table's rules, which getCellCharacters
+    // must agree with.
+    String backTranslateByRules(byte[] cells) {
+        StringBuilder sb = new StringBuilder(cells.length * 2);
+        BackState state = new BackState(table);
+        int pos = 0;
+        while (pos < cells.length) {
+            int next = backTranslateCell(cells, pos, cells.length, state, sb);
+            if (state.unknown) {
+                appendUnknown(cells[pos], sb);
+            }
+            pos = next;
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public BackTranslationResult backTranslateWithPositions(byte[] cells) {
+        if (cells == null) {
+            cells = new byte[0];
+        }
+        return backTranslateWithPositions(cells, 0, cells.length);
+    }
+
+    @Override
+    public BackTranslationResult backTranslateWithPositions(byte[] cells,
+            int offset, int length) {
+        StringBuilder sb = new StringBuilder(length * 2);
+        int[] positions = new int[length];
+        int[] unknown = new int[length];
+        int unknownCount = 0;
+        if (cellCharacters != null) {
+            for (int i = 0; i < length; i++) {
+                char c = cellCharacters[cells[offset + i] & 0xff];
+                positions[i] = sb.length();
+                if (c != 0) {
+                    sb.append(c);
+                } else {
+                    unknown[unknownCount++] = i;
+                }
+            }
+            return new BackTranslationResult(sb.toString(), positions,
+                    Arrays.copyOf(unknown, unknownCount));
+        }
+        return backTranslateWithPositionsByRules(cells, offset, length);
+    }
+
+    // See backTranslateByRules.
+    BackTranslationResult backTranslateWithPositionsByRules(byte[] cells,
+            int offset, int length) {
+        StringBuilder sb = new StringBuilder(length * 2);
+        int[] positions = new int[length];
+        int[] unknown = new int[length];
+        int unknownCount = 0;
+        BackState state = new BackState(table);
+        int pos = offset;
+        int end = offset + length;
+        while (pos < end) {
+            int start = sb.length();
+            int next = backTranslateCell(cells, pos, end, state, sb);
+            if (state.unknown) {
+                unknown[unknownCount++] = pos - offset;
+            }
+            Arrays.fill(positions, pos - offset, next - offset, start);
+            pos = next;
+        }
+        return new BackTranslationResult(sb.toString(), positions,
+                Arrays.copyOf(unknown, unknownCount));
+    }
+
+    @Override
+    public byte[] translate(String text) {
+        if (text == null) {
+            return new byte[0];
+        }
+        Output out = new Output(text.length());
+        boolean numberMode = false;
+        boolean capsWord = false;
+        int pos = 0;
+        while (pos < text.length()) {
+            char c = text.charAt(pos);
+            boolean before = pos == 0
+                    || !Character.isLetter(text.charAt(pos - 1));
+
+            if (Character.isDigit(c)) {
+                int digit = findCharacterRule(c, Opcode.LITDIGIT);
+                if (digit < 0) {
+                    digit = findCharacterRule(c, Opcode.DIGIT);
+                }
+                int numSign = table.getIndicator(Opcode.NUMSIGN);
+                if (digit >= 0 && numSign >= 0) {
+                    if (!numberMode) {
+                        out.appendDots(table, numSign);
+                        numberMode = true;
+                    }
+                    out.appendDots(table, digit);
+                    ++pos;
+                    continue;
+                }
+            } else if (numberMode) {
+                // Tables without a decimal point may continue the number
+                // after a separator, eg. midnum . 3 in German.
+                int decimal = findCharacterRule(c, Opcode.DECPOINT);
+                if (decimal < 0) {
+                    decimal = findCharacterRule(c, Opcode.MIDNUM);
+                }
+                if (decimal >= 0 && pos + 1 < text.length()
+                        && Character.isDigit(text.charAt(pos + 1))) {
+                    out.appendDots(table, decimal);
+                    ++pos;
+                    continue;
+                }
+                numberMode = false;
+            }
+
+            if (!Character.isLetter(c)) {
+                capsWord = false;
+            } else if (Character.isUpperCase(c) && !capsWord) {
+                int capsLetter = table.getIndicator(Opcode.CAPSLETTER);
+                int upper = findCharacterRule(c, Opcode.UPPERCASE);
+                if (upper >= 0 && capsLetter < 0) {
+                    // Computer Braille tables have a cell for each capital.
+                    out.appendDots(table, upper);
+                    ++pos;
+                    continue;
+                }
+                int capsWordRule = table.getIndicator(Opcode.BEGCAPSWORD);
+                if (before && capsWordRule >= 0 && isCapitalWord(text, pos)) {
+                    out.appendDots(table, capsWordRule);
+                    capsWord = true;
+                } else if (capsLetter >= 0) {
+                    out.appendDots(table, capsLetter);
+                }
+            }
+
+            int rule = findForwardRule(text, pos, before);
+            if (rule < 0) {
+                // No way to write this character in the table.
+                return null;
+            }
+            out.appendDots(table, rule);
+            pos += table.getTextLength(rule);
+        }
+        return out.toArray();
+    }
+
+    @Override
+    public BackTranslationSession beginSession() {
+        return new LibLouisSession(this);
+    }
+
+    @Override
+    public void destroy() {
+        // Nothing to release, the table is reclaimed with the translator.
+    }
+
+    /**
+     * Back translate the cell at pos and any cells following it that belong to
+     * the same rule. If no rule matches nothing is written and the unknown
+     * flag of the state is set.
+     *
+     * @return The position of the next cell to translate.
+     */
+    int backTranslateCell(byte[] cells, int pos, int end, BackState state,
+            StringBuilder out) {
+        byte cell = cells[pos];
+        state.unknown = false;
+        if (cell == 0) {
+            // Tables also map tabs and new lines to the blank cell.
+            out.append(' ');
+            state.reset();
+            return pos + 1;
+        }
+        if (state.numberMode) {
+            if (table.isLitDigit(cell)) {
+                out.append(table.getLitDigit(cell));
+                state.wordStart = false;
+                return pos + 1;
+            }
+            int decimal = table.getIndicator(Opcode.DECPOINT);
+            if (decimal >= 0 && table.getDots(decimal, 0) == cell
+                    && pos + 1 < end && table.isLitDigit(cells[pos + 1])) {
+                table.appendText(decimal, out);
+                return pos + 1;
+            }
+        }
+
+        int rule = findBackRule(cells, pos, end, state, out);
+        if (rule < 0) {
+            state.unknown = true;
+            state.numberMode = false;
+            state.wordStart = false;
+            return pos + 1;
+        }
+
+        Opcode opcode = table.getOpcode(rule);
+        switch (opcode) {
+        case CAPSLETTER:
+            state.capsNext = true;
+            break;
+        case BEGCAPSWORD:
+            state.capsWord = true;
+            break;
+        case ENDCAPSWORD:
+            state.capsWord = false;
+            break;
+        case NUMSIGN:
+            state.numberMode = true;
+            break;
+        case LETSIGN:
+            state.numberMode = false;
+            break;
+        default:
+            appendRuleText(rule, state, out);
+            if (opcode == Opcode.JOINWORD) {
+                out.append(' ');
+            }
+            if (LibLouisCompiler.isBoundary(opcode)) {
+                state.reset();
+            } else {
+                // Punctuation before a word doesn't start it.
+                state.wordStart = opcode == Opcode.JOINWORD
+                        || opcode == Opcode.PREPUNC;
+                state.numberMode &= opcode == Opcode.MIDNUM;
+            }
+        }
+        return pos + table.getDotsLength(rule);
+    }
+
+    // Build the lookup returned by getCellCharacters. Returns null unless
+    // every rule covers a single cell and is chosen the same way wherever it
+    // appears, so back translating a cell never depends on the cells around
+    // it.
+    private char[] compileCellCharacters() {
+        if (table.getMaxBackRuleCells() != 1) {
+            return null;
+        }
+        // Without these capitals and digits are read a cell at a time.
+        for (Opcode indicator : INDICATORS) {
+            if (table.getIndicator(indicator) >= 0) {
+                return null;
+            }
+        }
+
+        char[] characters = new char[256];
+        characters[0] = ' ';
+        for (int cell = 1; cell < characters.length; cell++) {
+            int node = table.getBackChild(table.getBackRoot(), (byte) cell);
+            int count = node < 0 ? 0 : table.getBackRuleCount(node);
+            for (int i = 0; i < count; i++) {
+                int rule = table.getBackRule(node, i);
+                Opcode opcode = table.getOpcode(rule);
+                if (opcode == Opcode.MIDNUM || opcode == Opcode.ENDNUM) {
+                    // Only used after a number sign, which the table lacks.
+                    continue;
+                }
+                if (!isContextValid(opcode, true, true)
+                        || !isContextValid(opcode, true, false)
+                        || !isContextValid(opcode, false, true)
+                        || !isContextValid(opcode, false, false)
+                        || opcode == Opcode.JOINWORD
+                        || table.getTextLength(rule) != 1
+                        || table.getTextChar(rule, 0) == 0) {
+                    return null;
+                }
+                characters[cell] = table.getTextChar(rule, 0);
+                break;
+            }
+        }
+        return characters;
+    }
+
+    // Find the longest rule matching the cells at pos whose context is
+    // satisfied. Returns -1 if there isn't one.
+    private int findBackRule(byte[] cells, int pos, int end, BackState state,
+            StringBuilder out) {
+        int[] path = state.path;
+        int node = table.getBackRoot();
+        int depth = 0;
+        while (pos + depth < end && depth < path.length - 1) {
+            int child = table.getBackChild(node, cells[pos + depth]);
+            if (child < 0) {
+                break;
+            }
+            node = child;
+            path[++depth] = node;
+        }
+
+        for (int d = depth; d > 0; d--) {
+            int count = table.getBackRuleCount(path[d]);
+            for (int i = 0; i < count; i++) {
+                int rule = table.getBackRule(path[d], i);
+                if (isBackRuleValid(rule, cells, pos + d, end, state, out)) {
+                    return rule;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private boolean isBackRuleValid(int rule, byte[] cells, int next, int end,
+            BackState state, StringBuilder out) {
+        boolean before = state.wordStart;
+        boolean after = isWordEnd(cells, next, end);
+        Opcode opcode = table.getOpcode(rule);
+        if (opcode != Opcode.MIDNUM && opcode != Opcode.BEGNUM
+                && takesNumberSign(rule, cells, next, end)) {
+            return false;
+        }
+        if (!before && !opcode.characterDefinition
+                && !isSameAlphabet(rule, out)) {
+            return false;
+        }
+        switch (opcode) {
+        case CAPSLETTER:
+        case BEGCAPSWORD:
+        case LETSIGN:
+            return !after;
+        case ENDCAPSWORD:
+            return state.capsWord;
+        case NUMSIGN:
+            return next < end && table.isLitDigit(cells[next]);
+        case MIDNUM:
+            return state.numberMode && !after;
+        case ENDNUM:
+            return state.numberMode && after;
+        case PREPUNC:
+            // Opening punctuation needs something after it, so a cell at the
+            // end of a word is read as closing punctuation instead.
+            return before && next < end && !table.isBoundary(cells[next]);
+        default:
+            return isContextValid(opcode, before, after);
+        }
+    }
+
+    // The number sign before digits starts the number, so a rule can't end
+    // with it unless it is written before numbers, eg. $ is 256-3456 in
+    // Russian but 256-3456-1-145 is .14.
+    private boolean takesNumberSign(int rule, byte[] cells, int next, int end) {
+        int numSign = table.getIndicator(Opcode.NUMSIGN);
+        if (numSign < 0 || next >= end || !table.isLitDigit(cells[next])) {
+            return false;
+        }
+        int length = table.getDotsLength(numSign);
+        if (table.getDotsLength(rule) <= length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (cells[next - length + i] != table.getDots(numSign, i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Contractions only continue a word written in their own alphabet, eg.
+    // 46-15 after a Greek letter in UEB is epsilon rather than ance.
+    private boolean isSameAlphabet(int rule, StringBuilder out) {
+        if (out.length() == 0 || table.getTextLength(rule) == 0) {
+            return true;
+        }
+        char previous = out.charAt(out.length() - 1);
+        char first = table.getTextChar(rule, 0);
+        if (!Character.isLetter(previous) || !Character.isLetter(first)) {
+            return true;
+        }
+        return isLatin(previous) == isLatin(first);
+    }
+
+    // Latin letters, including the accented ones.
+    private static boolean isLatin(char c) {
+        return c < '\u0250' || c >= '\u1e00' && c < '\u1f00';
+    }
+
+    // Like liblouis a word ends at a blank cell, a hyphen or the end of the
+    // cells, looking past punctuation. So the ) of (quoted) ends the word but
+    // the . of a.b doesn't. Looks no further than the longest rule so a
+    // session knows which steps a change can affect.
+    private boolean isWordEnd(byte[] cells, int next, int end) {
+        int last = Math.min(end, next + table.getMaxBackRuleCells());
+        for (; next < last; next++) {
+            if (!table.isPunctuation(cells[next])) {
+                return table.isBoundary(cells[next]);
+            }
+        }
+        return true;
+    }
+
+    // Checks the position of a rule in a word. before is true if the rule
+    // starts a word and after is true if it ends one.
+    private static boolean isContextValid(Opcode opcode, boolean before,
+            boolean after) {
+        switch (opcode) {
+        case WORD:
+        case LOWWORD:
+        case CONTRACTION:
+            return before && after;
+        case JOINWORD:
+        case BEGWORD:
+        case PREFIX:
+            return before && !after;
+        case SUFWORD:
+        case BEGNUM:
+        case PREPUNC:
+            return before;
+        case PRFWORD:
+        case POSTPUNC:
+            return after;
+        case ENDWORD:
+        case SUFFIX:
+            return !before && after;
+        case MIDWORD:
+            return !before && !after;
+        case MIDENDWORD:
+            return !before;
+        case BEGMIDWORD:
+            return !after;
+        case PARTWORD:
+            return !before || !after;
+        default:
+            return true;
+        }
+    }
+
+    private void appendRuleText(int rule, BackState state, StringBuilder out) {
+        int length = table.getTextLength(rule);
+        for (int i = 0; i < length; i++) {
+            char c = table.getTextChar(rule, i);
+            if (state.capsWord || state.capsNext) {
+                c = Character.toUpperCase(c);
+                state.capsNext = false;
+            }
+            out.append(c);
+        }
+    }
+
+    // Find the longest forward rule matching the text at pos.
+    private int findForwardRule(String text, int pos, boolean before) {
+        int node = table.getForwardRoot();
+        int best = -1;
+        boolean digitBefore = pos > 0
+                && Character.isDigit(text.charAt(pos - 1));
+        for (int i = pos; i < text.length(); i++) {
+            node = table.getForwardChild(node,
+                    Character.toLowerCase(text.charAt(i)));
+            if (node < 0) {
+                break;
+            }
+            boolean after = i + 1 >= text.length()
+                    || !Character.isLetter(text.charAt(i + 1));
+            // Punctuation next to a digit is part of the number, eg. 3.14.
+            boolean digitAfter = i + 1 < text.length()
+                    && Character.isDigit(text.charAt(i + 1));
+            int count = table.getForwardRuleCount(node);
+            for (int j = 0; j < count; j++) {
+                int rule = table.getForwardRule(node, j);
+                Opcode opcode = table.getOpcode(rule);
+                if (opcode == Opcode.PREPUNC && digitBefore
+                        || opcode == Opcode.POSTPUNC && digitAfter) {
+                    continue;
+                }
+                if (opcode != Opcode.LITDIGIT && opcode != Opcode.DECPOINT
+                        && opcode != Opcode.MIDNUM && opcode != Opcode.ENDNUM
+                        && isContextValid(opcode, before, after)) {
+                    best = rule;
+                    break;
+                }
+            }
+        }
+        return best;
+    }
+
+    // Find the definition of a single character with the given opcode.
+    private int findCharacterRule(char c, Opcode opcode) {
+        int node = table.getForwardChild(table.getForwardRoot(), c);
+        if (node < 0) {
+            return -1;
+        }
+        int count = table.getForwardRuleCount(node);
+        for (int i = 0; i < count; i++) {
+            int rule = table.getForwardRule(node, i);
+            if (table.getOpcode(rule) == opcode) {
+                return rule;
+            }
+        }
+        return -1;
+    }
+
+    // A word is written with the capital word indicator if it has at least two
+    // letters and all of them are upper case.
+    private static boolean isCapitalWord(String text, int pos) {
+        int letters = 0;
+        for (int i = pos; i < text.length() && Character.isLetter(text.charAt(i)); i++) {
+            if (!Character.isUpperCase(text.charAt(i))) {
+                return false;
+            }
+            ++letters;
+        }
+        return letters > 1;
+    }
+
+    // liblouis writes cells it can't back translate as \dots/ eg. \12/.
+    private static void appendUnknown(byte cell, StringBuilder out) {
+        out.append('\\');
+        for (int i = 0; i < 8; i++) {
+            if ((cell & (1 << i)) != 0) {
+                out.append((char) ('1' + i));
+            }
+        }
+        out.append('/');
+    }
+
+    /**
+     * The state carried from one cell to the next during back translation.
+     */
+    static class BackState {
+        private static final int IN_WORD = 1;
+        private static final int CAPS_NEXT = 2;
+        private static final int CAPS_WORD = 4;
+        private static final int NUMBER_MODE = 8;
+
+        final int[] path;
+        boolean wordStart = true;
+        boolean capsNext;
+        boolean capsWord;
+        boolean numberMode;
+        // Set if the last cell translated didn't match any rule. Not part of
+        // the saved state.
+        boolean unknown;
+
+        BackState(LibLouisTable table) {
+            path = new int[table.getMaxBackRuleCells() + 1];
+        }
+
+        // Called at the end of a word.
+        void reset() {
+            wordStart = true;
+            capsNext = false;
+            capsWord = false;
+            numberMode = false;
+        }
+
+        // Pack the state into an int so it can be restored later.
+        int save() {
+            return (wordStart ? 0 : IN_WORD) | (capsNext ? CAPS_NEXT : 0)
+                    | (capsWord ? CAPS_WORD : 0)
+                    | (numberMode ? NUMBER_MODE : 0);
+        }
+
+        // Restore a state returned by save(). 0 is the state at the start
+        // of the cells.
+        void restore(int saved) {
+            wordStart = (saved & IN_WORD) == 0;
+            capsNext = (saved & CAPS_NEXT) != 0;
+            capsWord = (saved & CAPS_WORD) != 0;
+            numberMode = (saved & NUMBER_MODE) != 0;
+        }
+    }
+
+    private static class Output {
+        private byte[] cells;
+        private int size;
+
+        Output(int capacity) {
+            cells = new byte[Math.max(capacity, 16)];
+        }
+
+        void appendDots(LibLouisTable table, int rule) {
+            int length = table.getDotsLength(rule);
+            if (size + length > cells.length) {
+                cells = Arrays.copyOf(cells, Math.max(cells.length * 2, size
+                        + length));
+            }
+            for (int i = 0; i < length; i++) {
+                cells[size++] = table.getDots(rule, i);
+            }
+        }
+
+        byte[] toArray() {
+            return Arrays.copyOf(cells, size);
+        }
+    }
+}
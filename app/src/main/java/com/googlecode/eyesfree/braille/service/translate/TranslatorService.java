@@ -6,7 +6,7 @@ import android.os.IBinder;
 
 /**
  * Stub service for braille translation.
- * Note: Full braille translation requires native library support.
+ * Note: Translation runs in process, see TranslatorClient and LibLouisTranslator.
  */
 public class TranslatorService extends Service {
     
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2016 The Soft Braille Keyboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.eyesfree.braille.translate;
+
+/**
+ * The result of back translating Braille to text, including the position in
+ * the text of each cell and the cells which couldn't be translated.
+ *
+ * Unlike the String returned by BrailleTranslator backTranslate the text
+ * doesn't contain anything for cells which couldn't be translated.
+ */
+public class BackTranslationResult {
+    private final String text;
+    private final int[] brailleToTextPositions;
+    private final int[] unknownCells;
+
+    public BackTranslationResult(String text, int[] brailleToTextPositions,
+            int[] unknownCells) {
+        this.text = text;
+        this.brailleToTextPositions = brailleToTextPositions;
+        this.unknownCells = unknownCells;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return The position in the text where the translation of each cell
+     *         starts. Cells translated by the same rule share a position.
+     */
+    public int[] getBrailleToTextPositions() {
+        return brailleToTextPositions;
+    }
+
+    /**
+     * @return The indexes of the cells which couldn't be translated in
+     *         ascending order.
+     */
+    public int[] getUnknownCells() {
+        return unknownCells;
+    }
+}
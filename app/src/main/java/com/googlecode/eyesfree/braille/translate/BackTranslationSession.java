@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2016 The Soft Braille Keyboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.eyesfree.braille.translate;
+
+/**
+ * Back translates a sequence of cells which grows and shrinks one cell at a
+ * time, such as the word being typed.
+ *
+ * Only the translation near the end of the cells is redone when a cell is
+ * added or removed so the cost of each change doesn't depend on how many cells
+ * came before it. The text is always the same as BrailleTranslator
+ * backTranslateWithPositions would give for all of the cells, so cells which
+ * couldn't be translated are left out of it. Implementations may put off
+ * translating until getText is called, so a caller which already knows the
+ * text for the cells can skip the work.
+ *
+ * Sessions are not thread safe.
+ */
+public interface BackTranslationSession {
+    /**
+     * Add a cell to the end of the session.
+     */
+    void appendCell(byte cell);
+
+    /**
+     * Remove the last cell. Does nothing if there are no cells.
+     */
+    void removeLastCell();
+
+    /**
+     * Remove all of the cells.
+     */
+    void clear();
+
+    int getCellCount();
+
+    byte getCell(int index);
+
+    /**
+     * @return The back translation of the cells. The returned sequence is
+     *         changed by the next call to the session so copy it if it needs
+     *         to be kept.
+     */
+    CharSequence getText();
+
+    /**
+     * @return The back translation of the cells along with the position of
+     *         each cell in the text and the cells which couldn't be
+     *         translated.
+     */
+    BackTranslationResult getResult();
+}
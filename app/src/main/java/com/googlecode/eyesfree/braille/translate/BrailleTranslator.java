@@ -2,6 +2,23 @@ package com.googlecode.eyesfree.braille.translate;
 
 public interface BrailleTranslator {
     String backTranslate(byte[] cells);
+    BackTranslationResult backTranslateWithPositions(byte[] cells);
+
+    /**
+     * Back translate part of an array without copying it. The positions and
+     * unknown cells of the result count from offset.
+     */
+    BackTranslationResult backTranslateWithPositions(byte[] cells, int offset,
+            int length);
     byte[] translate(String text);
+    BackTranslationSession beginSession();
+
+    /**
+     * @return The character each of the 256 cells back translates to, with 0
+     *         for cells that can't be translated, or null if back translating
+     *         a cell depends on the cells around it. The array must not be
+     *         changed.
+     */
+    char[] getCellCharacters();
     void destroy();
 }
@@ -24,6 +24,13 @@ public class TableInfo implements Parcelable {
         this.eightDot = false;
     }
     
+    public TableInfo(Locale locale, boolean eightDot, int grade, String id) {
+        this.id = id;
+        this.locale = locale;
+        this.grade = grade;
+        this.eightDot = eightDot;
+    }
+    
     public String getId() {
         return id;
     }
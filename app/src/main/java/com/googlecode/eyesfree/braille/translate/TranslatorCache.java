@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2016 The Soft Braille Keyboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.eyesfree.braille.translate;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A least recently used cache of translators keyed by table id, bounded by
+ * the total size of the tables they hold. When a translator is added the
+ * least recently used ones are dropped until the rest fit, so a single
+ * translator larger than the budget isn't kept at all.
+ *
+ * This does the same as android.util.LruCache but is plain Java so switching
+ * tables can be checked in local unit tests. Instances are thread safe.
+ *
+ * @param <T>
+ *            The type of translator.
+ */
+abstract class TranslatorCache<T> {
+    // In access order, least recently used first.
+    private final LinkedHashMap<String, T> translators = new LinkedHashMap<String, T>(
+            16, 0.75f, true);
+    private int maxSize;
+    private int size;
+    private int hits;
+    private int misses;
+
+    /**
+     * @param maxSize
+     *            The total size of the translators the cache may hold.
+     */
+    TranslatorCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive");
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return The size a translator counts towards maxSize.
+     */
+    protected abstract int sizeOf(String id, T translator);
+
+    /**
+     * @return The translator for a table, which becomes the most recently
+     *         used, or null if it isn't cached.
+     */
+    public synchronized T get(String id) {
+        T translator = translators.get(id);
+        if (translator == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return translator;
+    }
+
+    /**
+     * Cache the translator for a table, replacing any previous one, and drop
+     * the least recently used translators which no longer fit.
+     */
+    public synchronized void put(String id, T translator) {
+        T previous = translators.put(id, translator);
+        if (previous != null) {
+            size -= sizeOf(id, previous);
+        }
+        size += sizeOf(id, translator);
+        trimToSize(maxSize);
+    }
+
+    /**
+     * Change the total size of the translators the cache may hold.
+     */
+    public synchronized void resize(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive");
+        }
+        this.maxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    /**
+     * Drop the least recently used translators until the rest fit in a size,
+     * without changing maxSize.
+     */
+    public synchronized void trimToSize(int size) {
+        Iterator<Map.Entry<String, T>> it = translators.entrySet().iterator();
+        while (this.size > size && it.hasNext()) {
+            Map.Entry<String, T> entry = it.next();
+            this.size -= sizeOf(entry.getKey(), entry.getValue());
+            it.remove();
+        }
+    }
+
+    /**
+     * Drop every translator.
+     */
+    public synchronized void evictAll() {
+        translators.clear();
+        size = 0;
+    }
+
+    public synchronized int maxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return The total size of the cached translators.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return The number of times get found a translator.
+     */
+    public synchronized int hitCount() {
+        return hits;
+    }
+
+    /**
+     * @return The number of times get didn't find a translator.
+     */
+    public synchronized int missCount() {
+        return misses;
+    }
+}
@@ -1,79 +1,428 @@
+/*
+ * Copyright (C) 2016 The Soft Braille Keyboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
 package com.googlecode.eyesfree.braille.translate;
 
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.XmlResourceParser;
 import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
 
-import java.util.ArrayList;
-import java.util.List;
+import com.dalton.braillekeyboard.R;
+import com.googlecode.eyesfree.braille.service.translate.LibLouisTable;
+import com.googlecode.eyesfree.braille.service.translate.LibLouisTableFile;
+import com.googlecode.eyesfree.braille.service.translate.LibLouisTranslator;
 
+/**
+ * Provides BrailleTranslator instances for the liblouis tables shipped with
+ * the application.
+ *
+ * Tables are translated in process by LibLouisTranslator. The build compiles
+ * them into the translationtables.bin asset, which is stored uncompressed so
+ * it can be memory mapped straight out of the APK. Getting a translator only
+ * slices the table out of the mapping rather than parsing it. Mapping the file
+ * and reading the table list happen on a background thread and the
+ * OnInitListener is notified on the main thread once they finish.
+ *
+ * Translators are kept in a least recently used cache keyed by table id so
+ * switching back and forth between tables reuses them. The cache is bounded by
+ * the size of the tables it holds and is emptied when the system is short of
+ * memory, see onTrimMemory.
+ *
+ * Tables the user is likely to switch to can be loaded ahead of time with
+ * warmUp. They are paged in one at a time on a low priority thread.
+ * getTranslator is called on the main thread so it never waits for a table to
+ * be paged in. A warm up which has started hands its translator over as soon
+ * as the table has been sliced out, and one the background thread hasn't got
+ * to yet is dropped and the table sliced out straight away.
+ */
 public class TranslatorClient {
-    
+    private static final String TAG = "TranslatorClient";
+
     // Status constants
     public static final int SUCCESS = 0;
     public static final int ERROR = -1;
-    
+
+    // Written by the compileTranslationTables task in build.gradle.
+    private static final String TABLES_ASSET = "translationtables.bin";
+
+    // Enough for a few of the larger contracted tables.
+    public static final int DEFAULT_CACHE_SIZE = 4 * 1024 * 1024;
+
     public interface OnInitListener {
         void onInit(int status);
     }
-    
+
+    private final Context context;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final List<TableInfo> tables = new ArrayList<TableInfo>();
+    private final Map<String, String> fileNames = new HashMap<String, String>();
+    private final TranslatorCache<LibLouisTranslator> translators = new TranslatorCache<LibLouisTranslator>(
+            DEFAULT_CACHE_SIZE) {
+
+        @Override
+        protected int sizeOf(String id, LibLouisTranslator translator) {
+            return translator.getTable().getSize();
+        }
+    };
+    // Warm ups keyed by table id.
+    private final Map<String, WarmUp> warmUps = new HashMap<String, WarmUp>();
+    private ExecutorService warmUpExecutor;
+    private LibLouisTableFile tableFile;
+    private OnInitListener onInitListener;
+    // Null until initialisation has finished.
+    private Integer status;
+
     public TranslatorClient(Context context, boolean unused) {
-        // Stub implementation
+        this.context = context.getApplicationContext();
+        new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                int result = initialise();
+                synchronized (TranslatorClient.this) {
+                    status = result;
+                }
+                notifyListener();
+            }
+        }, TAG).start();
     }
-    
+
+    /**
+     * Set the listener which is told when the tables are ready. If they
+     * already are the listener is called straight away on the main thread.
+     */
     public void setOnInitListener(OnInitListener listener) {
-        // Stub: call listener immediately with success
-        if (listener != null) {
-            new Handler().post(new Runnable() {
-                @Override
-                public void run() {
-                    listener.onInit(SUCCESS);
-                }
-            });
+        synchronized (this) {
+            onInitListener = listener;
         }
+        notifyListener();
     }
-    
+
+    /**
+     * Return a translator for the given table.
+     *
+     * @param table
+     *            The table to translate with.
+     * @return The translator or null if the table couldn't be loaded.
+     */
     public BrailleTranslator getTranslator(TableInfo table) {
-        // Return a stub translator
-        return new StubBrailleTranslator();
+        LibLouisTranslator translator = translators.get(table.getId());
+        if (translator != null) {
+            return translator;
+        }
+
+        WarmUp warmUp;
+        synchronized (this) {
+            warmUp = warmUps.get(table.getId());
+            if (warmUp != null && !warmUp.started) {
+                // Loading it here is cheaper than paging it all in.
+                warmUp.cancelled = true;
+                warmUps.remove(table.getId());
+                warmUp = null;
+            }
+        }
+        if (warmUp != null) {
+            // Use the warm up's translator rather than slicing the table out
+            // again. It carries on paging the table in while the translator
+            // uses the pages it has got to.
+            try {
+                translator = warmUp.getTranslator();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (translator != null) {
+                translators.put(table.getId(), translator);
+                return translator;
+            }
+        }
+        return load(table.getId());
     }
-    
-    public List<TableInfo> getTables() {
-        List<TableInfo> tables = new ArrayList<>();
-        tables.add(new TableInfo("en-us-comp8"));
-        return tables;
+
+    /**
+     * Load tables in the background so that switching to them later doesn't
+     * have to. Tables which have already been warmed up are skipped.
+     *
+     * @param tables
+     *            The tables to load, most important first.
+     */
+    public synchronized void warmUp(Collection<TableInfo> tables) {
+        if (warmUpExecutor == null) {
+            warmUpExecutor = Executors
+                    .newSingleThreadExecutor(new ThreadFactory() {
+
+                        @Override
+                        public Thread newThread(final Runnable r) {
+                            return new Thread(new Runnable() {
+
+                                @Override
+                                public void run() {
+                                    Process.setThreadPriority(
+                                            Process.THREAD_PRIORITY_BACKGROUND);
+                                    r.run();
+                                }
+                            }, TAG + " warm up");
+                        }
+                    });
+        }
+        for (TableInfo table : tables) {
+            final String id = table.getId();
+            if (warmUps.containsKey(id)) {
+                continue;
+            }
+            WarmUp warmUp = new WarmUp(id);
+            warmUps.put(id, warmUp);
+            warmUpExecutor.execute(warmUp);
+        }
+    }
+
+    /**
+     * Set the memory budget of the translator cache.
+     *
+     * @param bytes
+     *            The total size of the tables the cache may hold. The least
+     *            recently used translators are dropped to fit.
+     */
+    public void setCacheSize(int bytes) {
+        translators.resize(bytes);
+    }
+
+    /**
+     * Release cached translators according to the level passed to
+     * ComponentCallbacks2.onTrimMemory. Translators which are in use stay
+     * valid, they just won't be reused.
+     */
+    public void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            translators.evictAll();
+            forgetWarmUps();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            translators.trimToSize(translators.maxSize() / 2);
+        }
     }
-    
+
+    public synchronized List<TableInfo> getTables() {
+        return new ArrayList<TableInfo>(tables);
+    }
+
     public void destroy() {
-        // Stub
+        synchronized (this) {
+            onInitListener = null;
+            if (warmUpExecutor != null) {
+                warmUpExecutor.shutdownNow();
+                warmUpExecutor = null;
+            }
+            warmUps.clear();
+        }
+        translators.evictAll();
+    }
+
+    // Drops the translators held by finished warm ups so they can be freed.
+    // Ones still running carry on and add their translator to the cache.
+    private synchronized void forgetWarmUps() {
+        for (Iterator<WarmUp> it = warmUps.values().iterator(); it
+                .hasNext();) {
+            if (it.next().done) {
+                it.remove();
+            }
+        }
     }
-    
-    private static class StubBrailleTranslator implements BrailleTranslator {
+
+    // Loads a table on the warm up thread. The translator is handed over once
+    // the table has been sliced out, before it's paged in, so getTranslator
+    // only waits for the slicing.
+    private class WarmUp implements Runnable {
+        private final String id;
+        private final CountDownLatch sliced = new CountDownLatch(1);
+        private volatile LibLouisTranslator translator;
+        // Guarded by the client's lock.
+        boolean started;
+        boolean cancelled;
+        volatile boolean done;
+
+        WarmUp(String id) {
+            this.id = id;
+        }
+
         @Override
-        public String backTranslate(byte[] cells) {
-            // Simple stub implementation
-            if (cells == null) return "";
-            StringBuilder sb = new StringBuilder();
-            for (byte cell : cells) {
-                // Basic ASCII mapping
-                if (cell >= 'a' && cell <= 'z') {
-                    sb.append((char)cell);
-                } else {
-                    sb.append('?');
+        public void run() {
+            synchronized (TranslatorClient.this) {
+                if (cancelled) {
+                    return;
+                }
+                started = true;
+            }
+            try {
+                try {
+                    translator = load(id);
+                } finally {
+                    sliced.countDown();
+                }
+                if (translator != null) {
+                    translator.getTable().preload();
                 }
+            } finally {
+                done = true;
             }
-            return sb.toString();
         }
-        
-        @Override
-        public byte[] translate(String text) {
-            // Simple stub implementation
-            if (text == null) return new byte[0];
-            return text.getBytes();
+
+        // Waits for the table to be sliced out. Must only be called once the
+        // warm up has started.
+        LibLouisTranslator getTranslator() throws InterruptedException {
+            sliced.await();
+            return translator;
         }
-        
-        @Override
-        public void destroy() {
-            // Stub
+    }
+
+    // Slices the table out of the mapping and caches a translator for it.
+    private LibLouisTranslator load(String id) {
+        LibLouisTable compiled = null;
+        synchronized (this) {
+            String fileName = fileNames.get(id);
+            if (tableFile != null && fileName != null) {
+                compiled = tableFile.getTable(fileName);
+            }
+        }
+        if (compiled == null) {
+            return null;
+        }
+        LibLouisTranslator translator = new LibLouisTranslator(compiled);
+        translators.put(id, translator);
+        return translator;
+    }
+
+    // Calls the listener on the main thread if initialisation has finished.
+    private void notifyListener() {
+        final OnInitListener listener;
+        final int result;
+        synchronized (this) {
+            if (onInitListener == null || status == null) {
+                return;
+            }
+            listener = onInitListener;
+            result = status;
+        }
+        handler.post(new Runnable() {
+
+            @Override
+            public void run() {
+                listener.onInit(result);
+            }
+        });
+    }
+
+    // Runs on the background thread.
+    private int initialise() {
+        try {
+            List<TableInfo> tableList = new ArrayList<TableInfo>();
+            Map<String, String> files = new HashMap<String, String>();
+            readTableList(tableList, files);
+            LibLouisTableFile file = mapTables();
+            synchronized (this) {
+                tables.addAll(tableList);
+                fileNames.putAll(files);
+                tableFile = file;
+            }
+            return SUCCESS;
+        } catch (IOException e) {
+            Log.e(TAG, "Couldn't prepare translation tables", e);
+        } catch (XmlPullParserException e) {
+            Log.e(TAG, "Couldn't read the table list", e);
+        }
+        return ERROR;
+    }
+
+    private void readTableList(List<TableInfo> tableList,
+            Map<String, String> files) throws IOException,
+            XmlPullParserException {
+        XmlResourceParser parser = context.getResources().getXml(
+                R.xml.tablelist);
+        try {
+            int event;
+            while ((event = parser.next()) != XmlPullParser.END_DOCUMENT) {
+                if (event != XmlPullParser.START_TAG
+                        || !"table".equals(parser.getName())) {
+                    continue;
+                }
+                String id = parser.getAttributeValue(null, "id");
+                String fileName = parser.getAttributeValue(null, "fileName");
+                if (id == null || fileName == null) {
+                    continue;
+                }
+                Locale locale = parseLocale(parser.getAttributeValue(null,
+                        "locale"));
+                boolean eightDot = "8".equals(parser.getAttributeValue(null,
+                        "dots"));
+                int grade = parser.getAttributeIntValue(null, "grade", 0);
+                tableList.add(new TableInfo(locale, eightDot, grade, id));
+                files.put(id, fileName);
+            }
+        } finally {
+            parser.close();
+        }
+    }
+
+    // Locales are written as ll_CC_variant in the table list.
+    private static Locale parseLocale(String value) {
+        if (value == null) {
+            return Locale.ROOT;
+        }
+        String[] parts = value.split("_", 3);
+        return new Locale(parts[0], parts.length > 1 ? parts[1] : "",
+                parts.length > 2 ? parts[2] : "");
+    }
+
+    private LibLouisTableFile mapTables() throws IOException {
+        AssetFileDescriptor descriptor = context.getAssets().openFd(
+                TABLES_ASSET);
+        try {
+            FileInputStream in = descriptor.createInputStream();
+            try {
+                // The mapping stays valid once the file is closed.
+                return LibLouisTableFile.read(in.getChannel().map(
+                        FileChannel.MapMode.READ_ONLY,
+                        descriptor.getStartOffset(), descriptor.getLength()));
+            } finally {
+                in.close();
+            }
+        } finally {
+            descriptor.close();
         }
     }
 }
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2016 The Soft Braille Keyboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dalton.braillekeyboard;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Locale;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import android.text.InputType;
+import android.view.inputmethod.EditorInfo;
+
+public class AutoCapsTest {
+    private static final int WORDS = InputType.TYPE_TEXT_FLAG_CAP_WORDS;
+    private static final int SENTENCES = InputType
+            .TYPE_TEXT_FLAG_CAP_SENTENCES;
+    private static final int REQ_MODES = InputType.TYPE_CLASS_TEXT | WORDS
+            | SENTENCES;
+
+    private final AutoCaps autoCaps = new AutoCaps();
+
+    @Before
+    public void setUp() {
+        autoCaps.setLocale(Locale.ENGLISH);
+    }
+
+    @Test
+    public void startOfFieldStartsSentence() {
+        reset(0, WORDS | SENTENCES);
+        assertEquals(WORDS | SENTENCES, autoCaps.getCapsMode(REQ_MODES));
+        autoCaps.textCommitted("Hello");
+        assertEquals(0, autoCaps.getCapsMode(REQ_MODES));
+        autoCaps.textCommitted(" ");
+        assertEquals(WORDS, autoCaps.getCapsMode(REQ_MODES));
+        autoCaps.textCommitted("there. ");
+        assertEquals(WORDS | SENTENCES, autoCaps.getCapsMode(REQ_MODES));
+    }
+
+    @Test
+    public void spacesAfterStartWithoutSentenceCapsAreUnknown() {
+        // The field starts as "Hello." so the editor gives no caps at the
+        // cursor, but a space after it starts a sentence.
+        reset(6, 0);
+        assertEquals(0, autoCaps.getCapsMode(REQ_MODES));
+        autoCaps.textCommitted(" ");
+        assertEquals(-1, autoCaps.getCapsMode(REQ_MODES));
+        // Spaces and quotes don't help.
+        autoCaps.textCommitted(" \"");
+        assertEquals(-1, autoCaps.getCapsMode(REQ_MODES));
+        // Words are still known without the editor.
+        assertEquals(WORDS, autoCaps.getCapsMode(REQ_MODES & ~SENTENCES));
+
+        // Reading the text before the cursor settles it.
+        autoCaps.setContext("Hello.  \"", 9, true);
+        assertEquals(WORDS | SENTENCES, autoCaps.getCapsMode(REQ_MODES));
+    }
+
+    @Test
+    public void spacesAfterMiddleOfSentenceAreNotSentenceStart() {
+        reset(5, 0);
+        autoCaps.setContext("Hello", 5, true);
+        autoCaps.textCommitted(" ");
+        assertEquals(WORDS, autoCaps.getCapsMode(REQ_MODES));
+    }
+
+    @Test
+    public void spacesAfterSentenceStartKeepSentenceCaps() {
+        reset(7, WORDS | SENTENCES);
+        autoCaps.textCommitted(" ");
+        assertEquals(WORDS | SENTENCES, autoCaps.getCapsMode(REQ_MODES));
+    }
+
+    @Test
+    public void wordAfterStartIsDecidedFromText() {
+        reset(6, 0);
+        autoCaps.textCommitted(" there. ");
+        assertEquals(WORDS | SENTENCES, autoCaps.getCapsMode(REQ_MODES));
+        autoCaps.textCommitted("you ");
+        assertEquals(WORDS, autoCaps.getCapsMode(REQ_MODES));
+    }
+
+    @Test
+    public void sentenceEndsAreFoundAsTextIsTyped() {
+        reset(0, WORDS | SENTENCES);
+        autoCaps.textCommitted("Is it? ");
+        assertEquals(WORDS | SENTENCES, autoCaps.getCapsMode(REQ_MODES));
+        autoCaps.textCommitted("Yes! ");
+        assertEquals(WORDS | SENTENCES, autoCaps.getCapsMode(REQ_MODES));
+        autoCaps.textCommitted("See e.g. ");
+        assertEquals(WORDS, autoCaps.getCapsMode(REQ_MODES));
+        autoCaps.textCommitted("the 3.5 ");
+        assertEquals(WORDS, autoCaps.getCapsMode(REQ_MODES));
+        autoCaps.textCommitted("one.) ");
+        assertEquals(WORDS | SENTENCES, autoCaps.getCapsMode(REQ_MODES));
+        autoCaps.textCommitted("Next\n");
+        assertEquals(WORDS | SENTENCES, autoCaps.getCapsMode(REQ_MODES));
+    }
+
+    private void reset(int cursor, int capsMode) {
+        EditorInfo info = new EditorInfo();
+        info.inputType = REQ_MODES;
+        info.initialSelStart = cursor;
+        info.initialSelEnd = cursor;
+        info.initialCapsMode = capsMode;
+        autoCaps.reset(info);
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2016 The Soft Braille Keyboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dalton.braillekeyboard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks BackTranslationCache against a reference which keeps the entries in
+ * a LinkedHashMap and runs the CLOCK algorithm over a plain array. Keys are
+ * short words over a few cells so the small index has long probe runs which
+ * wrap around its end, and entries are often deleted from the middle of them.
+ */
+public class BackTranslationCacheTest {
+    private static final Charset LATIN_1 = Charset.forName("ISO-8859-1");
+    private static final int CAPACITY = 8;
+
+    // The reference cache. The map holds the entries in the order they were
+    // added and the clock runs over the slots they were added to.
+    private static class Reference {
+        final Map<String, String> entries = new LinkedHashMap<String, String>();
+        final String[] slots = new String[CAPACITY];
+        final boolean[] referenced = new boolean[CAPACITY];
+        int hand;
+
+        String get(String key) {
+            String value = entries.get(key);
+            if (value != null) {
+                referenced[slotOf(key)] = true;
+            }
+            return value;
+        }
+
+        void put(String key, String value) {
+            if (!entries.containsKey(key)) {
+                int slot;
+                if (entries.size() < CAPACITY) {
+                    slot = entries.size();
+                } else {
+                    while (referenced[hand]) {
+                        referenced[hand] = false;
+                        hand = (hand + 1) % CAPACITY;
+                    }
+                    slot = hand;
+                    hand = (hand + 1) % CAPACITY;
+                    entries.remove(slots[slot]);
+                }
+                slots[slot] = key;
+            }
+            entries.put(key, value);
+            referenced[slotOf(key)] = true;
+        }
+
+        int slotOf(String key) {
+            for (int i = 0; i < CAPACITY; i++) {
+                if (key.equals(slots[i])) {
+                    return i;
+                }
+            }
+            throw new AssertionError(key);
+        }
+    }
+
+    @Test
+    public void matchesReference() {
+        Random random = new Random(6);
+        for (int round = 0; round < 20; round++) {
+            BackTranslationCache cache = new BackTranslationCache(CAPACITY);
+            Reference reference = new Reference();
+            // Keys are copied out of a larger array to check offsets.
+            byte[] buffer = new byte[16];
+            for (int i = 0; i < 20000; i++) {
+                int offset = random.nextInt(4);
+                int length = randomKey(random, buffer, offset);
+                String key = new String(buffer, offset, length, LATIN_1);
+                if (random.nextInt(3) == 0) {
+                    String value = "v" + i;
+                    cache.put(buffer, offset, length, value);
+                    reference.put(key, value);
+                } else {
+                    assertEquals(key, reference.get(key),
+                            cache.get(buffer, offset, length));
+                }
+                if (i % 1000 == 0) {
+                    assertSameEntries(reference, cache);
+                }
+            }
+            assertSameEntries(reference, cache);
+        }
+    }
+
+    @Test
+    public void fullIndexWrapsAroundOnDelete() {
+        // Every key of one or two cells over four dots, far more than fit,
+        // goes through the whole index many times.
+        BackTranslationCache cache = new BackTranslationCache(CAPACITY);
+        Reference reference = new Reference();
+        for (int pass = 0; pass < 50; pass++) {
+            for (int first = 0; first < 16; first++) {
+                for (int second = -1; second < 16; second++) {
+                    byte[] key = second < 0 ? new byte[] { (byte) first }
+                            : new byte[] { (byte) first, (byte) second };
+                    String text = pass + ":" + first + ":" + second;
+                    cache.put(key, 0, key.length, text);
+                    reference.put(new String(key, LATIN_1), text);
+                }
+            }
+            assertSameEntries(reference, cache);
+        }
+    }
+
+    @Test
+    public void switchingTableEmptiesTheCache() {
+        BackTranslationCache cache = new BackTranslationCache(CAPACITY);
+        byte[] cells = { 0, 0x01, 0 };
+        cache.setTable("en-us-g1");
+        cache.put(cells, 0, cells.length, "a");
+        cache.setTable("en-us-g1");
+        assertEquals("a", cache.get(cells, 0, cells.length));
+        cache.setTable("de-de-g1");
+        assertNull(cache.get(cells, 0, cells.length));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    // Write a key of one to four cells from a small set of dots to the
+    // buffer and return its length.
+    private static int randomKey(Random random, byte[] buffer, int offset) {
+        int length = 1 + random.nextInt(4);
+        for (int i = 0; i < length; i++) {
+            buffer[offset + i] = (byte) (random.nextInt(3) * 0x41);
+        }
+        return length;
+    }
+
+    // Looks up every key in the reference, which marks it used in both.
+    private static void assertSameEntries(Reference reference,
+            BackTranslationCache cache) {
+        assertTrue(reference.entries.size() <= CAPACITY);
+        for (String key : new ArrayList<String>(reference.entries.keySet())) {
+            byte[] cells = key.getBytes(LATIN_1);
+            assertEquals(key, reference.get(key),
+                    cache.get(cells, 0, cells.length));
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2016 The Soft Braille Keyboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dalton.braillekeyboard;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.googlecode.eyesfree.braille.service.translate.LibLouisTranslator;
+import com.googlecode.eyesfree.braille.service.translate.TestTables;
+import com.googlecode.eyesfree.braille.translate.BackTranslationResult;
+import com.googlecode.eyesfree.braille.translate.BackTranslationSession;
+import com.googlecode.eyesfree.braille.translate.BrailleTranslator;
+
+/**
+ * Checks that the word being typed is translated in the context of the cells
+ * before the last one, when a cell is removed and when the word continues
+ * text before the cursor, with US English grade 2 where the cells before a
+ * cell change how it's read.
+ */
+public class BrailleParserTest {
+    private static final byte M = 0x0d; // Dots 1-3-4.
+    private static final byte O = 0x15; // Dots 1-3-5.
+    private static final byte R = 0x17; // Dots 1-2-3-5.
+
+    private LibLouisTranslator grade2;
+    private BrailleParser parser;
+
+    @Before
+    public void setUp() throws Exception {
+        grade2 = TestTables.getTranslator("en-us-g2.ctb");
+        parser = new BrailleParser(null);
+        parser.switchTranslator(grade2, "en-US-g2");
+    }
+
+    @Test
+    public void retypingTheLastCellGivesTheSameWord() {
+        assertEquals("more", type(M));
+        assertEquals("mo", type(O));
+        assertEquals("mor", type(R));
+
+        assertEquals("mo", parser.removeLastCell());
+        // Not "morather", which is "mo" followed by the word sign for
+        // "rather" typed on its own.
+        assertEquals("mor", type(R));
+        assertArrayEquals(new byte[] { M, O, R }, getWordCells());
+    }
+
+    @Test
+    public void removingEveryCellEmptiesTheWord() {
+        type(M, O, R);
+        assertEquals("mo", parser.removeLastCell());
+        assertEquals("more", parser.removeLastCell());
+        assertEquals("", parser.removeLastCell());
+        assertNull(parser.removeLastCell());
+        assertEquals(0, parser.getTypedCellCount());
+        assertEquals("more", type(M));
+    }
+
+    @Test
+    public void removingGoesBackToTheTextTheWordStartedWith() {
+        // "x" on its own is the word sign for "it" so its cells don't read
+        // back as the text and it's kept as text, the cells typed after it
+        // are read on their own.
+        assertEquals("x", parser.startWordWith("x"));
+        assertEquals("xmore", type(M));
+        assertEquals("x", parser.removeLastCell());
+        assertEquals(0, parser.getTypedCellCount());
+    }
+
+    @Test
+    public void removingACellTypedWithAnotherTable() throws Exception {
+        type(M, O);
+        parser.switchTranslator(TestTables.getTranslator("en-us-g1.ctb"),
+                "en-US-g1");
+        assertEquals("mo" + "r", type(R));
+
+        assertEquals("mo", parser.removeLastCell());
+        // The grade 2 cells are translated again without the last of them.
+        assertEquals(grade2.backTranslate(new byte[] { 0, M, 0 }).trim(),
+                parser.removeLastCell());
+        assertEquals("", parser.removeLastCell());
+    }
+
+    @Test
+    public void typingMidWordReadsCellsAfterTheTextBeforeTheCursor() {
+        assertEquals("mo", parser.startWordWith("mo"));
+        assertArrayEquals(new byte[] { M, O }, getWordCells());
+        // Not "morather" as it would be if the text were kept as it is.
+        assertEquals("mor", type(R));
+        assertEquals("mo", parser.removeLastCell());
+    }
+
+    @Test
+    public void textBeforeTheCursorIsTranslatedOncePerWord() {
+        CountingTranslator counting = new CountingTranslator(grade2);
+        parser.switchTranslator(counting, "counting");
+        parser.startWordWith("mo");
+        parser.startWordWith("mo");
+        assertEquals("mor", type(R));
+        assertEquals(1, counting.translations);
+        parser.startWordWith("x");
+        parser.startWordWith("x");
+        assertEquals(2, counting.translations);
+        parser.startWordWith("mo");
+        assertEquals(2, counting.translations);
+
+        // The cells of the words are forgotten with the table.
+        parser.switchTranslator(grade2, "en-US-g2");
+        parser.switchTranslator(counting, "counting");
+        parser.startWordWith("mo");
+        assertEquals(3, counting.translations);
+    }
+
+    @Test
+    public void restoredWordCarriesOnFromItsCells() {
+        type(M, O, R);
+        byte[] cells = getWordCells();
+        parser.clearCells();
+
+        assertEquals("mor", parser.restoreWord(cells));
+        assertEquals("mo", parser.removeLastCell());
+        assertEquals("mor", type(R));
+    }
+
+    @Test
+    public void wordWhichContinuesTextCantBeRestored() {
+        parser.startWordWith("x");
+        type(M);
+        CellBuffer cells = new CellBuffer();
+        assertFalse(parser.getWordCells(cells));
+        assertEquals(0, cells.size());
+    }
+
+    private String type(byte... cells) {
+        CellBuffer buffer = new CellBuffer();
+        for (byte cell : cells) {
+            buffer.append(cell);
+        }
+        return parser.appendCells(buffer);
+    }
+
+    private byte[] getWordCells() {
+        CellBuffer cells = new CellBuffer();
+        parser.getWordCells(cells);
+        return cells.toArray();
+    }
+
+    // Counts the words forward translated.
+    private static class CountingTranslator implements BrailleTranslator {
+        private final BrailleTranslator translator;
+        int translations;
+
+        CountingTranslator(BrailleTranslator translator) {
+            this.translator = translator;
+        }
+
+        @Override
+        public String backTranslate(byte[] cells) {
+            return translator.backTranslate(cells);
+        }
+
+        @Override
+        public BackTranslationResult backTranslateWithPositions(byte[] cells) {
+            return translator.backTranslateWithPositions(cells);
+        }
+
+        @Override
+        public BackTranslationResult backTranslateWithPositions(byte[] cells,
+                int offset, int length) {
+            return translator.backTranslateWithPositions(cells, offset,
+                    length);
+        }
+
+        @Override
+        public byte[] translate(String text) {
+            ++translations;
+            return translator.translate(text);
+        }
+
+        @Override
+        public BackTranslationSession beginSession() {
+            return translator.beginSession();
+        }
+
+        @Override
+        public char[] getCellCharacters() {
+            return translator.getCellCharacters();
+        }
+
+        @Override
+        public void destroy() {
+            translator.destroy();
+        }
+    }
+}
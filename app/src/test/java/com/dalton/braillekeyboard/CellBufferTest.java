@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2016 The Soft Braille Keyboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dalton.braillekeyboard;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class CellBufferTest {
+
+    @Test
+    public void growsKeepingTheCellsAndPadding() {
+        CellBuffer buffer = new CellBuffer(2);
+        for (int i = 1; i <= 100; i++) {
+            buffer.append((byte) i);
+            assertEquals(i, buffer.size());
+            assertPadded(buffer);
+        }
+        for (int i = 0; i < 100; i++) {
+            assertEquals((byte) (i + 1), buffer.get(i));
+        }
+    }
+
+    @Test
+    public void removingAndClearingLeaveBlankPadding() {
+        CellBuffer buffer = new CellBuffer(4);
+        buffer.append((byte) 0x01);
+        buffer.append((byte) 0x03);
+        buffer.append((byte) 0xff);
+        buffer.removeLast();
+        assertEquals(2, buffer.size());
+        assertPadded(buffer);
+        assertArrayEquals(new byte[] { 0x01, 0x03 }, buffer.toArray());
+
+        buffer.clear();
+        assertEquals(0, buffer.size());
+        assertPadded(buffer);
+        buffer.removeLast();
+        assertEquals(0, buffer.size());
+        buffer.append((byte) 0x07);
+        assertArrayEquals(new byte[] { 0x07 }, buffer.toArray());
+        assertPadded(buffer);
+    }
+
+    @Test
+    public void snapshotsArentChangedLater() {
+        CellBuffer buffer = new CellBuffer(1);
+        buffer.append((byte) 0x0f);
+        buffer.append((byte) 0x11);
+        byte[] snapshot = buffer.toArray();
+        buffer.removeLast();
+        buffer.append((byte) 0x22);
+        for (int i = 0; i < 10; i++) {
+            buffer.append((byte) 0x33);
+        }
+        buffer.clear();
+        assertArrayEquals(new byte[] { 0x0f, 0x11 }, snapshot);
+        assertEquals(0, buffer.toArray().length);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getPastTheEndThrows() {
+        CellBuffer buffer = new CellBuffer();
+        buffer.append((byte) 1);
+        buffer.get(1);
+    }
+
+    // The cells are in the array between a blank cell on each side.
+    private static void assertPadded(CellBuffer buffer) {
+        byte[] array = buffer.getArray();
+        assertEquals(0, array[0]);
+        for (int i = 0; i < buffer.size(); i++) {
+            assertEquals(buffer.get(i), array[i + 1]);
+        }
+        assertEquals(0, array[buffer.size() + 1]);
+    }
+}
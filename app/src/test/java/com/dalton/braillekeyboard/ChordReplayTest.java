@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2016 The Soft Braille Keyboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dalton.braillekeyboard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import com.dalton.braillekeyboard.Pad.Coords;
+
+/**
+ * Replays synthetic chords through Pad.getBrailleDots and the greedy matcher
+ * it replaced and compares how many chords each gets right. The chords were
+ * generated from the keys with a fixed seed, 11, not recorded from real
+ * typing.
+ *
+ * Each file in src/test/resources/chords is for one pad. The first line is
+ * "keys" and the position of each key in dot order. Then for each amount of
+ * noise there is a line "noise" and the standard deviation as a fraction of
+ * the distance between neighbouring keys, followed by one line per chord.
+ * A chord is the touches in the order they went down, each written as the
+ * dot it was aimed at, a colon and the position. The whole hand is offset
+ * by one amount of noise and each finger by another, and the fingers go
+ * down in a random order.
+ *
+ * The keys stay where they are, so only the matching is compared and not
+ * how the keys follow the fingers. Run with the environment variable
+ * UPDATE_CHORDS set to write new chords for the keys in each file.
+ */
+@RunWith(Parameterized.class)
+public class ChordReplayTest {
+    private static final File CHORDS_DIR = new File("src/test/resources/chords");
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int DOTS = 8;
+    private static final double[] NOISE = { 0.15, 0.25, 0.35, 0.45 };
+    private static final int CHORDS = 1000;
+    private static final long SEED = 11;
+    private static final int FINGER_SIZE = 80;
+    private static final int TOUCH_SIZE = 40;
+    // Pointer ids start here so they aren't mistaken for dot numbers.
+    private static final int FIRST_ID = 100;
+
+    @Parameters(name = "{0}")
+    public static Collection<Object[]> getPads() {
+        List<Object[]> pads = new ArrayList<Object[]>();
+        for (String name : new String[] { "horizontal", "vertical" }) {
+            pads.add(new Object[] { name });
+        }
+        return pads;
+    }
+
+    private final String name;
+
+    public ChordReplayTest(String name) {
+        this.name = name;
+    }
+
+    @Test
+    public void optimalMatchIsAtLeastAsGoodAsGreedy() throws IOException {
+        File file = new File(CHORDS_DIR, name + ".txt");
+        List<String> lines = read(file);
+        if (System.getenv("UPDATE_CHORDS") != null) {
+            lines = generate(lines.get(0));
+            write(file, lines);
+        }
+
+        String[] keys = lines.get(0).split(" ");
+        assertEquals("keys", keys[0]);
+        int[] keysX = new int[DOTS];
+        int[] keysY = new int[DOTS];
+        Coords[] coords = new Coords[DOTS];
+        for (int dot = 0; dot < DOTS; dot++) {
+            String[] position = keys[dot + 1].split(",");
+            keysX[dot] = Integer.parseInt(position[0]);
+            keysY[dot] = Integer.parseInt(position[1]);
+            coords[dot] = new Coords(keysX[dot], keysY[dot]);
+        }
+        TestPad pad = new TestPad(coords);
+        GreedyMatcher greedy = new GreedyMatcher(keysX, keysY);
+        Touches touches = new Touches(FINGER_SIZE);
+
+        int chords = 0;
+        int greedyRight = 0;
+        int optimalRight = 0;
+        String noise = null;
+        for (int i = 1; i <= lines.size(); i++) {
+            String line = i < lines.size() ? lines.get(i) : null;
+            if (line == null || line.startsWith("noise ")) {
+                if (noise != null) {
+                    System.out.printf(Locale.US,
+                            "%s noise %s: greedy %.1f%%, optimal %.1f%% of"
+                                    + " %d chords%n", name, noise,
+                            100.0 * greedyRight / chords,
+                            100.0 * optimalRight / chords, chords);
+                    assertTrue(name + " noise " + noise,
+                            optimalRight >= greedyRight);
+                }
+                if (line != null) {
+                    noise = line.substring("noise ".length());
+                    chords = 0;
+                    greedyRight = 0;
+                    optimalRight = 0;
+                }
+                continue;
+            }
+
+            String[] fingers = line.split(" ");
+            int[] aimed = new int[fingers.length];
+            int[] x = new int[fingers.length];
+            int[] y = new int[fingers.length];
+            touches.clear();
+            for (int touch = 0; touch < fingers.length; touch++) {
+                String[] parts = fingers[touch].split("[:,]");
+                aimed[touch] = Integer.parseInt(parts[0]) - 1;
+                x[touch] = Integer.parseInt(parts[1]);
+                y[touch] = Integer.parseInt(parts[2]);
+                touches.down(FIRST_ID + touch, x[touch], y[touch],
+                        TOUCH_SIZE, 0);
+            }
+            pad.getBrailleDots(touches, DOTS);
+            int[] greedyMatch = greedy.match(x, y, DOTS);
+
+            int[] expected = new int[DOTS];
+            Arrays.fill(expected, -1);
+            for (int touch = 0; touch < fingers.length; touch++) {
+                expected[aimed[touch]] = touch;
+            }
+            boolean optimalOk = true;
+            for (int dot = 0; dot < DOTS; dot++) {
+                int touch = touches.isDown(dot) ? touches.getId(dot)
+                        - FIRST_ID : -1;
+                optimalOk &= touch == expected[dot];
+            }
+            ++chords;
+            if (optimalOk) {
+                ++optimalRight;
+            }
+            if (Arrays.equals(expected, greedyMatch)) {
+                ++greedyRight;
+            }
+        }
+    }
+
+    // Make chords for the keys on the given line.
+    private static List<String> generate(String keysLine) {
+        String[] keys = keysLine.split(" ");
+        int[] keysX = new int[DOTS];
+        int[] keysY = new int[DOTS];
+        for (int dot = 0; dot < DOTS; dot++) {
+            String[] position = keys[dot + 1].split(",");
+            keysX[dot] = Integer.parseInt(position[0]);
+            keysY[dot] = Integer.parseInt(position[1]);
+        }
+        // The distance between neighbouring keys.
+        double spacing = Double.MAX_VALUE;
+        for (int i = 0; i < DOTS; i++) {
+            for (int j = i + 1; j < DOTS; j++) {
+                spacing = Math.min(spacing, Math.hypot(keysX[i] - keysX[j],
+                        keysY[i] - keysY[j]));
+            }
+        }
+
+        List<String> lines = new ArrayList<String>();
+        lines.add(keysLine);
+        Random random = new Random(SEED);
+        int[] order = new int[DOTS];
+        for (double noise : NOISE) {
+            lines.add(String.format(Locale.US, "noise %.2f", noise));
+            double deviation = spacing * noise;
+            for (int i = 0; i < CHORDS; i++) {
+                int cell = 1 + random.nextInt((1 << DOTS) - 1);
+                double handX = random.nextGaussian() * deviation;
+                double handY = random.nextGaussian() * deviation;
+                int count = 0;
+                for (int dot = 0; dot < DOTS; dot++) {
+                    if ((cell & 1 << dot) != 0) {
+                        order[count++] = dot;
+                    }
+                }
+                // Shuffle the order the fingers go down in.
+                for (int j = count - 1; j > 0; j--) {
+                    int k = random.nextInt(j + 1);
+                    int dot = order[j];
+                    order[j] = order[k];
+                    order[k] = dot;
+                }
+                StringBuilder line = new StringBuilder();
+                for (int j = 0; j < count; j++) {
+                    int dot = order[j];
+                    int x = (int) Math.round(keysX[dot] + handX
+                            + random.nextGaussian() * deviation);
+                    int y = (int) Math.round(keysY[dot] + handY
+                            + random.nextGaussian() * deviation);
+                    if (j > 0) {
+                        line.append(' ');
+                    }
+                    line.append(dot + 1).append(':').append(x).append(',')
+                            .append(y);
+                }
+                lines.add(line.toString());
+            }
+        }
+        return lines;
+    }
+
+    private static List<String> read(File file) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), UTF_8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+
+    private static void write(File file, List<String> lines)
+            throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+                UTF_8);
+        try {
+            for (String line : lines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+    }
+}
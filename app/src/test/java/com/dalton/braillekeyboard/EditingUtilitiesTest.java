@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2016 The Soft Braille Keyboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dalton.braillekeyboard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class EditingUtilitiesTest {
+    private static final String WORD = "internationalisation";
+
+    @Test
+    public void rewriteBeforeCursorTypingCostDoesNotGrowWithWord() {
+        FakeInputConnection ic = new FakeInputConnection("Some text ");
+        String oldText = "";
+        for (int i = 1; i <= WORD.length(); i++) {
+            String text = WORD.substring(0, i);
+            int calls = ic.calls;
+            EditingUtilities.rewriteBeforeCursor(ic, oldText, text);
+            // Begin, commit the new character, end.
+            assertEquals(text, 3, ic.calls - calls);
+            oldText = text;
+        }
+        assertEquals("Some text " + WORD, ic.text.toString());
+        assertEquals(ic.text.length(), ic.selectionStart);
+    }
+
+    @Test
+    public void rewriteBeforeCursorOnlyRewritesChangedEnd() {
+        // Like a contraction which changes when the next cell is typed.
+        FakeInputConnection ic = new FakeInputConnection("Some text ");
+        ic.commitText(WORD + "ab", 1);
+        int calls = ic.calls;
+        int common = EditingUtilities.rewriteBeforeCursor(ic, WORD + "ab",
+                WORD + "axy");
+        assertEquals(WORD.length() + 1, common);
+        // Begin, delete b, commit x and y, end.
+        assertEquals(5, ic.calls - calls);
+        assertEquals("Some text " + WORD + "axy", ic.text.toString());
+
+        calls = ic.calls;
+        EditingUtilities.rewriteBeforeCursor(ic, WORD + "axy", WORD);
+        // Begin, delete axy, end.
+        assertEquals(3, ic.calls - calls);
+        assertEquals("Some text " + WORD, ic.text.toString());
+    }
+
+    @Test
+    public void rewriteBeforeCursorCallsPerCellAreBounded() {
+        // Typing then deleting a word a cell at a time makes the same number
+        // of calls per cell however long the word is.
+        for (int length = 1; length <= EditingUtilities.MAX_WORD_LENGTH;
+                length++) {
+            FakeInputConnection ic = new FakeInputConnection("");
+            StringBuilder word = new StringBuilder();
+            for (int i = 0; i < length; i++) {
+                String oldText = word.toString();
+                word.append((char) ('a' + i % 26));
+                EditingUtilities.rewriteBeforeCursor(ic, oldText, word);
+            }
+            while (word.length() > 0) {
+                String oldText = word.toString();
+                word.setLength(word.length() - 1);
+                EditingUtilities.rewriteBeforeCursor(ic, oldText, word);
+            }
+            assertEquals("", ic.text.toString());
+            assertTrue(length + " cells took " + ic.calls + " calls",
+                    ic.calls <= 3 * 2 * length);
+        }
+    }
+
+    @Test
+    public void countsMatchSplitting() {
+        // The counts used to be the lengths of the text split at white space
+        // and at line breaks.
+        String[] texts = { " ", "\n", "a", " a", "a ", "  a  b  ", "\n\na\n",
+                "a\nb\n\n", "a\u00a0b", "a\u2003b", "\u2003a", "\ta\u000bb" };
+        for (String text : texts) {
+            assertCounts(text);
+        }
+        Random random = new Random(1);
+        char[] chars = { 'a', 'b', ' ', '\n', '\t', '\u2003', '\u00a0' };
+        for (int i = 0; i < 10000; i++) {
+            StringBuilder text = new StringBuilder();
+            int length = random.nextInt(12);
+            for (int j = 0; j < length; j++) {
+                text.append(chars[random.nextInt(chars.length)]);
+            }
+            assertCounts(text.toString());
+        }
+    }
+
+    private static void assertCounts(String text) {
+        int words = text.isEmpty() ? 0 : text.split("\\s+").length;
+        int lines = text.isEmpty() ? 0 : text.split("\\n").length;
+        assertEquals("words in \"" + text + "\"", words,
+                EditingUtilities.wordCount(text));
+        assertEquals("lines in \"" + text + "\"", lines,
+                EditingUtilities.lineCount(text));
+    }
+
+    @Test
+    public void commonPrefixLength() {
+        assertEquals(0, EditingUtilities.commonPrefixLength("", "abc"));
+        assertEquals(2, EditingUtilities.commonPrefixLength("abc", "abd"));
+        assertEquals(3, EditingUtilities.commonPrefixLength("abc", "abcd"));
+    }
+}
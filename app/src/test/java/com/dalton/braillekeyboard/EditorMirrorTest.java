@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2016 The Soft Braille Keyboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dalton.braillekeyboard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import android.view.inputmethod.ExtractedText;
+
+public class EditorMirrorTest {
+    private FakeInputConnection ic;
+    private EditorMirror mirror;
+
+    @Before
+    public void setUp() {
+        ic = new FakeInputConnection("Hello world. ");
+        mirror = new EditorMirror();
+        mirror.getExtractedText(ic);
+        assertEquals(1, ic.extractCalls);
+    }
+
+    @Test
+    public void ownEditsDontFetchTheText() {
+        type("Braille", true, true);
+        mirror.commitText(" ");
+        ic.commitText(" ", 1);
+        deliverReports();
+        type("keyboard", false, true);
+        mirror.deleteSurroundingText(1, 0);
+        ic.deleteSurroundingText(1, 0);
+        deliverReports();
+
+        assertMatches();
+        assertEquals(1, ic.extractCalls);
+    }
+
+    @Test
+    public void deletingBeforeReportsArriveStaysCorrect() {
+        // The reports of typing y pass through the selection after deleting
+        // it, which may mean fetching the text again but never a wrong copy.
+        type("key", false, false);
+        mirror.deleteSurroundingText(1, 0);
+        ic.deleteSurroundingText(1, 0);
+        deliverReports();
+
+        assertMatches();
+    }
+
+    @Test
+    public void lateReportsArentAppliedTwice() {
+        // The editor hasn't reported any of the edits before the next.
+        type("incremental", true, false);
+        mirror.commitText("\n");
+        ic.commitText("\n", 1);
+        assertMatches();
+        deliverReports();
+
+        assertMatches();
+        assertEquals(1, ic.extractCalls);
+    }
+
+    @Test
+    public void otherChangesAreApplied() {
+        type("typed", false, true);
+        ic.replace(0, 5, "Goodbye cruel");
+        deliverReports();
+
+        assertMatches();
+        assertEquals(1, ic.extractCalls);
+    }
+
+    @Test
+    public void otherChangeBeforeOwnReportFetchesAgain() {
+        ic.replace(0, 5, "Goodbye cruel");
+        type("typed", true, false);
+        deliverReports();
+
+        assertNull(mirror.getTextBeforeCursor(5));
+        assertEquals("typed", mirror.getExtractedText(ic).text.toString()
+                .substring(ic.text.length() - 5));
+        assertMatches();
+        assertEquals(2, ic.extractCalls);
+    }
+
+    @Test
+    public void readsAroundTheCursorDontFetchWhenOutOfDate() {
+        mirror.invalidate();
+        int calls = ic.calls;
+        assertNull(mirror.getTextBeforeCursor(10));
+        assertNull(mirror.getTextAfterCursor(10));
+        assertEquals(calls, ic.calls);
+    }
+
+    @Test
+    public void randomEditsStayCorrect() {
+        Random random = new Random(1);
+        for (int i = 0; i < 20000; i++) {
+            int op = random.nextInt(20);
+            if (op < 8) {
+                type(randomWord(random), random.nextBoolean(),
+                        random.nextBoolean());
+            } else if (op < 12) {
+                String c = random.nextBoolean() ? " " : "\n";
+                mirror.commitText(c);
+                ic.commitText(c, 1);
+            } else if (op < 16) {
+                int before = random.nextInt(3);
+                mirror.deleteSurroundingText(before, 0);
+                ic.deleteSurroundingText(before, 0);
+            } else if (op < 18) {
+                deliverReports();
+            } else if (op == 18 && ic.selectionStart > 0) {
+                // Another app changes the text before the cursor.
+                int start = random.nextInt(ic.selectionStart);
+                ic.replace(start, start + 1, randomWord(random));
+            } else {
+                deliverReports();
+                assertMatches();
+            }
+        }
+    }
+
+    private static String randomWord(Random random) {
+        StringBuilder word = new StringBuilder();
+        int length = 1 + random.nextInt(5);
+        for (int i = 0; i < length; i++) {
+            word.append((char) ('a' + random.nextInt(3)));
+        }
+        return word.toString();
+    }
+
+    // Type a word a character at a time the way BrailleIME writeComposingText
+    // does, with or without composing text, delivering the editor's reports
+    // after each character if asked to.
+    private void type(String word, boolean composing, boolean deliver) {
+        String oldText = "";
+        for (int i = 1; i <= word.length(); i++) {
+            String text = word.substring(0, i);
+            if (composing) {
+                ic.setComposingText(text, text.length());
+                mirror.replaceBeforeCursor(oldText.length(), text);
+            } else {
+                int common = EditingUtilities.rewriteBeforeCursor(ic,
+                        oldText, text);
+                mirror.replaceBeforeCursor(oldText.length() - common,
+                        text.substring(common));
+            }
+            oldText = text;
+            if (deliver) {
+                deliverReports();
+            }
+        }
+        ic.finishComposingText();
+    }
+
+    private void deliverReports() {
+        for (Object update : ic.updates) {
+            if (update instanceof ExtractedText) {
+                mirror.onUpdateExtractedText(ic.reportToken,
+                        (ExtractedText) update);
+            } else {
+                int[] selection = (int[]) update;
+                mirror.onUpdateSelection(selection[0], selection[1],
+                        selection[2], selection[3]);
+            }
+        }
+        ic.updates.clear();
+    }
+
+    private void assertMatches() {
+        String text = ic.text.toString();
+        ExtractedText extracted = mirror.getExtractedText(ic);
+        assertEquals(text, extracted.text.toString());
+        assertEquals(ic.selectionStart, extracted.selectionStart);
+        assertEquals(ic.selectionEnd, extracted.selectionEnd);
+        EditingUtilities.TextCounts counts = mirror.getCounts(ic);
+        EditingUtilities.TextCounts expected = EditingUtilities.count(text);
+        assertEquals(expected.lines, counts.lines);
+        assertEquals(expected.words, counts.words);
+        assertEquals(expected.characters, counts.characters);
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2016 The Soft Braille Keyboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dalton.braillekeyboard;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.view.inputmethod.ExtractedText;
+import android.view.inputmethod.ExtractedTextRequest;
+import android.view.inputmethod.InputConnection;
+import android.view.inputmethod.InputConnectionWrapper;
+
+/**
+ * An InputConnection to a field held in memory which counts the calls made
+ * to it. Each call to a real connection goes to the editor's process.
+ *
+ * Like TextView it reports each change, or each batch of changes, as the
+ * part of the text which changed, if the text is being monitored, followed by
+ * the change of selection. The reports are kept in updates until the test
+ * delivers them.
+ */
+class FakeInputConnection extends InputConnectionWrapper {
+    final StringBuilder text = new StringBuilder();
+    int selectionStart;
+    int selectionEnd;
+    // -1 if there is no composing text.
+    int composingStart = -1;
+    int composingEnd = -1;
+    // The number of calls made to the connection.
+    int calls;
+    // The number of calls which copied the whole text.
+    int extractCalls;
+    // Changes to report in order, either ExtractedText for the monitoring
+    // request or the old start and end of the selection then the new.
+    final List<Object> updates = new ArrayList<Object>();
+    int reportToken;
+
+    private boolean monitored;
+    private int batchDepth;
+    private String textBeforeChange;
+    private int selectionStartBeforeChange;
+    private int selectionEndBeforeChange;
+
+    FakeInputConnection(CharSequence initial) {
+        super(null, true);
+        text.append(initial);
+        selectionStart = selectionEnd = initial.length();
+    }
+
+    @Override
+    public boolean beginBatchEdit() {
+        ++calls;
+        beginChange();
+        return true;
+    }
+
+    @Override
+    public boolean endBatchEdit() {
+        ++calls;
+        endChange();
+        return true;
+    }
+
+    @Override
+    public ExtractedText getExtractedText(ExtractedTextRequest request,
+            int flags) {
+        ++calls;
+        ++extractCalls;
+        if ((flags & InputConnection.GET_EXTRACTED_TEXT_MONITOR) != 0) {
+            monitored = true;
+            reportToken = request.token;
+        }
+        ExtractedText extracted = new ExtractedText();
+        extracted.text = text.toString();
+        extracted.partialStartOffset = -1;
+        extracted.partialEndOffset = -1;
+        extracted.selectionStart = selectionStart;
+        extracted.selectionEnd = selectionEnd;
+        return extracted;
+    }
+
+    @Override
+    public boolean commitText(CharSequence text, int newCursorPosition) {
+        ++calls;
+        beginChange();
+        replaceComposing(text);
+        composingStart = composingEnd = -1;
+        endChange();
+        return true;
+    }
+
+    @Override
+    public boolean setComposingText(CharSequence text, int newCursorPosition) {
+        ++calls;
+        beginChange();
+        composingStart = replaceComposing(text);
+        composingEnd = composingStart + text.length();
+        endChange();
+        return true;
+    }
+
+    @Override
+    public boolean finishComposingText() {
+        ++calls;
+        composingStart = composingEnd = -1;
+        return true;
+    }
+
+    @Override
+    public boolean deleteSurroundingText(int before, int after) {
+        ++calls;
+        beginChange();
+        int end = Math.min(text.length(), selectionEnd + after);
+        text.delete(selectionEnd, end);
+        int start = Math.max(0, selectionStart - before);
+        text.delete(start, selectionStart);
+        int deleted = selectionStart - start;
+        selectionStart -= deleted;
+        selectionEnd -= deleted;
+        composingStart = composingEnd = -1;
+        endChange();
+        return true;
+    }
+
+    @Override
+    public boolean setSelection(int start, int end) {
+        ++calls;
+        beginChange();
+        selectionStart = start;
+        selectionEnd = end;
+        endChange();
+        return true;
+    }
+
+    @Override
+    public CharSequence getTextBeforeCursor(int n, int flags) {
+        ++calls;
+        return text.substring(Math.max(0, selectionStart - n), selectionStart);
+    }
+
+    @Override
+    public CharSequence getTextAfterCursor(int n, int flags) {
+        ++calls;
+        return text.substring(selectionEnd,
+                Math.min(text.length(), selectionEnd + n));
+    }
+
+    /**
+     * Change the text before the selection the way another app would, which
+     * the IME only hears about from the report.
+     */
+    void replace(int start, int end, String replacement) {
+        beginChange();
+        text.replace(start, end, replacement);
+        int moved = replacement.length() - (end - start);
+        selectionStart += moved;
+        selectionEnd += moved;
+        endChange();
+    }
+
+    // Replace the composing text, or the selection if there isn't any, and
+    // put the cursor after it. Returns where the new text starts.
+    private int replaceComposing(CharSequence replacement) {
+        int start = composingStart >= 0 ? composingStart : selectionStart;
+        int end = composingStart >= 0 ? composingEnd : selectionEnd;
+        text.replace(start, end, replacement.toString());
+        selectionStart = selectionEnd = start + replacement.length();
+        return start;
+    }
+
+    // A change outside a batch edit is a batch on its own.
+    private void beginChange() {
+        if (batchDepth++ == 0) {
+            textBeforeChange = text.toString();
+            selectionStartBeforeChange = selectionStart;
+            selectionEndBeforeChange = selectionEnd;
+        }
+    }
+
+    private void endChange() {
+        if (--batchDepth == 0) {
+            report();
+        }
+    }
+
+    // Report the part of the text which changed since the batch began, as
+    // the offsets it had in the old text and what it is now, and the change
+    // of selection.
+    private void report() {
+        String oldText = textBeforeChange;
+        if (monitored && !oldText.contentEquals(text)) {
+            reportText(oldText);
+        }
+        if (selectionStart != selectionStartBeforeChange
+                || selectionEnd != selectionEndBeforeChange) {
+            updates.add(new int[] { selectionStartBeforeChange,
+                    selectionEndBeforeChange, selectionStart, selectionEnd });
+        }
+    }
+
+    private void reportText(String oldText) {
+        int start = EditingUtilities.commonPrefixLength(oldText, text);
+        int oldEnd = oldText.length();
+        int newEnd = text.length();
+        while (oldEnd > start && newEnd > start
+                && oldText.charAt(oldEnd - 1) == text.charAt(newEnd - 1)) {
+            --oldEnd;
+            --newEnd;
+        }
+        ExtractedText extracted = new ExtractedText();
+        extracted.text = text.substring(start, newEnd);
+        extracted.partialStartOffset = start;
+        extracted.partialEndOffset = oldEnd;
+        extracted.selectionStart = selectionStart;
+        extracted.selectionEnd = selectionEnd;
+        updates.add(extracted);
+    }
+}
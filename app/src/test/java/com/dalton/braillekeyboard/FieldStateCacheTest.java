@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2016 The Soft Braille Keyboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dalton.braillekeyboard;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import android.view.inputmethod.EditorInfo;
+
+import com.dalton.braillekeyboard.FieldStateCache.FieldState;
+
+/**
+ * Checks that the word being typed in a field is given back when the field
+ * starts again with the cursor where the word left it, and only then.
+ */
+public class FieldStateCacheTest {
+    private final FieldStateCache cache = new FieldStateCache();
+
+    @Test
+    public void restartingTheFieldGivesTheStateBack() {
+        FieldState state = new FieldState("mor", new byte[] { 0x0d, 0x15,
+                0x17 }, 0, 9, -1);
+        cache.put(field("com.example", 1, 1, 9), state);
+
+        FieldState taken = cache.take(field("com.example", 1, 1, 9));
+        assertNotNull(taken);
+        assertEquals("mor", taken.word);
+        assertArrayEquals(new byte[] { 0x0d, 0x15, 0x17 }, taken.cells);
+        assertEquals(9, taken.cursor);
+        assertEquals(-1, taken.mark);
+        // Taking the state forgets it.
+        assertNull(cache.take(field("com.example", 1, 1, 9)));
+    }
+
+    @Test
+    public void movedCursorDropsTheState() {
+        cache.put(field("com.example", 1, 1, 9), state(9));
+        assertNull(cache.take(field("com.example", 1, 1, 4)));
+        // It's gone even if the cursor is moved back.
+        assertNull(cache.take(field("com.example", 1, 1, 9)));
+
+        cache.put(field("com.example", 1, 1, 9), state(9));
+        EditorInfo selection = field("com.example", 1, 1, 9);
+        selection.initialSelStart = 5;
+        assertNull(cache.take(selection));
+    }
+
+    @Test
+    public void fieldsAreToldApartByPackageIdAndInputType() {
+        cache.put(field("com.example", 1, 1, 9), state(9));
+        assertNull(cache.take(field("com.other", 1, 1, 9)));
+        assertNull(cache.take(field("com.example", 2, 1, 9)));
+        assertNull(cache.take(field("com.example", 1, 0x81, 9)));
+        assertNotNull(cache.take(field("com.example", 1, 1, 9)));
+    }
+
+    @Test
+    public void laterStateReplacesEarlierOne() {
+        cache.put(field("com.example", 1, 1, 9), state(9));
+        cache.put(field("com.example", 1, 1, 12), state(12));
+        assertNull(cache.take(field("com.example", 1, 1, 9)));
+
+        cache.put(field("com.example", 1, 1, 12), state(12));
+        cache.put(field("com.example", 1, 1, 12), null);
+        assertNull(cache.take(field("com.example", 1, 1, 12)));
+    }
+
+    @Test
+    public void leastRecentlyUsedFieldIsForgotten() {
+        for (int id = 0; id < 5; id++) {
+            cache.put(field("com.example", id, 1, id), state(id));
+        }
+        assertNull(cache.take(field("com.example", 0, 1, 0)));
+        for (int id = 1; id < 5; id++) {
+            assertNotNull(cache.take(field("com.example", id, 1, id)));
+        }
+
+        cache.put(field("com.example", 1, 1, 1), state(1));
+        cache.clear();
+        assertNull(cache.take(field("com.example", 1, 1, 1)));
+    }
+
+    private static EditorInfo field(String packageName, int fieldId,
+            int inputType, int cursor) {
+        EditorInfo info = new EditorInfo();
+        info.packageName = packageName;
+        info.fieldId = fieldId;
+        info.inputType = inputType;
+        info.initialSelStart = cursor;
+        info.initialSelEnd = cursor;
+        return info;
+    }
+
+    private static FieldState state(int cursor) {
+        return new FieldState("word", null, 0, cursor, -1);
+    }
+}
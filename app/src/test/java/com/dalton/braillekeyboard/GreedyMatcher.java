@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2016 The Soft Braille Keyboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dalton.braillekeyboard;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The matcher Pad.getBrailleDots used before it found the cheapest overall
+ * match, kept to compare against. Each touch in turn takes the nearest dot
+ * in its column, bumping a touch which is further from that dot back onto
+ * the end of the queue.
+ */
+class GreedyMatcher {
+    private static final int DOT_FOUR = 3;
+    private static final int DOT_SEVEN = 6;
+
+    private final int[] keysX;
+    private final int[] keysY;
+
+    /**
+     * @param keysX
+     *            The position of each key in dot order.
+     * @param keysY
+     *            The position of each key in dot order.
+     */
+    GreedyMatcher(int[] keysX, int[] keysY) {
+        this.keysX = keysX;
+        this.keysY = keysY;
+    }
+
+    /**
+     * @param x
+     *            The touches in the order they went down.
+     * @param y
+     *            The touches in the order they went down.
+     * @param dots
+     *            The number of dots being typed.
+     * @return For each dot the index of the touch matched to it or -1.
+     */
+    int[] match(int[] x, int[] y, int dots) {
+        int left = getAverageColumn(true);
+        int right = getAverageColumn(false);
+        List<Integer> queue = new ArrayList<Integer>();
+        for (int i = 0; i < x.length; i++) {
+            queue.add(i);
+        }
+        int[] matched = new int[keysX.length];
+        for (int i = 0; i < matched.length; i++) {
+            matched[i] = -1;
+        }
+        while (!queue.isEmpty()) {
+            int touch = queue.remove(0);
+            boolean isLeft = Math.abs(x[touch] - left) <= Math.abs(x[touch]
+                    - right);
+            int best = -1;
+            int bestDistance = Integer.MAX_VALUE;
+            for (int dot = 0; dot < dots; dot++) {
+                if (isLeft(dot) != isLeft) {
+                    continue;
+                }
+                int distance = getDistance(dot, x[touch], y[touch]);
+                if (distance < bestDistance) {
+                    int other = matched[dot];
+                    if (other >= 0) {
+                        if (distance < getDistance(dot, x[other], y[other])) {
+                            queue.add(other);
+                            matched[dot] = -1;
+                        } else {
+                            continue;
+                        }
+                    }
+                    bestDistance = distance;
+                    best = dot;
+                }
+            }
+            if (best >= 0) {
+                matched[best] = touch;
+            }
+        }
+        return matched;
+    }
+
+    private static boolean isLeft(int dot) {
+        return dot < DOT_FOUR || dot == DOT_SEVEN;
+    }
+
+    private int getDistance(int dot, int x, int y) {
+        double horizontal = Math.pow(Math.abs(x - keysX[dot]), 2);
+        double vertical = Math.pow(Math.abs(y - keysY[dot]), 2);
+        return (int) Math.sqrt(horizontal + vertical);
+    }
+
+    private int getAverageColumn(boolean left) {
+        int total = 0;
+        for (int dot = 0; dot < keysX.length; dot++) {
+            if (isLeft(dot) == left) {
+                total += keysX[dot];
+            }
+        }
+        return total / (keysX.length / 2);
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2016 The Soft Braille Keyboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dalton.braillekeyboard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Types 15 chords a second into simulated editors and checks that the words
+ * are written promptly without piling up in a slow editor. Time is simulated
+ * in milliseconds with a frame every 1000 / 60 ms.
+ */
+public class OutputSchedulerTest {
+    private static final long MILLIS = 1000000L;
+    private static final double FRAME_MILLIS = 1000.0 / 60;
+    private static final int CHORD_MILLIS = 1000 / 15;
+    private static final int CHORDS = 45;
+
+    // Runs the frames itself rather than through Choreographer.
+    private static class TestScheduler extends OutputScheduler {
+        boolean posted;
+
+        TestScheduler(OnWriteListener listener) {
+            super(listener);
+        }
+
+        @Override
+        void postFrameCallback() {
+            posted = true;
+        }
+
+        @Override
+        void removeFrameCallback() {
+            posted = false;
+        }
+    }
+
+    // An editor which takes writeMillis to apply each write and then reports
+    // the selection it left, or doesn't report at all if reports is false.
+    private class Editor implements OutputScheduler.OnWriteListener {
+        final int writeMillis;
+        final boolean reports;
+        // The words written and the time each was applied, oldest first.
+        final ArrayDeque<String> queue = new ArrayDeque<String>();
+        final ArrayDeque<Long> finishTimes = new ArrayDeque<Long>();
+        String text = "";
+        String lastWritten = "";
+        int maxQueued;
+
+        Editor(int writeMillis, boolean reports) {
+            this.writeMillis = writeMillis;
+            this.reports = reports;
+        }
+
+        @Override
+        public boolean onWrite(CharSequence oldText, CharSequence newText) {
+            assertEquals(lastWritten, oldText.toString());
+            lastWritten = newText.toString();
+            long start = finishTimes.isEmpty() ? now : Math.max(now,
+                    finishTimes.peekLast());
+            queue.add(lastWritten);
+            finishTimes.add(start + writeMillis);
+            maxQueued = Math.max(maxQueued, queue.size());
+            return reports;
+        }
+
+        // Apply the writes which have finished by the current time.
+        void run() {
+            while (!finishTimes.isEmpty() && finishTimes.peekFirst() <= now) {
+                finishTimes.removeFirst();
+                text = queue.removeFirst();
+                if (reports) {
+                    // The selection only matches the last write's once the
+                    // editor has caught up with it.
+                    scheduler.editorUpdated(queue.isEmpty());
+                }
+            }
+        }
+    }
+
+    private TestScheduler scheduler;
+    private Editor editor;
+    private long now;
+
+    @Before
+    public void setUp() {
+        now = 0;
+    }
+
+    @Test
+    public void fastEditorShowsEveryChordOnTheNextFrame() {
+        int latency = type(new Editor(2, true));
+        assertTrue("latency " + latency, latency <= FRAME_MILLIS + 3);
+        assertEquals(1, editor.maxQueued);
+    }
+
+    @Test
+    public void slowEditorDoesntFallBehind() {
+        // Slower than the frame rate but faster than the chords.
+        int latency = type(new Editor(40, true));
+        assertTrue("latency " + latency, latency <= 2 * FRAME_MILLIS + 41);
+        assertEquals(1, editor.maxQueued);
+    }
+
+    @Test
+    public void unrecognisedReportsDontHoldUpWrites() {
+        int latency = type(new Editor(2, false));
+        assertTrue("latency " + latency, latency <= FRAME_MILLIS + 3);
+    }
+
+    @Test
+    public void reportsOfEarlierChangesDontEndTheWait() {
+        // Too slow to report anything by itself.
+        editor = new Editor(1000, true);
+        scheduler = new TestScheduler(editor);
+        scheduler.setText("a");
+        frame();
+        assertEquals("a", editor.lastWritten);
+        scheduler.setText("ab");
+        scheduler.editorUpdated(false);
+        frame();
+        assertEquals("a", editor.lastWritten);
+        assertFalse(scheduler.isSettled());
+
+        scheduler.editorUpdated(true);
+        assertTrue(scheduler.isSettled());
+        frame();
+        assertEquals("ab", editor.lastWritten);
+    }
+
+    @Test
+    public void lostReportTimesOut() {
+        editor = new Editor(1000, true);
+        scheduler = new TestScheduler(editor);
+        scheduler.setText("a");
+        frame();
+        scheduler.setText("ab");
+        long written = now;
+        while (!editor.lastWritten.equals("ab")) {
+            frame();
+        }
+        assertTrue(now - written <= OutputScheduler.MAX_WAIT_NANOS / MILLIS
+                + FRAME_MILLIS);
+    }
+
+    // Type CHORDS chords into the editor, one letter each, and return the
+    // longest time in milliseconds from a chord to the editor having its
+    // word.
+    private int type(Editor editor) {
+        this.editor = editor;
+        scheduler = new TestScheduler(editor);
+        StringBuilder word = new StringBuilder();
+        long[] typed = new long[CHORDS + 1];
+        int chords = 0;
+        int shown = 0;
+        int latency = 0;
+        double nextFrame = FRAME_MILLIS;
+        for (now = 0; shown < CHORDS; now++) {
+            if (now >= nextFrame) {
+                nextFrame += FRAME_MILLIS;
+                if (scheduler.posted) {
+                    scheduler.posted = false;
+                    scheduler.doFrame(now * MILLIS);
+                }
+            }
+            editor.run();
+            if (chords < CHORDS && now == (long) chords * CHORD_MILLIS) {
+                word.append((char) ('a' + chords % 26));
+                typed[++chords] = now;
+                scheduler.setText(word);
+            }
+            // A word is shown once the editor has it or a later one.
+            while (shown < editor.text.length()) {
+                ++shown;
+                latency = Math.max(latency, (int) (now - typed[shown]));
+            }
+        }
+        assertEquals(word.toString(), editor.text);
+        return latency;
+    }
+
+    // Run the next frame 1000 / 60 ms from now.
+    private void frame() {
+        now += (long) FRAME_MILLIS;
+        editor.run();
+        if (scheduler.posted) {
+            scheduler.posted = false;
+            scheduler.doFrame(now * MILLIS);
+        }
+    }
+}
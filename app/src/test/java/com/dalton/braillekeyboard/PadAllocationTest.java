@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2016 The Soft Braille Keyboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dalton.braillekeyboard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dalton.braillekeyboard.Pad.Coords;
+import com.dalton.braillekeyboard.Pad.Swipe;
+
+/**
+ * Checks that following a chord allocates nothing, by counting the bytes the
+ * thread allocates over many chords once everything has been loaded and
+ * compiled. A single allocation per event would be many bytes per chord.
+ */
+public class PadAllocationTest {
+    private static final int CHORDS = 20000;
+    private static final int FINGER_SIZE = 60;
+
+    private com.sun.management.ThreadMXBean threads;
+    private TestPad pad;
+    private Touches touches;
+
+    @Before
+    public void setUp() {
+        Object bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        // Dots 1 to 3 down the left column and 4 to 6 down the right.
+        pad = new TestPad(new Coords[] { new Coords(100, 100),
+                new Coords(100, 200), new Coords(100, 300),
+                new Coords(300, 100), new Coords(300, 200),
+                new Coords(300, 300) });
+        touches = new Touches(FINGER_SIZE);
+    }
+
+    @Test
+    public void typingDoesNotAllocate() {
+        // Dots 1, 2 and 5.
+        typeChord(0);
+        assertTrue(touches.isDown(0));
+        assertTrue(touches.isDown(1));
+        assertTrue(touches.isDown(4));
+        assertEquals(3, touches.count());
+
+        assertNoAllocation(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < CHORDS; i++) {
+                    typeChord(i);
+                }
+            }
+        });
+    }
+
+    @Test
+    public void swipingDoesNotAllocate() {
+        assertEquals(Swipe.valueOf(Touches.DOT_DOWN), swipe(0));
+
+        assertNoAllocation(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < CHORDS; i++) {
+                    swipe(i);
+                }
+            }
+        });
+    }
+
+    // Type dots 1, 2 and 5, wobbling a little from chord to chord.
+    private void typeChord(int i) {
+        int wobble = i % 7 - 3;
+        long time = i * 1000L;
+        touches.clear();
+        touches.down(3, 310 + wobble, 190, 40, time);
+        touches.down(1, 95, 105 + wobble, 40, time + 5);
+        touches.down(2, 105 - wobble, 210, 40, time + 10);
+        touches.move(1, 96, 106 + wobble);
+        touches.up(1, time + 100);
+        touches.up(2, time + 110);
+        touches.up(3, time + 120);
+        pad.getBrailleDots(touches, 6);
+        pad.updateKeys(true);
+    }
+
+    // Swipe one finger down.
+    private Swipe swipe(int i) {
+        long time = i * 1000L;
+        touches.clear();
+        touches.down(1, 100, 100, 40, time);
+        for (int y = 110; y <= 200; y += 10) {
+            touches.move(1, 100, y);
+        }
+        touches.up(1, time + 100);
+        return pad.getSwipe(touches, false);
+    }
+
+    private void assertNoAllocation(Runnable events) {
+        // Let the classes load and the code compile first.
+        events.run();
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        events.run();
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+        assertTrue(allocated + " bytes for " + CHORDS + " chords",
+                allocated < CHORDS);
+    }
+}
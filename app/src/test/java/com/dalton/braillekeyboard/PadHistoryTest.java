@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2016 The Soft Braille Keyboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dalton.braillekeyboard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.dalton.braillekeyboard.Pad.Coords;
+import com.dalton.braillekeyboard.Pad.History;
+
+/**
+ * Checks the drift of a key, which is kept as fixed-point running sums,
+ * against the weighted average of its history worked out in floating point
+ * the way it used to be, over long runs of touches so that rounding errors
+ * which built up would show.
+ */
+public class PadHistoryTest {
+    private static final int TOUCHES = 200000;
+
+    @Test
+    public void defaultHistoryMatchesExactly() {
+        assertEquals(0, maxError(History.DEFAULT, 5, 0.5, 1));
+    }
+
+    @Test
+    public void decayOfPointSevenIsWithinAPixel() {
+        assertTrue(maxError(new History(8, 0.7), 8, 0.7, 2) <= 1);
+        assertTrue(maxError(new History(3, 0.7), 3, 0.7, 3) <= 1);
+        assertTrue(maxError(new History(20, 0.7), 20, 0.7, 4) <= 1);
+    }
+
+    @Test
+    public void otherHistoriesAreWithinAPixel() {
+        assertEquals(0, maxError(new History(1, 0.5), 1, 0.5, 5));
+        assertTrue(maxError(new History(12, 1.0), 12, 1.0, 6) <= 1);
+        assertTrue(maxError(new History(4, 0.9), 4, 0.9, 7) <= 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decayMustBePositive() {
+        new History(5, 0);
+    }
+
+    // The largest difference in pixels between the key's drift and the
+    // floating point drift, touching a key near its position and moving it
+    // by its drift now and then like the Pad does.
+    private static int maxError(History history, int length, double decay,
+            long seed) {
+        Random random = new Random(seed);
+        int keyX = random.nextInt(4000);
+        int keyY = random.nextInt(4000);
+        Coords key = new Coords(keyX, keyY);
+        key.setHistory(history);
+        // The key's own position starts the history.
+        int[] historyX = new int[length];
+        int[] historyY = new int[length];
+        historyX[0] = keyX;
+        historyY[0] = keyY;
+        int size = 1;
+        int maxError = 0;
+        for (int i = 0; i < TOUCHES; i++) {
+            int x = key.x + random.nextInt(201) - 100;
+            int y = key.y + random.nextInt(201) - 100;
+            key.addSample(x, y);
+            if (size == length) {
+                System.arraycopy(historyX, 1, historyX, 0, length - 1);
+                System.arraycopy(historyY, 1, historyY, 0, length - 1);
+                --size;
+            }
+            historyX[size] = x;
+            historyY[size] = y;
+            ++size;
+
+            double weightedX = 0;
+            double weightedY = 0;
+            double total = 0;
+            double weight = 1;
+            for (int j = size - 1; j >= 0; j--) {
+                weightedX += weight * historyX[j];
+                weightedY += weight * historyY[j];
+                total += weight;
+                weight *= decay;
+            }
+            int driftX = (int) (weightedX / total) - key.x;
+            int driftY = (int) (weightedY / total) - key.y;
+            maxError = Math.max(maxError,
+                    Math.abs(driftX - key.getDriftX()));
+            maxError = Math.max(maxError,
+                    Math.abs(driftY - key.getDriftY()));
+            if (random.nextInt(4) == 0) {
+                key.update(key.getDriftX() / 2, key.getDriftY() / 2);
+            }
+        }
+        return maxError;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2016 The Soft Braille Keyboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dalton.braillekeyboard;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.dalton.braillekeyboard.Pad.Swipe;
+
+/**
+ * Checks the gesture table Swipe builds from its constants against the
+ * values Swipe.valueOf used to switch over, for every value of eight touches,
+ * and the mirrors against the switch HorizontalPad used to have.
+ */
+public class SwipeTableTest {
+    // Three bits for each of eight touches.
+    private static final int VALUES = 1 << 24;
+
+    // The values of the old switch, named after its constants where the
+    // gesture is made with more than one dot.
+    private static final Map<Integer, Swipe> OLD_VALUES = new HashMap<Integer, Swipe>();
+    static {
+        add(0, Swipe.NONE);
+        add(1, Swipe.ONE_LEFT);
+        add(2, Swipe.ONE_RIGHT);
+        add(3, Swipe.ONE_DOWN);
+        add(4, Swipe.ONE_UP);
+        add(8, Swipe.TWO_LEFT);
+        add(16, Swipe.TWO_RIGHT);
+        add(24, Swipe.TWO_DOWN);
+        add(32, Swipe.TWO_UP);
+        add(64, Swipe.THREE_LEFT);
+        add(128, Swipe.THREE_RIGHT);
+        add(192, Swipe.THREE_DOWN);
+        add(256, Swipe.THREE_UP);
+        add(512, Swipe.FOUR_LEFT);
+        add(1024, Swipe.FOUR_RIGHT);
+        add(1536, Swipe.FOUR_DOWN);
+        add(2048, Swipe.FOUR_UP);
+        add(4096, Swipe.FIVE_LEFT);
+        add(8192, Swipe.FIVE_RIGHT);
+        add(16384, Swipe.FIVE_UP);
+        add(12288, Swipe.FIVE_DOWN);
+        add(32768, Swipe.SIX_LEFT);
+        add(65536, Swipe.SIX_RIGHT);
+        add(98304, Swipe.SIX_DOWN);
+        add(131072, Swipe.SIX_UP);
+        add(229378, Swipe.HOLD_SIX_RIGHT); // HOLD_SIX_ONE_RIGHT
+        add(229392, Swipe.HOLD_SIX_RIGHT); // HOLD_SIX_TWO_RIGHT
+        add(229504, Swipe.HOLD_SIX_RIGHT); // HOLD_SIX_THREE_RIGHT
+        add(229377, Swipe.HOLD_SIX_LEFT); // HOLD_SIX_ONE_LEFT
+        add(229384, Swipe.HOLD_SIX_LEFT); // HOLD_SIX_TWO_LEFT
+        add(229440, Swipe.HOLD_SIX_LEFT); // HOLD_SIX_THREE_LEFT
+        add(229379, Swipe.HOLD_SIX_DOWN); // HOLD_SIX_ONE_DOWN
+        add(229400, Swipe.HOLD_SIX_DOWN); // HOLD_SIX_TWO_DOWN
+        add(229568, Swipe.HOLD_SIX_DOWN); // HOLD_SIX_THREE_DOWN
+        add(229380, Swipe.HOLD_SIX_UP); // HOLD_SIX_ONE_UP
+        add(229408, Swipe.HOLD_SIX_UP); // HOLD_SIX_TWO_UP
+        add(229632, Swipe.HOLD_SIX_UP); // HOLD_SIX_THREE_UP
+        add(33216, Swipe.HOLD_THREE_LEFT); // HOLD_THREE_SIX_LEFT
+        add(4544, Swipe.HOLD_THREE_LEFT); // HOLD_THREE_FIVE_LEFT
+        add(960, Swipe.HOLD_THREE_LEFT); // HOLD_THREE_FOUR_LEFT
+        add(65984, Swipe.HOLD_THREE_RIGHT); // HOLD_THREE_SIX_RIGHT
+        add(8640, Swipe.HOLD_THREE_RIGHT); // HOLD_THREE_FIVE_RIGHT
+        add(1472, Swipe.HOLD_THREE_RIGHT); // HOLD_THREE_FOUR_RIGHT
+        add(131520, Swipe.HOLD_THREE_UP); // HOLD_THREE_SIX_UP
+        add(16832, Swipe.HOLD_THREE_UP); // HOLD_THREE_FIVE_UP
+        add(2496, Swipe.HOLD_THREE_UP); // HOLD_THREE_FOUR_UP
+        add(98752, Swipe.HOLD_THREE_DOWN); // HOLD_THREE_SIX_DOWN
+        add(12736, Swipe.HOLD_THREE_DOWN); // HOLD_THREE_FIVE_DOWN
+        add(1984, Swipe.HOLD_THREE_DOWN); // HOLD_THREE_FOUR_DOWN
+        add(98311, Swipe.HOLD_ONE_DOWN); // HOLD_ONE_SIX_DOWN
+        add(12295, Swipe.HOLD_ONE_DOWN); // HOLD_ONE_FIVE_DOWN
+        add(1543, Swipe.HOLD_ONE_DOWN); // HOLD_ONE_FOUR_DOWN
+        // The old value, 131078, put 6 in the bits of dot 1, which no touch
+        // can give.
+        add(131079, Swipe.HOLD_ONE_UP); // HOLD_ONE_SIX_UP
+        add(16391, Swipe.HOLD_ONE_UP); // HOLD_ONE_FIVE_UP
+        add(2055, Swipe.HOLD_ONE_UP); // HOLD_ONE_FOUR_UP
+        add(65543, Swipe.HOLD_ONE_RIGHT); // HOLD_ONE_SIX_RIGHT
+        add(8199, Swipe.HOLD_ONE_RIGHT); // HOLD_ONE_FIVE_RIGHT
+        add(1031, Swipe.HOLD_ONE_RIGHT); // HOLD_ONE_FOUR_RIGHT
+        add(32775, Swipe.HOLD_ONE_LEFT); // HOLD_ONE_SIX_LEFT
+        add(4103, Swipe.HOLD_ONE_LEFT); // HOLD_ONE_FIVE_LEFT
+        add(519, Swipe.HOLD_ONE_LEFT); // HOLD_ONE_FOUR_LEFT
+        add(3585, Swipe.HOLD_FOUR_LEFT); // HOLD_FOUR_ONE_LEFT
+        add(3592, Swipe.HOLD_FOUR_LEFT); // HOLD_FOUR_TWO_LEFT
+        add(3648, Swipe.HOLD_FOUR_LEFT); // HOLD_FOUR_THREE_LEFT
+        add(3586, Swipe.HOLD_FOUR_RIGHT); // HOLD_FOUR_ONE_RIGHT
+        add(3600, Swipe.HOLD_FOUR_RIGHT); // HOLD_FOUR_TWO_RIGHT
+        add(3712, Swipe.HOLD_FOUR_RIGHT); // HOLD_FOUR_THREE_RIGHT
+        add(3587, Swipe.HOLD_FOUR_DOWN); // HOLD_FOUR_ONE_DOWN
+        add(3608, Swipe.HOLD_FOUR_DOWN); // HOLD_FOUR_TWO_DOWN
+        add(3776, Swipe.HOLD_FOUR_DOWN); // HOLD_FOUR_THREE_DOWN
+        add(3588, Swipe.HOLD_FOUR_UP); // HOLD_FOUR_ONE_UP
+        add(3616, Swipe.HOLD_FOUR_UP); // HOLD_FOUR_TWO_UP
+        add(3840, Swipe.HOLD_FOUR_UP); // HOLD_FOUR_THREE_UP
+    }
+
+    @Test
+    public void tableMatchesTheOldValues() {
+        for (int value = 0; value < VALUES; value++) {
+            Swipe expected = OLD_VALUES.get(value);
+            if (expected == null) {
+                expected = Swipe.UNKNOWN;
+            }
+            Swipe actual = Swipe.valueOf(value);
+            if (actual != expected) {
+                assertEquals(String.valueOf(value), expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void mirrorsMatchHorizontalPad() {
+        Map<Swipe, Swipe> mirrors = new EnumMap<Swipe, Swipe>(Swipe.class);
+        addMirror(mirrors, Swipe.ONE_LEFT, Swipe.ONE_RIGHT);
+        addMirror(mirrors, Swipe.TWO_LEFT, Swipe.TWO_RIGHT);
+        addMirror(mirrors, Swipe.THREE_LEFT, Swipe.THREE_RIGHT);
+        addMirror(mirrors, Swipe.FOUR_LEFT, Swipe.FOUR_RIGHT);
+        addMirror(mirrors, Swipe.FIVE_LEFT, Swipe.FIVE_RIGHT);
+        addMirror(mirrors, Swipe.SIX_LEFT, Swipe.SIX_RIGHT);
+        addMirror(mirrors, Swipe.HOLD_SIX_LEFT, Swipe.HOLD_SIX_RIGHT);
+        addMirror(mirrors, Swipe.HOLD_THREE_LEFT, Swipe.HOLD_THREE_RIGHT);
+        addMirror(mirrors, Swipe.HOLD_ONE_LEFT, Swipe.HOLD_ONE_RIGHT);
+        addMirror(mirrors, Swipe.HOLD_FOUR_LEFT, Swipe.HOLD_FOUR_RIGHT);
+        for (Swipe swipe : Swipe.values()) {
+            Swipe expected = mirrors.get(swipe);
+            assertEquals(swipe.name(), expected != null ? expected : swipe,
+                    swipe.getMirror());
+        }
+    }
+
+    private static void add(int value, Swipe swipe) {
+        OLD_VALUES.put(value, swipe);
+    }
+
+    private static void addMirror(Map<Swipe, Swipe> mirrors, Swipe left,
+            Swipe right) {
+        mirrors.put(left, right);
+        mirrors.put(right, left);
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2016 The Soft Braille Keyboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dalton.braillekeyboard;
+
+/**
+ * A pad with keys at fixed positions, which doesn't need a Context.
+ */
+class TestPad extends Pad {
+    static final int SWIPE_THRESHOLD = 40;
+
+    /**
+     * @param coords
+     *            The position of each key in dot order.
+     */
+    TestPad(Coords[] coords) {
+        super(coords, 1000, 600, 0, false, SWIPE_THRESHOLD);
+    }
+
+    @Override
+    Swipe getSwipe(Touches touches, boolean swap) {
+        return getGenericSwipeAction(touches, swap);
+    }
+}
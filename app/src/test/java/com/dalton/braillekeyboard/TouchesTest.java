@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2016 The Soft Braille Keyboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dalton.braillekeyboard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks that touches get a slot whatever their pointer id, and that when
+ * every slot is taken the palms and brushes are dropped rather than the
+ * fingers typing the chord.
+ */
+public class TouchesTest {
+    private static final int FINGER_SIZE = 60;
+    private static final int FINGER = 40;
+    private static final int PALM = 300;
+
+    private final Touches touches = new Touches(FINGER_SIZE);
+
+    @Test
+    public void anyPointerIdGetsAFreeSlot() {
+        assertTrue(touches.down(100, 10, 10, FINGER, 0));
+        assertTrue(touches.down(5000, 20, 20, FINGER, 1));
+        assertTrue(touches.down(8, 30, 30, FINGER, 2));
+        assertEquals(0, touches.find(100));
+        assertEquals(1, touches.find(5000));
+        assertEquals(2, touches.find(8));
+        assertEquals(3, touches.count());
+    }
+
+    @Test
+    public void liftedFingerKeepsItsSlotButNotItsId() {
+        touches.down(0, 10, 10, FINGER, 0);
+        touches.up(0, 100);
+        assertEquals(-1, touches.find(0));
+        assertFalse(touches.move(0, 20, 20));
+
+        // The system gives the id to the next finger.
+        touches.down(0, 30, 30, FINGER, 110);
+        assertEquals(1, touches.find(0));
+        assertTrue(touches.isLifted(0));
+        assertEquals(10, touches.getX(0));
+        assertEquals(30, touches.getX(1));
+        assertEquals(2, touches.count());
+    }
+
+    @Test
+    public void palmIsDroppedWhenTheSlotsAreFull() {
+        for (int id = 0; id < Touches.MAX_TOUCHES; id++) {
+            assertTrue(touches.down(id, id * 10, 0, FINGER, id));
+        }
+        assertFalse(touches.down(8, 500, 500, PALM, 20));
+        assertEquals(-1, touches.find(8));
+        assertEquals(Touches.MAX_TOUCHES, touches.count());
+    }
+
+    @Test
+    public void fingerReplacesAPalm() {
+        touches.down(0, 500, 500, PALM, 0);
+        for (int id = 1; id < Touches.MAX_TOUCHES; id++) {
+            touches.down(id, id * 10, 0, FINGER, id);
+        }
+        assertTrue(touches.down(8, 80, 0, FINGER, 20));
+        assertEquals(0, touches.find(8));
+        assertEquals(FINGER, touches.getSize(0));
+        for (int id = 1; id < Touches.MAX_TOUCHES; id++) {
+            assertEquals(id, touches.find(id));
+        }
+    }
+
+    @Test
+    public void fingerReplacesABrush() {
+        for (int id = 0; id < Touches.MAX_TOUCHES; id++) {
+            touches.down(id, id * 10, 0, FINGER, 0);
+        }
+        // Slot 5 only brushed the screen, slot 2 was a short tap.
+        touches.up(5, 5);
+        touches.up(2, 30);
+        assertTrue(touches.down(8, 80, 0, FINGER, 40));
+        assertEquals(5, touches.find(8));
+        assertTrue(touches.down(9, 90, 0, FINGER, 50));
+        assertEquals(2, touches.find(9));
+        // A finger held as long as the others isn't replaced.
+        touches.up(0, 100);
+        assertFalse(touches.down(10, 100, 0, FINGER, 110));
+    }
+
+    @Test
+    public void fingersAreKeptThroughNoise() {
+        Random random = new Random(22);
+        for (int chord = 0; chord < 2000; chord++) {
+            touches.clear();
+            int nextId = random.nextInt(1000);
+            int fingers = random.nextInt(6) + 1;
+            int[] fingerIds = new int[fingers];
+            int typed = 0;
+            long time = 0;
+            while (typed < fingers) {
+                time += random.nextInt(20);
+                int id = nextId++;
+                int x = random.nextInt(1000);
+                int y = random.nextInt(600);
+                switch (random.nextInt(3)) {
+                case 0:
+                    // A palm resting on the screen.
+                    touches.down(id, x, y, PALM + random.nextInt(PALM), time);
+                    break;
+                case 1:
+                    // A brush, which lifts straight away.
+                    touches.down(id, x, y, random.nextInt(FINGER_SIZE), time);
+                    touches.up(id, time + random.nextInt(10));
+                    break;
+                default:
+                    assertTrue("chord " + chord,
+                            touches.down(id, x, y, FINGER, time));
+                    fingerIds[typed++] = id;
+                    break;
+                }
+            }
+            for (int id : fingerIds) {
+                assertTrue("chord " + chord, touches.find(id) >= 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2016 The Soft Braille Keyboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dalton.braillekeyboard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.dalton.braillekeyboard.BrailleParser.BrailleType;
+
+/**
+ * Checks the characters typed in Unicode Braille and that switching the
+ * Braille type goes through it after computer Braille.
+ */
+public class UnicodeBrailleTest {
+
+    @Test
+    public void everyCellIsItsBraillePattern() {
+        for (int dots = 0; dots < 256; dots++) {
+            String pattern = UnicodeBraille.getPattern((byte) dots);
+            assertEquals(1, pattern.length());
+            assertEquals(0x2800 + dots, pattern.charAt(0));
+            assertEquals(Character.UnicodeBlock.BRAILLE_PATTERNS,
+                    Character.UnicodeBlock.of(pattern.charAt(0)));
+            // Typing doesn't allocate.
+            assertSame(pattern, UnicodeBraille.getPattern((byte) dots));
+        }
+        // Dots 1-2-3-4-5-6-7-8.
+        assertEquals("\u28ff", UnicodeBraille.getPattern((byte) 0xff));
+        // Dots 1-3-4, the letter m.
+        assertEquals("\u280d", UnicodeBraille.getPattern((byte) 0x0d));
+    }
+
+    @Test
+    public void switchingGoesThroughUnicodeAfterComputerBraille() {
+        Mode mode = new Mode(false, BrailleType.LITERARY);
+        mode.switchType();
+        assertFalse(mode.unicodeBraille);
+        assertEquals(BrailleType.COMPUTER, mode.type);
+        mode.switchType();
+        assertTrue(mode.unicodeBraille);
+        assertEquals(BrailleType.COMPUTER, mode.type);
+        mode.switchType();
+        assertFalse(mode.unicodeBraille);
+        assertEquals(BrailleType.LITERARY, mode.type);
+    }
+
+    @Test
+    public void leavingUnicodeKeepsLiteraryBraille() {
+        // Turned on while literary Braille was stored, for example in an
+        // earlier version.
+        Mode mode = new Mode(true, BrailleType.LITERARY);
+        mode.switchType();
+        assertFalse(mode.unicodeBraille);
+        assertEquals(BrailleType.LITERARY, mode.type);
+    }
+
+    @Test
+    public void withoutTablesOnlyUnicodeIsSwitched() {
+        assertEquals(UnicodeBraille.SWITCH_UNICODE,
+                UnicodeBraille.getSwitches(false, null));
+        assertEquals(UnicodeBraille.SWITCH_UNICODE,
+                UnicodeBraille.getSwitches(true, null));
+    }
+
+    // The Unicode Braille preference and the BrailleType, switched the way
+    // BrailleIME.switchBrailleType does it.
+    private static class Mode {
+        boolean unicodeBraille;
+        BrailleType type;
+
+        Mode(boolean unicodeBraille, BrailleType type) {
+            this.unicodeBraille = unicodeBraille;
+            this.type = type;
+        }
+
+        void switchType() {
+            int switches = UnicodeBraille.getSwitches(unicodeBraille, type);
+            if ((switches & UnicodeBraille.SWITCH_UNICODE) != 0) {
+                unicodeBraille = !unicodeBraille;
+            }
+            if ((switches & UnicodeBraille.SWITCH_TYPE) != 0) {
+                type = type.switchType();
+            }
+        }
+    }
+}
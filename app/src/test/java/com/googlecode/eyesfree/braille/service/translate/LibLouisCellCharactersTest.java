@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2016 The Soft Braille Keyboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.eyesfree.braille.service.translate;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.googlecode.eyesfree.braille.translate.BackTranslationResult;
+
+/**
+ * Checks that back translating with getCellCharacters gives the same result as
+ * applying the rules of the table, for every cell on its own and next to other
+ * cells, for every table in tablelist.xml which has the lookup.
+ */
+public class LibLouisCellCharactersTest {
+    private static final int RANDOM_WORDS = 2000;
+    private static final int MAX_CELLS = 12;
+
+    @Test
+    public void lookupMatchesRules() throws Exception {
+        int tables = 0;
+        for (TestTables.Entry entry : TestTables.getEntries()) {
+            LibLouisTranslator translator = TestTables
+                    .getTranslator(entry.fileName);
+            if (translator.getCellCharacters() == null) {
+                continue;
+            }
+            ++tables;
+            int cellCount = entry.dots == 8 ? 256 : 64;
+            for (int cell = 0; cell < cellCount; cell++) {
+                check(entry, translator, new byte[] { (byte) cell });
+                // Padded, as words are passed to the translator.
+                check(entry, translator, new byte[] { 0, (byte) cell, 0 });
+                check(entry, translator,
+                        new byte[] { (byte) cell, (byte) cell });
+                for (int other = 1; other < cellCount; other++) {
+                    check(entry, translator,
+                            new byte[] { (byte) other, (byte) cell });
+                }
+            }
+
+            Random random = new Random(entry.id.hashCode());
+            for (int i = 0; i < RANDOM_WORDS; i++) {
+                byte[] cells = new byte[random.nextInt(MAX_CELLS) + 1];
+                for (int j = 0; j < cells.length; j++) {
+                    cells[j] = (byte) random.nextInt(cellCount);
+                }
+                check(entry, translator, cells);
+            }
+        }
+        assertTrue("No table uses the lookup", tables > 0);
+    }
+
+    private static void check(TestTables.Entry entry,
+            LibLouisTranslator translator, byte[] cells) {
+        String message = entry.id + " " + TestTables.toDots(cells);
+        assertEquals(message, translator.backTranslateByRules(cells),
+                translator.backTranslate(cells));
+
+        BackTranslationResult expected = translator
+                .backTranslateWithPositionsByRules(cells, 0, cells.length);
+        BackTranslationResult actual = translator
+                .backTranslateWithPositions(cells, 0, cells.length);
+        assertEquals(message, expected.getText(), actual.getText());
+        assertArrayEquals(message, expected.getBrailleToTextPositions(),
+                actual.getBrailleToTextPositions());
+        assertArrayEquals(message, expected.getUnknownCells(),
+                actual.getUnknownCells());
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2016 The Soft Braille Keyboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.eyesfree.braille.service.translate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Checks backTranslate against golden files for every table in
+ * tablelist.xml, so a change to the compiler or translator which changes what
+ * a table types shows up as a diff of src/test/resources/golden.
+ *
+ * Each table is given every cell on its own and the cells for a fixed list of
+ * words. Each line of a golden file is the cells, as written by
+ * TestTables.toDots, a tab and the text they back translate to. Run with the
+ * environment variable UPDATE_GOLDEN set to write the golden files instead of
+ * checking them.
+ */
+@RunWith(Parameterized.class)
+public class LibLouisGoldenTest {
+    private static final File GOLDEN_DIR = new File("src/test/resources/golden");
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Words forward translated to get cells with contractions, numbers,
+    // capitals and punctuation in them.
+    private static final String[] WORDS = { "a", "the", "and", "for", "with",
+            "of", "Hello", "WORLD", "braille", "keyboard", "question",
+            "together", "knowledge", "children", "ought", "because", "123",
+            "2016", "3.14", "don't", "e-mail", "(quoted)", "yes!", "why?",
+            "one, two", "a.b@example.com", "über", "café", "niño", "Straße",
+            "привет", "γεια", "שלום", "مرحبا", "नमस्ते", "你好" };
+
+    private final TestTables.Entry entry;
+
+    public LibLouisGoldenTest(TestTables.Entry entry) {
+        this.entry = entry;
+    }
+
+    @Parameters(name = "{0}")
+    public static Collection<Object[]> getTables() throws Exception {
+        List<Object[]> tables = new ArrayList<Object[]>();
+        for (TestTables.Entry entry : TestTables.getEntries()) {
+            tables.add(new Object[] { entry });
+        }
+        return tables;
+    }
+
+    @Test
+    public void backTranslate() throws Exception {
+        LibLouisTranslator translator = TestTables
+                .getTranslator(entry.fileName);
+        Map<String, String> actual = new LinkedHashMap<String, String>();
+        int cells = entry.dots == 8 ? 0xff : 0x3f;
+        for (int cell = 1; cell <= cells; cell++) {
+            put(actual, translator, new byte[] { (byte) cell });
+        }
+        for (String word : WORDS) {
+            byte[] translated = translator.translate(word);
+            if (translated != null && translated.length > 0) {
+                put(actual, translator, translated);
+            }
+        }
+
+        File golden = new File(GOLDEN_DIR, entry.id + ".txt");
+        if (System.getenv("UPDATE_GOLDEN") != null) {
+            write(golden, actual);
+            return;
+        }
+        assertTrue("No golden file for " + entry.id
+                + ", run with UPDATE_GOLDEN set", golden.isFile());
+        Map<String, String> expected = read(golden);
+        for (Map.Entry<String, String> line : expected.entrySet()) {
+            byte[] input = TestTables.fromDots(line.getKey());
+            assertEquals(entry.id + " " + line.getKey(), line.getValue(),
+                    translator.backTranslate(input));
+        }
+        assertEquals(entry.id + " inputs", expected.keySet(), actual.keySet());
+    }
+
+    private static void put(Map<String, String> actual,
+            LibLouisTranslator translator, byte[] cells) {
+        String text = translator.backTranslate(cells);
+        actual.put(TestTables.toDots(cells), text == null ? "" : text);
+    }
+
+    private static Map<String, String> read(File file) throws IOException {
+        Map<String, String> lines = new LinkedHashMap<String, String>();
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), UTF_8));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                lines.put(line.substring(0, tab),
+                        TestTables.unescape(line.substring(tab + 1)));
+            }
+        } finally {
+            in.close();
+        }
+        return lines;
+    }
+
+    private static void write(File file, Map<String, String> lines)
+            throws IOException {
+        file.getParentFile().mkdirs();
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), UTF_8);
+        try {
+            for (Map.Entry<String, String> line : lines.entrySet()) {
+                out.write(line.getKey() + '\t'
+                        + TestTables.escape(line.getValue()) + '\n');
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2016 The Soft Braille Keyboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.eyesfree.braille.service.translate;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Times typing the last cell of a word with a LibLouisSession against back
+ * translating the whole word again, which is what BrailleParser did before
+ * sessions. Prints a table of the time per cell; the only check is that both
+ * give the same text, so it can't fail on a slow machine.
+ */
+public class LibLouisSessionBenchmark {
+    private static final String[] TABLES = { "en-us-g2.ctb", "en-GB-g2.ctb",
+            "de-de-g2.ctb", "Fr-Fr-g2.ctb" };
+    private static final int[] LENGTHS = { 1, 10, 50, 200 };
+    private static final String TEXT = "the quick brown fox jumps over the "
+            + "lazy dog while the children ought to know about braille "
+            + "keyboards and question everything together ";
+    private static final long RUN_NANOS = 200 * 1000 * 1000L;
+
+    @Test
+    public void appendLastCell() throws Exception {
+        System.out.println("table          cells  backTranslate  appendCell");
+        for (String fileName : TABLES) {
+            LibLouisTranslator translator = TestTables.getTranslator(fileName);
+            byte[] text = translator.translate(TEXT + TEXT + TEXT + TEXT);
+            for (int length : LENGTHS) {
+                byte[] cells = new byte[length];
+                for (int i = 0; i < length; i++) {
+                    // Leave out blanks so the cells are one long word.
+                    byte cell = text[i % text.length];
+                    cells[i] = cell == 0 ? 1 : cell;
+                }
+                double full = timeFull(translator, cells);
+                double session = timeSession(translator, cells);
+                System.out.println(String.format("%-14s %5d %11.2f us %8.2f us",
+                        fileName, length, full / 1000, session / 1000));
+            }
+        }
+    }
+
+    // Nanoseconds to back translate all the cells.
+    private static double timeFull(LibLouisTranslator translator, byte[] cells) {
+        for (int i = 0; i < 1000; i++) {
+            translator.backTranslate(cells);
+        }
+        long start = System.nanoTime();
+        long end;
+        int runs = 0;
+        do {
+            translator.backTranslate(cells);
+            ++runs;
+        } while ((end = System.nanoTime()) - start < RUN_NANOS);
+        return (double) (end - start) / runs;
+    }
+
+    // Nanoseconds to add the last cell to a session holding the rest and get
+    // the text, then take the cell away again.
+    private static double timeSession(LibLouisTranslator translator,
+            byte[] cells) {
+        LibLouisSession session = (LibLouisSession) translator.beginSession();
+        for (int i = 0; i < cells.length - 1; i++) {
+            session.appendCell(cells[i]);
+        }
+        session.getText();
+        byte last = cells[cells.length - 1];
+        session.appendCell(last);
+        assertEquals(translator.backTranslateWithPositions(cells).getText(),
+                session.getText().toString());
+        session.removeLastCell();
+        for (int i = 0; i < 1000; i++) {
+            session.appendCell(last);
+            session.getText();
+            session.removeLastCell();
+        }
+        long start = System.nanoTime();
+        long end;
+        int runs = 0;
+        do {
+            session.appendCell(last);
+            session.getText();
+            session.removeLastCell();
+            ++runs;
+        } while ((end = System.nanoTime()) - start < RUN_NANOS);
+        return (double) (end - start) / runs;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2016 The Soft Braille Keyboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.eyesfree.braille.service.translate;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import com.googlecode.eyesfree.braille.translate.BackTranslationResult;
+
+/**
+ * Checks that a LibLouisSession gives the same result as
+ * backTranslateWithPositions for all of its cells after random edits, for
+ * every table in tablelist.xml.
+ */
+@RunWith(Parameterized.class)
+public class LibLouisSessionTest {
+    private static final int OPERATIONS = 2000;
+    private static final int MAX_CELLS = 40;
+
+    private final TestTables.Entry entry;
+
+    public LibLouisSessionTest(TestTables.Entry entry) {
+        this.entry = entry;
+    }
+
+    @Parameters(name = "{0}")
+    public static Collection<Object[]> getTables() throws Exception {
+        List<Object[]> tables = new ArrayList<Object[]>();
+        for (TestTables.Entry entry : TestTables.getEntries()) {
+            tables.add(new Object[] { entry });
+        }
+        return tables;
+    }
+
+    @Test
+    public void randomEdits() throws Exception {
+        LibLouisTranslator translator = TestTables
+                .getTranslator(entry.fileName);
+        LibLouisSession session = (LibLouisSession) translator.beginSession();
+        Random random = new Random(entry.id.hashCode());
+        int cellMask = entry.dots == 8 ? 0xff : 0x3f;
+        byte[] cells = new byte[MAX_CELLS];
+        int count = 0;
+        for (int i = 0; i < OPERATIONS; i++) {
+            int op = random.nextInt(10);
+            if (op < 6 && count < MAX_CELLS) {
+                // Mostly cells with few dots, like letters, some blanks.
+                byte cell = (byte) (op == 0 ? 0 : (random.nextInt(cellMask)
+                        & random.nextInt(cellMask)) + 1);
+                cells[count++] = cell;
+                session.appendCell(cell);
+            } else if (op < 9 && count > 0) {
+                --count;
+                session.removeLastCell();
+            } else if (op == 9 && random.nextInt(20) == 0) {
+                count = 0;
+                session.clear();
+            }
+            if (random.nextBoolean()) {
+                continue;
+            }
+            BackTranslationResult expected = translator
+                    .backTranslateWithPositions(cells, 0, count);
+            BackTranslationResult actual = session.getResult();
+            String message = entry.id + " "
+                    + TestTables.toDots(Arrays.copyOf(cells, count));
+            assertEquals(message, expected.getText(), actual.getText());
+            assertArrayEquals(message, expected.getBrailleToTextPositions(),
+                    actual.getBrailleToTextPositions());
+            assertArrayEquals(message, expected.getUnknownCells(),
+                    actual.getUnknownCells());
+        }
+    }
+}
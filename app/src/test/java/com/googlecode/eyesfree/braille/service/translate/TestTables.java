@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2016 The Soft Braille Keyboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.eyesfree.braille.service.translate;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * The tables listed in tablelist.xml, compiled the way the
+ * compileTranslationTables task in app/build.gradle does it and read back
+ * through a LibLouisTableFile like the app reads them.
+ *
+ * Paths are relative to the app module, which is where Gradle runs the unit
+ * tests.
+ */
+public final class TestTables {
+    static final File TABLE_LIST = new File("src/main/res/xml/tablelist.xml");
+    static final File TABLE_ZIP = new File("src/tables/translationtables.zip");
+    static final File PATCHED_TABLES = new File("../third_party/Liblouis");
+
+    private static final String ZIP_DIR = "liblouis/tables/";
+
+    /**
+     * A table element in tablelist.xml.
+     */
+    static final class Entry {
+        final String id;
+        final String fileName;
+        final int dots;
+
+        Entry(String id, String fileName, int dots) {
+            this.id = id;
+            this.fileName = fileName;
+            this.dots = dots;
+        }
+
+        @Override
+        public String toString() {
+            return id;
+        }
+    }
+
+    private static List<Entry> entries;
+    private static LibLouisTableFile tableFile;
+
+    private TestTables() {
+    }
+
+    /**
+     * @return The tables in the order tablelist.xml lists them.
+     */
+    static synchronized List<Entry> getEntries() throws Exception {
+        if (entries == null) {
+            NodeList tables = DocumentBuilderFactory.newInstance()
+                    .newDocumentBuilder().parse(TABLE_LIST)
+                    .getElementsByTagName("table");
+            List<Entry> list = new ArrayList<Entry>();
+            for (int i = 0; i < tables.getLength(); i++) {
+                Element table = (Element) tables.item(i);
+                list.add(new Entry(table.getAttribute("id"),
+                        table.getAttribute("fileName"), Integer
+                                .parseInt(table.getAttribute("dots"))));
+            }
+            entries = Collections.unmodifiableList(list);
+        }
+        return entries;
+    }
+
+    /**
+     * @return The compiled table for an entry in tablelist.xml.
+     */
+    static synchronized LibLouisTable getTable(String fileName)
+            throws Exception {
+        if (tableFile == null) {
+            tableFile = compileAll();
+        }
+        LibLouisTable table = tableFile.getTable(fileName);
+        if (table == null) {
+            throw new IllegalArgumentException("Not in tablelist.xml: "
+                    + fileName);
+        }
+        return table;
+    }
+
+    /**
+     * @return A translator for an entry in tablelist.xml, also used by the
+     *         tests of the keyboard.
+     */
+    public static LibLouisTranslator getTranslator(String fileName)
+            throws Exception {
+        return new LibLouisTranslator(getTable(fileName));
+    }
+
+    private static LibLouisTableFile compileAll() throws Exception {
+        final ZipFile zip = new ZipFile(TABLE_ZIP);
+        try {
+            LibLouisCompiler.TableSource source = new LibLouisCompiler.TableSource() {
+                @Override
+                public InputStream open(String fileName) throws IOException {
+                    File patched = new File(PATCHED_TABLES, fileName);
+                    if (patched.isFile()) {
+                        return new FileInputStream(patched);
+                    }
+                    ZipEntry entry = zip.getEntry(ZIP_DIR + fileName);
+                    if (entry == null) {
+                        throw new FileNotFoundException(fileName);
+                    }
+                    return zip.getInputStream(entry);
+                }
+            };
+            Map<String, LibLouisTable> tables = new TreeMap<String, LibLouisTable>();
+            for (Entry entry : getEntries()) {
+                if (!tables.containsKey(entry.fileName)) {
+                    tables.put(entry.fileName,
+                            LibLouisCompiler.compile(source, entry.fileName));
+                }
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            LibLouisTableFile.write(tables, out);
+            return LibLouisTableFile.read(ByteBuffer.wrap(out.toByteArray()));
+        } finally {
+            zip.close();
+        }
+    }
+
+    /**
+     * @return Cells written as dot numbers, eg. 145-1-0 where 0 is a blank
+     *         cell.
+     */
+    static String toDots(byte[] cells) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < cells.length; i++) {
+            if (i > 0) {
+                sb.append('-');
+            }
+            if (cells[i] == 0) {
+                sb.append('0');
+                continue;
+            }
+            for (int dot = 0; dot < 8; dot++) {
+                if ((cells[i] & (1 << dot)) != 0) {
+                    sb.append((char) ('1' + dot));
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The reverse of toDots.
+     */
+    static byte[] fromDots(String dots) {
+        if (dots.isEmpty()) {
+            return new byte[0];
+        }
+        String[] cells = dots.split("-");
+        byte[] result = new byte[cells.length];
+        for (int i = 0; i < cells.length; i++) {
+            int cell = 0;
+            for (int j = 0; j < cells[i].length(); j++) {
+                int dot = cells[i].charAt(j) - '1';
+                if (dot >= 0) {
+                    cell |= 1 << dot;
+                }
+            }
+            result[i] = (byte) cell;
+        }
+        return result;
+    }
+
+    private static final Map<Character, Character> ESCAPES = new HashMap<Character, Character>();
+    static {
+        ESCAPES.put('\\', '\\');
+        ESCAPES.put('\t', 't');
+        ESCAPES.put('\n', 'n');
+        ESCAPES.put('\r', 'r');
+    }
+
+    /**
+     * @return Text with backslashes, tabs and line breaks escaped so it fits
+     *         on one line of a golden file. Other control characters are
+     *         written as \\uXXXX so git doesn't treat the file as binary.
+     */
+    static String escape(String text) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            Character escape = ESCAPES.get(c);
+            if (escape != null) {
+                sb.append('\\').append(escape.charValue());
+            } else if (Character.isISOControl(c)) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The reverse of escape.
+     */
+    static String unescape(String text) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c != '\\' || i + 1 == text.length()) {
+                sb.append(c);
+                continue;
+            }
+            char escape = text.charAt(++i);
+            if (escape == 'u' && i + 4 < text.length()) {
+                sb.append((char) Integer.parseInt(
+                        text.substring(i + 1, i + 5), 16));
+                i += 4;
+                continue;
+            }
+            for (Map.Entry<Character, Character> entry : ESCAPES.entrySet()) {
+                if (entry.getValue().charValue() == escape) {
+                    escape = entry.getKey().charValue();
+                    break;
+                }
+            }
+            sb.append(escape);
+        }
+        return sb.toString();
+    }
+}
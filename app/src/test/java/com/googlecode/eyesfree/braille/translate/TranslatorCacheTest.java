@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2016 The Soft Braille Keyboard Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecode.eyesfree.braille.translate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Switches between tables the way BrailleParser does, getting each table's
+ * translator from the cache and adding it on a miss. Translators are strings
+ * whose length is the size of their table.
+ */
+public class TranslatorCacheTest {
+    private TranslatorCache<String> cache;
+
+    @Before
+    public void setUp() {
+        // Room for two of the tables below.
+        cache = new TranslatorCache<String>(10) {
+
+            @Override
+            protected int sizeOf(String id, String translator) {
+                return translator.length();
+            }
+        };
+    }
+
+    @Test
+    public void switchingBackIsACacheHit() {
+        String g1 = switchTo("en-us-g1", "g1g1");
+        String g2 = switchTo("en-us-g2", "g2g2g2");
+        assertSame(g1, switchTo("en-us-g1", "new g1"));
+        assertSame(g2, switchTo("en-us-g2", "new g2"));
+        assertEquals(2, cache.hitCount());
+        assertEquals(2, cache.missCount());
+    }
+
+    @Test
+    public void leastRecentlyUsedTableIsDropped() {
+        String g1 = switchTo("en-us-g1", "g1g1");
+        switchTo("en-us-g2", "g2g2");
+        // Using grade 1 again makes grade 2 the oldest.
+        switchTo("en-us-g1", "new g1");
+        switchTo("de-de-g1", "dede");
+
+        assertNull(cache.get("en-us-g2"));
+        assertSame(g1, cache.get("en-us-g1"));
+        assertEquals(8, cache.size());
+    }
+
+    @Test
+    public void tableLargerThanTheBudgetIsntKept() {
+        switchTo("en-us-g1", "g1g1");
+        switchTo("huge", "0123456789ab");
+        assertNull(cache.get("huge"));
+        assertNull(cache.get("en-us-g1"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void trimmingKeepsTheMostRecentlyUsed() {
+        switchTo("en-us-g1", "g1g1");
+        String g2 = switchTo("en-us-g2", "g2g2");
+        cache.trimToSize(cache.maxSize() / 2);
+        assertNull(cache.get("en-us-g1"));
+        assertSame(g2, cache.get("en-us-g2"));
+        assertEquals(10, cache.maxSize());
+
+        cache.evictAll();
+        assertNull(cache.get("en-us-g2"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void resizingDropsWhatNoLongerFits() {
+        switchTo("en-us-g1", "g1g1");
+        String g2 = switchTo("en-us-g2", "g2g2");
+        cache.resize(4);
+        assertSame(g2, cache.get("en-us-g2"));
+        assertNull(cache.get("en-us-g1"));
+        // Replacing a translator doesn't count it twice.
+        cache.put("en-us-g2", "g2g2");
+        assertEquals(4, cache.size());
+    }
+
+    // Get the translator for a table, loading it if it isn't cached.
+    private String switchTo(String id, String loaded) {
+        String translator = cache.get(id);
+        if (translator == null) {
+            translator = loaded;
+            cache.put(id, translator);
+        }
+        return translator;
+    }
+}